@@ -0,0 +1,52 @@
+// DocumentConstructionBenchmark
+//
+// The per-document client work of CBPopulateBucketTimer and CBBulkLoadTimer: building the JSON text
+// and parsing it into a JsonDocument.  directJsonObject builds the same content with put() calls,
+// for comparison.
+//
+//   java -jar benchmarks/target/benchmarks.jar DocumentConstructionBenchmark
+
+package com.couchbase.support;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DocumentConstructionBenchmark {
+
+	int  serialNumber = 0;
+	long creationDate = System.currentTimeMillis();
+
+	@Benchmark
+	public JsonDocument createTestDocument() {
+		return CBPopulateBucketTimer.createTestDocument(serialNumber++, creationDate);
+	}
+
+	@Benchmark
+	public JsonDocument directJsonObject() {
+		int n = serialNumber++;
+		JsonObject jsonObject = JsonObject.create()
+				.put("name", "testDocument")
+				.put("serialNumber", n)
+				.put("creationDate", creationDate);
+		return JsonDocument.create("testDocument" + n, jsonObject);
+	}
+
+} // DocumentConstructionBenchmark
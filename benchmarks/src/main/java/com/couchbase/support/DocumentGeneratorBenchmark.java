@@ -0,0 +1,70 @@
+// DocumentGeneratorBenchmark
+//
+// Client-side cost of producing one document ready to send, by document size: DocumentGenerator
+// patching its template, against building the same JSON text and parsing it into a JsonObject,
+// which the SDK then serializes again on insert.
+//
+//   java -jar benchmarks/target/benchmarks.jar DocumentGeneratorBenchmark -prof gc
+
+package com.couchbase.support;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.couchbase.client.java.document.json.JsonObject;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DocumentGeneratorBenchmark {
+
+	@Param({ "0", "1024", "51200" })
+	int documentSize;
+
+	@Param({ "4" })
+	int fields;
+
+	DocumentGenerator generator;
+	String            filler;	// the generator's filler, for building the same document by hand
+	int               serialNumber = 0;
+	long              creationDate = System.currentTimeMillis();
+
+	@Setup
+	public void setUp() {
+		generator = new DocumentGenerator(documentSize, fields, 0);
+		JsonObject sample = JsonObject.fromJson(generator.create(0, 0).content());
+		filler = sample.containsKey("field0") ? sample.getString("field0") : null;
+	}
+
+	@Benchmark
+	public String template() {
+		return generator.create(serialNumber++, creationDate).content();
+	}
+
+	@Benchmark
+	public String buildParseAndSerialize() {
+		int n = serialNumber++;
+		StringBuilder sb = new StringBuilder(documentSize + 128);
+		sb.append("{ \"name\" : \"testDocument\", \"serialNumber\" : ").append(n).append(", \"creationDate\" : ").append(creationDate);
+		if (filler != null) {
+			for (int f = 0; f < fields; f++) { sb.append(", \"field").append(f).append("\" : \"").append(filler).append('"'); }
+		}
+		sb.append(" }");
+		return JsonObject.fromJson(sb.toString()).toString();
+	}
+
+} // DocumentGeneratorBenchmark
@@ -0,0 +1,167 @@
+// StandInBucket
+//
+// An in-process Bucket for the benchmarks.  Only the view query paths the timers use are backed:
+// bucket.query(ViewQuery) and bucket.async().query(ViewQuery) both return the same fixed set of rows,
+// whatever the query asks for.  name() and close() work; every other Bucket method throws.
+//
+// The rows are kept as the JSON text a view response would carry, and each query decodes them
+// again, so the client-side cost of turning a response into ViewRows is part of what gets measured.
+
+package com.couchbase.support;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.functions.Func0;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.AsyncViewResult;
+import com.couchbase.client.java.view.AsyncViewRow;
+import com.couchbase.client.java.view.DefaultAsyncViewResult;
+import com.couchbase.client.java.view.DefaultAsyncViewRow;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+
+class StandInBucket {
+
+	String   bucketName;
+	String[] rowIds;
+	String[] rowKeys;
+	String[] rowValues;	// JSON text of each emitted value
+
+	Bucket      bucket;
+	AsyncBucket asyncBucket;
+
+	// Rows shaped like ViewTimingTestRoundtrip's view: the key is the document name and the value
+	// holds creationDate and viewDateNow, a little apart
+	public StandInBucket(String name, int numRows) {
+		bucketName = name;
+		rowIds     = new String[numRows];
+		rowKeys    = new String[numRows];
+		rowValues  = new String[numRows];
+
+		long creationDate = System.currentTimeMillis();
+
+		for (int i = 0; i < numRows; i++) {
+			rowIds[i]    = "testDocument" + i;
+			rowKeys[i]   = rowIds[i];
+			rowValues[i] = "{ \"creationDate\" : " + (creationDate + i) + ", \"viewDateNow\" : " + (creationDate + i + (i % 50)) + " }";
+		}
+
+		asyncBucket = (AsyncBucket) Proxy.newProxyInstance(AsyncBucket.class.getClassLoader(),
+				new Class<?>[] { AsyncBucket.class }, new AsyncHandler());
+		bucket = (Bucket) Proxy.newProxyInstance(Bucket.class.getClassLoader(),
+				new Class<?>[] { Bucket.class }, new SyncHandler());
+	}
+
+	public Bucket getBucket() { return bucket; }
+
+	public int getRowCount() { return rowIds.length; }
+
+	List<ViewRow> decodeRows() {
+		List<ViewRow> rows = new ArrayList<ViewRow>(rowIds.length);
+		for (int i = 0; i < rowIds.length; i++) {
+			rows.add(new StandInViewRow(rowIds[i], rowKeys[i], JsonObject.fromJson(rowValues[i])));
+		}
+		return rows;
+	}
+
+	List<AsyncViewRow> decodeAsyncRows() {
+		List<AsyncViewRow> rows = new ArrayList<AsyncViewRow>(rowIds.length);
+		for (int i = 0; i < rowIds.length; i++) {
+			rows.add(new DefaultAsyncViewRow(asyncBucket, rowIds[i], rowKeys[i], JsonObject.fromJson(rowValues[i])));
+		}
+		return rows;
+	}
+
+	static UnsupportedOperationException unsupported(Method method) {
+		return new UnsupportedOperationException("StandInBucket does not implement " + method.getName());
+	}
+
+	class SyncHandler implements InvocationHandler {
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String m = method.getName();
+			if (m.equals("query") && (args.length == 1)) { return new StandInViewResult(decodeRows()); }
+			if (m.equals("async"))    { return asyncBucket; }
+			if (m.equals("name"))     { return bucketName; }
+			if (m.equals("close"))    { return Boolean.TRUE; }
+			if (m.equals("toString")) { return "StandInBucket " + bucketName; }
+			if (m.equals("hashCode")) { return System.identityHashCode(proxy); }
+			if (m.equals("equals"))   { return (proxy == args[0]); }
+			throw unsupported(method);
+		}
+	}
+
+	class AsyncHandler implements InvocationHandler {
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String m = method.getName();
+			if (m.equals("query")) {
+				// Decoded lazily, as the SDK does when the response arrives
+				return Observable.defer(new Func0<Observable<AsyncViewResult>>() {
+					public Observable<AsyncViewResult> call() {
+						List<AsyncViewRow> rows = decodeAsyncRows();
+						AsyncViewResult result = new DefaultAsyncViewResult(Observable.from(rows), rows.size(), true,
+								Observable.<JsonObject>empty(), null);
+						return Observable.just(result);
+					}
+				});
+			}
+			if (m.equals("name"))     { return bucketName; }
+			if (m.equals("toString")) { return "StandInBucket " + bucketName + " (async)"; }
+			if (m.equals("hashCode")) { return System.identityHashCode(proxy); }
+			if (m.equals("equals"))   { return (proxy == args[0]); }
+			throw unsupported(method);
+		}
+	}
+
+	// DefaultViewRow needs a live CouchbaseEnvironment, so the synchronous rows are this instead.
+	// Fetching the row's document is not supported.
+	static class StandInViewRow implements ViewRow {
+
+		String id;
+		Object key;
+		Object value;
+
+		StandInViewRow(String i, Object k, Object v) { id = i; key = k; value = v; }
+
+		public String id()    { return id; }
+		public Object key()   { return key; }
+		public Object value() { return value; }
+
+		public JsonDocument document()                                       { throw new UnsupportedOperationException("StandInViewRow.document()"); }
+		public JsonDocument document(long timeout, TimeUnit unit)            { throw new UnsupportedOperationException("StandInViewRow.document()"); }
+		public <D extends Document<?>> D document(Class<D> target)           { throw new UnsupportedOperationException("StandInViewRow.document()"); }
+		public <D extends Document<?>> D document(Class<D> target, long timeout, TimeUnit unit) { throw new UnsupportedOperationException("StandInViewRow.document()"); }
+
+		public String toString() { return "ViewRow{id=" + id + ", key=" + key + ", value=" + value + "}"; }
+	}
+
+	static class StandInViewResult implements ViewResult {
+
+		List<ViewRow> rows;
+
+		StandInViewResult(List<ViewRow> r) { rows = r; }
+
+		public List<ViewRow> allRows()                            { return rows; }
+		public List<ViewRow> allRows(long timeout, TimeUnit unit) { return rows; }
+		public Iterator<ViewRow> rows()                            { return rows.iterator(); }
+		public Iterator<ViewRow> rows(long timeout, TimeUnit unit) { return rows.iterator(); }
+		public Iterator<ViewRow> iterator()                        { return rows.iterator(); }
+		public int totalRows()                                     { return rows.size(); }
+		public boolean success()                                   { return true; }
+		public JsonObject error()                                  { return null; }
+		public JsonObject error(long timeout, TimeUnit unit)       { return null; }
+		public JsonObject debug()                                  { return null; }
+	}
+
+} // StandInBucket
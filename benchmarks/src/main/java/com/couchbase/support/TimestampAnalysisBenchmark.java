@@ -0,0 +1,67 @@
+// TimestampAnalysisBenchmark
+//
+// The per-row work of analyzeTimestampsInResults(): reading creationDate and viewDateNow out of each
+// view row.  timestampAnalyzer is what the program does now; toStringAndReparse is the earlier way
+// of turning each row back into text and parsing it again, kept as a baseline.  Both run over the
+// same materialized rows, so only the analysis is measured.
+//
+//   java -jar benchmarks/target/benchmarks.jar TimestampAnalysisBenchmark
+
+package com.couchbase.support;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.ViewRow;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TimestampAnalysisBenchmark {
+
+	@Param({ "1000", "10000" })
+	int rowCount;
+
+	List<ViewRow> rows;
+
+	@Setup
+	public void setUp() {
+		rows = new StandInBucket("benchmarkBucket", rowCount).decodeRows();
+	}
+
+	@Benchmark
+	public double timestampAnalyzer() {
+		TimestampAnalyzer analyzer = new TimestampAnalyzer(false);
+		for (ViewRow vr : rows) {
+			analyzer.consumeRow(vr.id(), vr.key(), vr.value());
+		}
+		return analyzer.getAverageDiff();
+	}
+
+	@Benchmark
+	public long toStringAndReparse() {
+		long totalDiff = 0;
+		for (ViewRow vr : rows) {
+			JsonObject valueJO = JsonObject.fromJson(vr.value().toString());
+			totalDiff += valueJO.getLong("viewDateNow") - valueJO.getLong("creationDate");
+		}
+		return totalDiff;
+	}
+
+} // TimestampAnalysisBenchmark
@@ -0,0 +1,76 @@
+// ViewRowHandlingBenchmark
+//
+// CBFullViewQueryTimer's handling of a full view result, against a StandInBucket so there is no
+// network in the measurement: materializing every row (and indexing its key) versus streaming the
+// rows through the async API to a consumer.  Each invocation is one whole query of rowCount rows.
+//
+// doTheWork() is called directly, as performTest() prints a banner to the console.
+//
+//   java -jar benchmarks/target/benchmarks.jar ViewRowHandlingBenchmark
+
+package com.couchbase.support;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.view.Stale;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ViewRowHandlingBenchmark {
+
+	@Param({ "1000", "10000" })
+	int rowCount;
+
+	Bucket bucket;
+
+	@Setup
+	public void setUp() {
+		bucket = new StandInBucket("benchmarkBucket", rowCount).getBucket();
+	}
+
+	@Benchmark
+	public void materialized(Blackhole bh) throws Exception {
+		CBFullViewQueryTimer fvqt = new CBFullViewQueryTimer(bucket, "dd1", "vn1", Stale.FALSE);
+		fvqt.doTheWork();
+		bh.consume(fvqt.getViewResult());
+		bh.consume(fvqt.getKeyIndex());
+	}
+
+	@Benchmark
+	public int streamedAndDiscarded() throws Exception {
+		CBFullViewQueryTimer fvqt = new CBFullViewQueryTimer(bucket, "dd1", "vn1", Stale.FALSE, ViewRowConsumer.DISCARD);
+		fvqt.doTheWork();
+		return fvqt.getTotalResults();
+	}
+
+	@Benchmark
+	public void streamedToBlackhole(final Blackhole bh) throws Exception {
+		CBFullViewQueryTimer fvqt = new CBFullViewQueryTimer(bucket, "dd1", "vn1", Stale.FALSE, new ViewRowConsumer() {
+			public void consumeRow(String id, Object key, Object value) {
+				bh.consume(id);
+				bh.consume(key);
+				bh.consume(value);
+			}
+		});
+		fvqt.doTheWork();
+	}
+
+} // ViewRowHandlingBenchmark
@@ -0,0 +1,92 @@
+// AsyncResultWriter
+//
+// Appends text to a file from a background thread, so a timer thread that reports something only
+// puts a string on a queue: no disk or console I/O on the thread being measured.  The thread
+// writes through a BufferedWriter and flushes whenever the queue runs empty.
+//
+// close() writes out everything queued so far and waits for the file to be closed.  The first
+// I/O error stops the writing and is thrown from close().
+
+package com.couchbase.support;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+class AsyncResultWriter {
+
+	static final String ENDOFSTREAM = new String("end of stream");	// compared by identity, so no text can be mistaken for it
+
+	Path                  path;
+	BlockingQueue<String> queue;
+	Thread                writerThread;
+	volatile IOException  failure;
+	boolean               closed;
+
+	public AsyncResultWriter(Path p) throws IOException {
+		path  = p;
+		queue = new LinkedBlockingQueue<String>();
+
+		final Writer writer = new BufferedWriter(Files.newBufferedWriter(p, Charset.forName("UTF-8")), 65536);
+
+		writerThread = new Thread(new Runnable() {
+			public void run() { drain(writer); }
+		}, "AsyncResultWriter-" + p.getFileName());
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	public Path getPath() { return path; }
+
+	public void write(String text) {
+		if (closed) { throw new IllegalStateException(path + " is closed"); }
+		queue.add(text);
+	}
+
+	public void writeLine(String line) {
+		write(line + "\n");
+	}
+
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			queue.add(ENDOFSTREAM);
+			try {
+				writerThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while closing " + path, e);
+			}
+		}
+		if (failure != null) { throw failure; }
+	}
+
+	void drain(Writer writer) {
+		try {
+			try {
+				while (true) {
+					String text = queue.poll();
+					if (text == null) {
+						writer.flush();
+						text = queue.take();
+					}
+					if (text == ENDOFSTREAM) { break; }
+					writer.write(text);
+				}
+			}
+			finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (InterruptedException e) {
+			failure = new IOException("Interrupted while writing " + path, e);
+		}
+	}
+
+} // AsyncResultWriter
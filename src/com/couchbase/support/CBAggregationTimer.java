@@ -0,0 +1,193 @@
+// CBAggregationTimer
+//
+// Times getting a grouped aggregate out of a view, one of two ways:
+//
+//   server  the view's reduce function does the work: one query with reduce=true and group or
+//           group_level, which returns a row per group
+//   client  every row is read with reduce=false, as CBFullViewQueryTimer reads them, and the
+//           aggregate is computed here from the emitted values
+//
+// groupLevel 0 reduces the whole view to one row, GROUPEXACT groups by the whole key (group=true),
+// and n > 0 groups array keys by their first n elements (group_level=n).  The client computes
+// _count, _sum or _stats, the built-in reduces, over numeric values; the view's own reduce can be
+// any function that matches, JavaScript included.
+//
+// The query, and for the client the aggregation, is repeated `repeats` times, each recorded as one
+// operation.  One more, untimed, run counts the rows received and their payload: the characters of
+// each row's id, key and value as JSON, which is roughly what crosses the network.  Its results are
+// kept as group key -> aggregate, so sameResult() can check a server run against a client run.
+
+package com.couchbase.support;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+
+class CBAggregationTimer extends TimingClass {
+
+	static final int    GROUPEXACT = Integer.MAX_VALUE;
+	static final String SERVER     = "server";
+	static final String CLIENT     = "client";
+
+	Bucket  bucket;
+	String  designDocName;
+	String  viewName;
+	Stale   stale;
+	String  aggregate;			// _count, _sum or _stats, for the client
+	int     groupLevel;
+	String  where;
+	int     repeats;
+
+	long    rowsReceived;
+	long    payloadCharacters;
+	Map<String, Object> groups;		// group key as JSON -> aggregate
+
+	public CBAggregationTimer(Bucket b, String dn, String vn, Stale stl, String agg, int level, String serverOrClient, int rpt) {
+		if (!agg.equals("_count") && !agg.equals("_sum") && !agg.equals("_stats")) {
+			throw new IllegalArgumentException("The aggregate must be _count, _sum or _stats, not " + agg);
+		}
+		if (level < 0) { throw new IllegalArgumentException("groupLevel must not be negative"); }
+		if (rpt < 1)   { throw new IllegalArgumentException("repeats must be at least 1"); }
+		if (!serverOrClient.equals(SERVER) && !serverOrClient.equals(CLIENT)) {
+			throw new IllegalArgumentException("Aggregate on \"" + SERVER + "\" or \"" + CLIENT + "\", not " + serverOrClient);
+		}
+
+		bucket        = b;
+		designDocName = dn;
+		viewName      = vn;
+		stale         = stl;
+		aggregate     = agg;
+		groupLevel    = level;
+		where         = serverOrClient;
+		repeats       = rpt;
+
+		enableOperationTiming();
+	}
+
+	public String getWhere()            { return where; }
+	public long getRowsReceived()       { return rowsReceived; }
+	public long getPayloadCharacters()  { return payloadCharacters; }
+	public int getGroupCount()          { return (groups == null) ? 0 : groups.size(); }
+	public Map<String, Object> getGroups() { return groups; }
+
+	static String describeGrouping(int level) {
+		if (level == 0)          { return "no grouping"; }
+		if (level == GROUPEXACT) { return "group"; }
+		return "group_level " + level;
+	}
+
+	public void doTheWork() throws Exception {
+
+		ViewQuery query = ViewQuery.from(designDocName, viewName).stale(stale);
+		if (where.equals(CLIENT))          { query.reduce(false); }
+		else if (groupLevel == 0)          { query.reduce(true); }
+		else if (groupLevel == GROUPEXACT) { query.reduce(true).group(true); }
+		else                               { query.reduce(true).groupLevel(groupLevel); }
+
+		for (int i = 0; i < repeats; i++) {
+			long operationStart = startOperation();
+			aggregateOnce(query, false);
+			recordOperation(operationStart);
+		}
+
+		// Serializing every row to count its characters would bill the client side for the harness's
+		// work, so the payload comes from one more query that is not timed
+		aggregateOnce(query, true);
+	}
+
+	void aggregateOnce(ViewQuery query, boolean measurePayload) {
+
+		ViewResult result = bucket.query(query);
+		if (!result.success()) { throw new IllegalStateException("The view query failed: " + result.error()); }
+
+		rowsReceived      = 0;
+		payloadCharacters = 0;
+		groups = new LinkedHashMap<String, Object>();
+		Map<String, ClientAggregate> partial = new LinkedHashMap<String, ClientAggregate>();
+
+		for (ViewRow row : result) {
+			rowsReceived++;
+			if (measurePayload) {
+				payloadCharacters += ((row.id() == null) ? 0 : row.id().length()) + String.valueOf(row.key()).length()
+						+ String.valueOf(row.value()).length();
+			}
+
+			if (where.equals(SERVER)) {
+				groups.put(String.valueOf(row.key()), row.value());
+				continue;
+			}
+			String groupKey = String.valueOf(InMemoryViewIndex.groupKey(row.key(), groupLevel));
+			ClientAggregate a = partial.get(groupKey);
+			if (a == null) { a = new ClientAggregate(); partial.put(groupKey, a); }
+			a.add(row.value());
+		}
+
+		for (Map.Entry<String, ClientAggregate> e : partial.entrySet()) {
+			groups.put(e.getKey(), e.getValue().result(aggregate));
+		}
+	}
+
+	// The same groups with the same aggregates, numbers compared to a relative 1e-9
+	public boolean sameResult(CBAggregationTimer other) {
+		if ((groups == null) || (other.groups == null) || !groups.keySet().equals(other.groups.keySet())) { return false; }
+		for (Map.Entry<String, Object> e : groups.entrySet()) {
+			if (!sameValue(e.getValue(), other.groups.get(e.getKey()))) { return false; }
+		}
+		return true;
+	}
+
+	static boolean sameValue(Object a, Object b) {
+		if ((a instanceof Number) && (b instanceof Number)) {
+			double x = ((Number) a).doubleValue();
+			double y = ((Number) b).doubleValue();
+			return Math.abs(x - y) <= 1e-9 * Math.max(1.0, Math.max(Math.abs(x), Math.abs(y)));
+		}
+		if ((a instanceof JsonObject) && (b instanceof JsonObject)) {
+			JsonObject x = (JsonObject) a;
+			JsonObject y = (JsonObject) b;
+			if (!x.getNames().equals(y.getNames())) { return false; }
+			for (String name : x.getNames()) {
+				if (!sameValue(x.get(name), y.get(name))) { return false; }
+			}
+			return true;
+		}
+		if ((a instanceof JsonArray) && (b instanceof JsonArray)) {
+			return sameValue(((JsonArray) a).toList(), ((JsonArray) b).toList());
+		}
+		return (a == null) ? (b == null) : a.equals(b);
+	}
+
+	// The running _count, _sum and _stats of one group, as the view engine computes them
+	static class ClientAggregate {
+		long    count;
+		boolean integral = true;
+		double  sum, sumsqr;
+		double  min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+
+		void add(Object value) {
+			count++;
+			if (!(value instanceof Number)) { return; }
+			double d = ((Number) value).doubleValue();
+			if ((value instanceof Double) || (value instanceof Float)) { integral = false; }
+			sum += d;
+			sumsqr += d * d;
+			if (d < min) { min = d; }
+			if (d > max) { max = d; }
+		}
+
+		Object result(String aggregate) {
+			if (aggregate.equals("_count")) { return count; }
+			if (aggregate.equals("_sum"))   { return integral ? (Object) (long) sum : (Object) sum; }
+			return JsonObject.create().put("sum", sum).put("count", count).put("min", (count == 0) ? 0 : min)
+					.put("max", (count == 0) ? 0 : max).put("sumsqr", sumsqr);
+		}
+	}
+
+} // CBAggregationTimer
@@ -0,0 +1,199 @@
+// CBBulkLoadTimer
+//
+// An alternative to CBPopulateBucketTimer.  Instead of one blocking bucket.insert() per document,
+// the documents are handed to bucket.async() and many inserts are kept in flight at once.
+// A semaphore caps the number of outstanding inserts, so when the cluster slows down the
+// loader slows down with it (backpressure) instead of queueing an unbounded number of requests.
+//
+// Documents are grouped into batches of batchSize purely for reporting: the latency of a batch is
+// the time from submitting its first insert until its last insert completes.  Batches overlap,
+// the loader never waits for one batch to drain before starting the next.
+//
+// The latency of every individual insert is also recorded through TimingClass.recordOperation().
+// Documents come from a DocumentGenerator, which also sets their size and shape.
+//
+// Only the Bucket interface is used, so any stand-in Bucket implementation can be passed in.
+
+package com.couchbase.support;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rx.Subscriber;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.RawJsonDocument;
+
+class CBBulkLoadTimer extends TimingClass {
+
+	Bucket bucket;
+	int    firstSerialNumber;
+	int    numDocumentsToInsert;
+	int    maxInFlight;
+	int    batchSize;
+	DocumentGenerator generator;
+	boolean upsert;
+
+	long[]          batchLatencies;		// nanoseconds, one entry per batch
+	AtomicInteger   successCount;
+	AtomicInteger   failureCount;
+	AtomicReference<Throwable> firstFailure;
+
+	public CBBulkLoadTimer(Bucket b, int numDocs, int inFlight, int batch) {
+		this(b, numDocs, inFlight, batch, new DocumentGenerator());
+	}
+
+	public CBBulkLoadTimer(Bucket b, int numDocs, int inFlight, int batch, DocumentGenerator gen) {
+		this(b, 0, numDocs, inFlight, batch, gen);
+	}
+
+	// Documents numbered from firstSerial on, to add to a bucket that is already loaded
+	public CBBulkLoadTimer(Bucket b, int firstSerial, int numDocs, int inFlight, int batch, DocumentGenerator gen) {
+		if (inFlight < 1) { throw new IllegalArgumentException("inFlight must be at least 1"); }
+		if (batch < 1)    { throw new IllegalArgumentException("batch must be at least 1"); }
+
+		bucket               = b;
+		firstSerialNumber    = firstSerial;
+		numDocumentsToInsert = numDocs;
+		maxInFlight          = inFlight;
+		batchSize            = batch;
+		generator            = gen;
+
+		successCount = new AtomicInteger(0);
+		failureCount = new AtomicInteger(0);
+		firstFailure = new AtomicReference<Throwable>(null);
+
+		enableOperationTiming();
+	}
+
+	// true: upsert instead of insert, so documents that are already there are written again rather than failing
+	public void setUpsert(boolean u) { upsert = u; }
+
+	public int getSuccessCount() { return successCount.get(); }
+
+	public int getFailureCount() { return failureCount.get(); }
+
+	public int getBatchCount() { return (batchLatencies == null) ? 0 : batchLatencies.length; }
+
+	// Batch latencies in milliseconds, with sub-millisecond resolution
+	public double getMinBatchLatency() {
+		if (getBatchCount() == 0) { return 0; }
+		long min = Long.MAX_VALUE;
+		for (long l : batchLatencies) { if (l < min) { min = l; } }
+		return min / 1000000.0;
+	}
+
+	public double getMaxBatchLatency() {
+		if (getBatchCount() == 0) { return 0; }
+		long max = 0;
+		for (long l : batchLatencies) { if (l > max) { max = l; } }
+		return max / 1000000.0;
+	}
+
+	public double getAverageBatchLatency() {
+		if (getBatchCount() == 0) { return 0; }
+		long total = 0;
+		for (long l : batchLatencies) { total += l; }
+		return (total / (double) batchLatencies.length) / 1000000.0;
+	}
+
+	public double getDocumentsPerSecond() {
+		long elapsed = getElapsedTime();
+		if (elapsed <= 0) { return 0; }
+		return (successCount.get() * 1000.0) / elapsed;
+	}
+
+	public void doTheWork() throws Exception {
+
+		AsyncBucket asyncBucket = bucket.async();
+		Semaphore   permits     = new Semaphore(maxInFlight);
+
+		int numBatches = (numDocumentsToInsert + batchSize - 1) / batchSize;
+		batchLatencies = new long[numBatches];
+
+		for (int batchNumber = 0; batchNumber < numBatches; batchNumber++) {
+
+			int firstDoc = batchNumber * batchSize;
+			int lastDoc  = Math.min(firstDoc + batchSize, numDocumentsToInsert);
+
+			BatchTracker tracker = new BatchTracker(batchNumber, lastDoc - firstDoc, permits);
+
+			for (int i = firstDoc; i < lastDoc; i++) {
+
+				RawJsonDocument document = generator.create(firstSerialNumber + i, System.currentTimeMillis());
+
+				// Blocks here when maxInFlight inserts are outstanding
+				permits.acquire();
+
+				// The operation clock starts after the permit is granted, so waiting for a permit is not counted as insert latency
+				Subscriber<RawJsonDocument> subscriber = tracker.newSubscriber();
+				(upsert ? asyncBucket.upsert(document) : asyncBucket.insert(document)).subscribe(subscriber);
+
+			} // for each document in the batch
+
+		} // for each batch
+
+		// Once every permit can be taken back, every insert has completed
+		permits.acquire(maxInFlight);
+		permits.release(maxInFlight);
+
+		Throwable t = firstFailure.get();
+		if (t != null) {
+			if (t instanceof Exception) { throw (Exception) t; }
+			throw new RuntimeException(t);
+		}
+
+	} // doTheWork
+
+	// Keeps track of the outstanding inserts of one batch and records its latency when the last one finishes
+	class BatchTracker {
+
+		int           batchNumber;
+		long          batchStart;
+		AtomicInteger remaining;
+		Semaphore     permits;
+
+		BatchTracker(int n, int size, Semaphore s) {
+			batchNumber = n;
+			batchStart  = System.nanoTime();
+			remaining   = new AtomicInteger(size);
+			permits     = s;
+		}
+
+		Subscriber<RawJsonDocument> newSubscriber() {
+
+			final long operationStart = startOperation();
+
+			return new Subscriber<RawJsonDocument>() {
+
+				public void onNext(RawJsonDocument d) {
+					successCount.incrementAndGet();
+				}
+
+				public void onError(Throwable e) {
+					failureCount.incrementAndGet();
+					firstFailure.compareAndSet(null, e);
+					recordOperation(operationStart);
+					finished();
+				}
+
+				public void onCompleted() {
+					recordOperation(operationStart);
+					finished();
+				}
+			};
+		}
+
+		void finished() {
+			if (remaining.decrementAndGet() == 0) {
+				batchLatencies[batchNumber] = System.nanoTime() - batchStart;
+			}
+			// Released last, so that the final acquire in doTheWork() sees every latency written
+			permits.release();
+		}
+
+	} // BatchTracker
+
+} // CBBulkLoadTimer
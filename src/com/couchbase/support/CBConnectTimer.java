@@ -0,0 +1,24 @@
+// CBConnectTimer
+//
+// Times connecting to a cluster.
+
+package com.couchbase.support;
+
+import com.couchbase.client.java.CouchbaseCluster;
+
+class CBConnectTimer extends TimingClass {
+
+	CouchbaseCluster sourceCluster;
+	String hostName;
+
+	public CBConnectTimer(String s) {
+		hostName = s;
+	}
+
+	public CouchbaseCluster getCluster() { return sourceCluster; };
+
+	public void doTheWork() throws Exception {
+		sourceCluster = CouchbaseCluster.create(hostName);
+	}
+
+} // CBConnectTimer
@@ -0,0 +1,28 @@
+// CBConvergenceTimer
+//
+// Runs a ConvergenceWaiter as a TimingClass, so that "wait until the view shows X" can be a step
+// like any other.  didConverge() is false if the waiter's deadline passed first.
+
+package com.couchbase.support;
+
+class CBConvergenceTimer extends TimingClass {
+
+	ConvergenceWaiter waiter;
+	ConvergenceProbe  probe;
+	boolean           converged;
+
+	public CBConvergenceTimer(ConvergenceWaiter w, ConvergenceProbe p) {
+		waiter    = w;
+		probe     = p;
+		converged = false;
+	}
+
+	public boolean didConverge() { return converged; }
+
+	public ConvergenceWaiter getWaiter() { return waiter; }
+
+	public void doTheWork() throws Exception {
+		converged = waiter.await(probe);
+	}
+
+} // CBConvergenceTimer
@@ -0,0 +1,53 @@
+// CBCreateDesignDocumentTimer
+//
+// Times creating a production design document.  Usually that is a single map-only view; a reduce
+// function (_count, _sum, _stats or JavaScript) can be given with it, or a list of views.
+
+package com.couchbase.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.bucket.BucketManager;
+import com.couchbase.client.java.view.DefaultView;
+import com.couchbase.client.java.view.DesignDocument;
+import com.couchbase.client.java.view.View;
+
+class CBCreateDesignDocumentTimer extends TimingClass {
+
+	Bucket     bucket;
+	String     designDocumentName;
+	List<View> views;
+
+	public CBCreateDesignDocumentTimer(Bucket b, String ddn, String vn, String mf) {
+		this(b, ddn, vn, mf, null);
+	}
+
+	// rf is the reduce function, null for a map-only view
+	public CBCreateDesignDocumentTimer(Bucket b, String ddn, String vn, String mf, String rf) {
+		this(b, ddn, new ArrayList<View>());
+		views.add(createView(vn, mf, rf));
+	}
+
+	public CBCreateDesignDocumentTimer(Bucket b, String ddn, List<View> vs) {
+		bucket             = b;
+		designDocumentName = ddn;
+		views              = vs;
+	}
+
+	static View createView(String vn, String mf, String rf) {
+		return (rf == null) ? DefaultView.create(vn, mf) : DefaultView.create(vn, mf, rf);
+	}
+
+	public void doTheWork() throws Exception {
+
+		List<View> listOfViews = new ArrayList<View>(views);
+
+		DesignDocument dd = DesignDocument.create(designDocumentName, listOfViews);
+
+		BucketManager bm = bucket.bucketManager();
+		bm.insertDesignDocument(dd);
+	}
+
+} // create a design document
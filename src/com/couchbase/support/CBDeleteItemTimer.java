@@ -0,0 +1,23 @@
+// CBDeleteItemTimer
+//
+// Times removing a single document.
+
+package com.couchbase.support;
+
+import com.couchbase.client.java.Bucket;
+
+class CBDeleteItemTimer extends TimingClass {
+
+	Bucket bucket;
+	String documentKey;
+
+	public CBDeleteItemTimer(Bucket b, String docKey) {
+		bucket = b;
+		documentKey = docKey;
+	}
+
+	public void doTheWork() throws Exception {
+		bucket.remove(documentKey);
+	}
+
+}
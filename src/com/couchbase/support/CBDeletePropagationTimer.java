@@ -0,0 +1,206 @@
+// CBDeletePropagationTimer
+//
+// The delete test at scale.  Removes a list of documents, optionally with several removes in flight
+// at once through bucket.async(), and then measures how long each delete takes to disappear from the view.
+//
+// Rather than scanning the whole view and searching it for every key, the keys that are still
+// outstanding are kept in a HashSet and each poll asks the view for exactly those keys with
+// ViewQuery.keys().  A key that is no longer returned is removed from the set and its
+// delete -> index removal latency is recorded.  That latency is measured from when its own remove
+// completed to the midpoint between the last poll that still returned it and the first poll that
+// did not (never earlier than the remove itself).  Polls are paced by a ConvergenceWaiter.
+//
+// The remove calls themselves are recorded as operations; the propagation latencies are in
+// getPropagationHistogram().
+
+package com.couchbase.support;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.HdrHistogram.Histogram;
+
+import rx.Subscriber;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+
+class CBDeletePropagationTimer extends TimingClass {
+
+	Bucket   bucket;
+	String   designDocName;
+	String   viewName;
+	String[] keysToDelete;
+	int      maxConcurrent;
+	int      keysPerQuery;
+	ConvergenceWaiter waiter;
+
+	Map<String, Long> deletedAtNanos;		// key -> System.nanoTime() when its remove completed
+	Set<String>       outstandingKeys;		// deleted, but still returned by the view
+	Histogram         propagationHistogram;	// nanoseconds
+	int               pollCount;
+
+	public CBDeletePropagationTimer(Bucket b, String dn, String vn, String[] keys, int concurrency, int chunkSize, ConvergenceWaiter w) {
+		if (concurrency < 1) { throw new IllegalArgumentException("concurrency must be at least 1"); }
+		if (chunkSize < 1)   { throw new IllegalArgumentException("chunkSize must be at least 1"); }
+
+		bucket        = b;
+		designDocName = dn;
+		viewName      = vn;
+		keysToDelete  = keys;
+		maxConcurrent = concurrency;
+		keysPerQuery  = chunkSize;
+		waiter        = w;
+
+		deletedAtNanos       = new ConcurrentHashMap<String, Long>();
+		outstandingKeys      = new HashSet<String>();
+		propagationHistogram = new Histogram(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS);
+
+		enableOperationTiming();
+	}
+
+	public Histogram getPropagationHistogram() { return propagationHistogram; }
+
+	public int getRemovedFromIndexCount() { return (int) propagationHistogram.getTotalCount(); }
+
+	public int getOutstandingCount() { return outstandingKeys.size(); }
+
+	public int getPollCount() { return pollCount; }
+
+	public boolean allDeletesPropagated() { return outstandingKeys.isEmpty(); }
+
+	public String getPropagationSummary() {
+		if (propagationHistogram.getTotalCount() == 0) { return "no deletes observed in the index"; }
+		return latencySummary("deletes", propagationHistogram);
+	}
+
+	public Map<String, Histogram> getHistograms() {
+		Map<String, Histogram> histograms = super.getHistograms();
+		histograms.put("propagation", propagationHistogram);
+		return histograms;
+	}
+
+	public void doTheWork() throws Exception {
+
+		removeDocuments();
+
+		outstandingKeys.addAll(Arrays.asList(keysToDelete));
+
+		DeletePropagationProbe probe = new DeletePropagationProbe();
+		waiter.await(probe);
+		pollCount = probe.polls;
+	}
+
+	void removeDocuments() throws Exception {
+
+		if (maxConcurrent == 1) {
+			for (String key : keysToDelete) {
+				long t = startOperation();
+				bucket.remove(key);
+				recordOperation(t);
+				deletedAtNanos.put(key, System.nanoTime());
+			}
+			return;
+		}
+
+		AsyncBucket asyncBucket = bucket.async();
+		final Semaphore permits = new Semaphore(maxConcurrent);
+		final AtomicReference<Throwable> firstFailure = new AtomicReference<Throwable>(null);
+
+		for (final String key : keysToDelete) {
+
+			permits.acquire();
+
+			final long operationStart = startOperation();
+
+			asyncBucket.remove(key).subscribe(new Subscriber<JsonDocument>() {
+
+				public void onNext(JsonDocument d) { }
+
+				public void onError(Throwable e) {
+					firstFailure.compareAndSet(null, e);
+					permits.release();
+				}
+
+				public void onCompleted() {
+					recordOperation(operationStart);
+					deletedAtNanos.put(key, System.nanoTime());
+					permits.release();
+				}
+			});
+		}
+
+		permits.acquire(maxConcurrent);
+		permits.release(maxConcurrent);
+
+		Throwable t = firstFailure.get();
+		if (t != null) {
+			if (t instanceof Exception) { throw (Exception) t; }
+			throw new RuntimeException(t);
+		}
+	}
+
+	// One poll: ask the view for the outstanding keys and retire every key it no longer returns
+	class DeletePropagationProbe implements ConvergenceProbe {
+
+		long previousObservationNanos = System.nanoTime();
+		int  polls                    = 0;
+
+		public boolean hasConverged() {
+
+			long pollStart = System.nanoTime();
+			Set<String> stillIndexed = queryOutstandingKeys();
+			long pollEnd   = System.nanoTime();
+			polls++;
+
+			long observationNanos = pollStart + ((pollEnd - pollStart) / 2);
+			long estimateNanos    = previousObservationNanos + ((observationNanos - previousObservationNanos) / 2);
+
+			Iterator<String> it = outstandingKeys.iterator();
+			while (it.hasNext()) {
+				String key = it.next();
+				if (!stillIndexed.contains(key)) {
+					long deletedAt = deletedAtNanos.get(key);
+					propagationHistogram.recordValue(Math.max(0, estimateNanos - deletedAt));
+					it.remove();
+				}
+			}
+
+			previousObservationNanos = observationNanos;
+
+			return outstandingKeys.isEmpty();
+		}
+
+		Set<String> queryOutstandingKeys() {
+
+			Set<String> found = new HashSet<String>();
+			String[] keys = outstandingKeys.toArray(new String[outstandingKeys.size()]);
+
+			for (int first = 0; first < keys.length; first += keysPerQuery) {
+				int last = Math.min(first + keysPerQuery, keys.length);
+				JsonArray chunk = JsonArray.from(Arrays.asList((Object[]) Arrays.copyOfRange(keys, first, last)));
+
+				ViewResult viewResult = bucket.query(ViewQuery.from(designDocName, viewName).stale(Stale.FALSE).keys(chunk));
+				for (ViewRow row : viewResult) {
+					found.add(row.id());
+				}
+			}
+
+			return found;
+		}
+
+	} // DeletePropagationProbe
+
+} // CBDeletePropagationTimer
@@ -0,0 +1,115 @@
+// CBFullViewQueryTimer
+//
+// Times one unbounded query of a view, either keeping every row or streaming them to a ViewRowConsumer.
+
+package com.couchbase.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.functions.Action1;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.view.AsyncViewResult;
+import com.couchbase.client.java.view.AsyncViewRow;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+
+class CBFullViewQueryTimer extends TimingClass {
+
+	Bucket bucket;
+	String designDocName;
+	String viewName;
+	int totalResults;
+	Stale staleValue;
+	List<ViewRow> viewRowList;
+	ViewKeyIndex keyIndex;		// built on first use, so it is not part of the timed query
+	ViewRowConsumer rowConsumer;	// when set, rows are streamed to it and not kept
+
+	// Materializing mode: every row is kept and available from getViewResult() afterwards
+	public CBFullViewQueryTimer(Bucket b, String dn, String vn, Stale stl) {
+		bucket        = b;
+		designDocName = dn;
+		viewName      = vn;
+		totalResults  = 0;
+		staleValue = stl;
+		rowConsumer   = null;
+	}
+
+	// Streaming mode: rows are handed to the consumer as they arrive through the async API and then dropped,
+	// so memory stays bounded however large the view is.  getViewResult() returns null in this mode.
+	public CBFullViewQueryTimer(Bucket b, String dn, String vn, Stale stl, ViewRowConsumer consumer) {
+		this(b, dn, vn, stl);
+		rowConsumer = consumer;
+	}
+
+	public int getTotalResults() { return totalResults; }
+
+	public List<ViewRow> getViewResult() { return viewRowList; }
+
+	public boolean isStreaming() { return (rowConsumer != null); }
+
+	// Print the rows of the last query.  Call after performTest() so the console I/O is not timed.
+	public void printRows() {
+		if (viewRowList != null) {
+			for (ViewRow row : viewRowList) {
+				System.out.println("CBFullViewQueryTimer:" + row);
+			}
+		}
+	}
+
+	// Keys of the last materialized query, indexed on the first call, after the query was timed
+	public ViewKeyIndex getKeyIndex() {
+		if ((keyIndex == null) && (viewRowList != null)) {
+			keyIndex = new ViewKeyIndex(viewRowList.size());
+			for (ViewRow row : viewRowList) { keyIndex.consumeRow(row.id(), row.key(), row.value()); }
+		}
+		return keyIndex;
+	}
+
+	public boolean containsKey(String lookupKey) {
+		return (getKeyIndex() != null) && getKeyIndex().contains(lookupKey);
+	}
+
+	public void doTheWork() throws Exception {
+
+		ViewQuery query = ViewQuery.from(designDocName, viewName).stale(staleValue);
+
+		if (rowConsumer != null) {
+			streamRows(query);
+			return;
+		}
+
+		// Perform the ViewQuery
+		ViewResult viewResult = bucket.query(query);
+
+		//boolean  success = result.success();
+		//JsonObject debug = result.debug();
+		//int    totalRows = result.totalRows();
+
+		viewRowList = new ArrayList<ViewRow>();
+		keyIndex    = null;
+
+		// Iterate through the returned ViewRows
+		for (ViewRow row : viewResult) {
+			viewRowList.add(row);
+			totalResults++;
+		}
+	}
+
+	void streamRows(ViewQuery query) {
+
+		AsyncViewResult asyncViewResult = bucket.async().query(query).toBlocking().single();
+
+		// forEach() blocks until the last row has been delivered; each row is handled as soon as it is parsed
+		asyncViewResult.rows().toBlocking().forEach(new Action1<AsyncViewRow>() {
+			public void call(AsyncViewRow row) {
+				rowConsumer.consumeRow(row.id(), row.key(), row.value());
+				totalResults++;
+			}
+		});
+	}
+
+} // CBFullViewQueryTimer
@@ -0,0 +1,113 @@
+// CBIndexBuildTimer
+//
+// Times building one view, or a design document of several, from nothing over the documents
+// already in the bucket.  The design document is created, then a Stale.FALSE query for one row
+// waits for the indexer to take in every document; its total_rows is the size of the finished
+// index.  With several views each is queried in turn (the cluster builds them together, so the
+// later queries return at once), and the row count is that of all of them.  The build time runs
+// from the design document being in place to the last query returning.
+//
+// A large build can outlast the cluster's view timeout.  A Stale.FALSE query that fails or times
+// out is issued again (the index build carries on regardless) until one succeeds or timeout ms
+// have passed.  The design document is removed again afterwards, unless keep is set, so the
+// next build starts from nothing and does not share the indexer with this view.
+
+package com.couchbase.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.View;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+
+class CBIndexBuildTimer extends TimingClass {
+
+	static final long RETRYDELAYMILLIS = 100;		// pause after a failed query, so a query that fails at once does not spin
+
+	Bucket     bucket;
+	String     designDocName;
+	List<View> views;
+	long       timeoutMillis;
+	boolean    keepDesignDocument;
+
+	long       createNanos;
+	long       buildNanos;
+	int        rowCount;
+	int        attempts;
+
+	public CBIndexBuildTimer(Bucket b, String dn, String vn, String mf, long timeout, boolean keep) {
+		this(b, dn, new ArrayList<View>(), timeout, keep);
+		views.add(CBCreateDesignDocumentTimer.createView(vn, mf, null));
+	}
+
+	public CBIndexBuildTimer(Bucket b, String dn, List<View> vs, long timeout, boolean keep) {
+		bucket             = b;
+		designDocName      = dn;
+		views              = vs;
+		timeoutMillis      = timeout;
+		keepDesignDocument = keep;
+	}
+
+	public String getDesignDocName() { return designDocName; }
+
+	// Times in ms, with sub-millisecond resolution
+	public double getCreateTime() { return createNanos / 1000000.0; }
+	public double getBuildTime()  { return buildNanos / 1000000.0; }
+
+	public int getRowCount() { return rowCount; }
+
+	// Stale.FALSE queries it took, more than one when the build outlasted the view timeout
+	public int getAttempts() { return attempts; }
+
+	public double getRowsPerSecond() {
+		return (buildNanos <= 0) ? 0 : (rowCount * 1000000000.0) / buildNanos;
+	}
+
+	public void doTheWork() throws Exception {
+
+		long start = System.nanoTime();
+		new CBCreateDesignDocumentTimer(bucket, designDocName, views).doTheWork();
+		long created = System.nanoTime();
+		createNanos = created - start;
+
+		try {
+			long deadline = created + (timeoutMillis * 1000000L);
+			for (View v : views) { rowCount += waitForIndex(v.name(), deadline); }
+			buildNanos = System.nanoTime() - created;
+		}
+		finally {
+			if (!keepDesignDocument) { bucket.bucketManager().removeDesignDocument(designDocName); }
+		}
+	}
+
+	// Returns total_rows of the first Stale.FALSE query that succeeds before the deadline
+	int waitForIndex(String viewName, long deadline) throws Exception {
+
+		ViewQuery query = ViewQuery.from(designDocName, viewName).stale(Stale.FALSE).limit(1);
+		Object lastError = null;
+
+		while (true) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException("The index of " + designDocName + "/" + viewName + " was not built within " + timeoutMillis
+						+ " ms, last error: " + lastError);
+			}
+
+			attempts++;
+			try {
+				ViewResult result = bucket.query(query, remaining, TimeUnit.NANOSECONDS);
+				if (result.success()) { return result.totalRows(); }
+				lastError = result.error();
+			} catch (RuntimeException e) {
+				lastError = e;
+			}
+			Thread.sleep(RETRYDELAYMILLIS);
+		}
+	}
+
+} // CBIndexBuildTimer
@@ -0,0 +1,316 @@
+// CBIndexContentionTimer
+//
+// How view indexing scales with the number of design documents and views on one bucket.  The
+// cluster builds and updates all views of a design document together, and each design document on
+// its own, so K design documents of V views each compete for the indexer differently than one
+// design document of K x V views.  One run, for one K and V:
+//
+//   build   the K design documents are created at once, each with V views, and a CBIndexBuildTimer
+//           per design document waits for its views; the build time is until the last is done
+//   steady  a writer upserts testDocument0 .. documents-1 in turn at writeRate, with a fresh
+//           creationDate, while a poller per view queries it for those keys with Stale.FALSE
+//           every pollInterval ms.  Each poll is recorded as one operation (query latency), and
+//           every write a view shows for the first time gives a write -> emit latency
+//           (viewDateNow - creationDate), as in CBIndexLatencyMonitor
+//
+// Both latencies are also kept per view position (vn0 .. vnV-1, over all design documents), so a
+// run shows whether the later views of a design document lag behind the first.  There are K x V
+// pollers, so the query load grows with V as it does with K.
+//
+// View v of design document k gets map function (k x V + v) modulo the number given, so the views
+// differ.  Every map function must emit meta.id as the key and a value with creationDate and
+// viewDateNow, like DEFAULTMAPFUNCTIONS.  The design documents are removed at the end.
+
+package com.couchbase.support;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.View;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+
+class CBIndexContentionTimer extends TimingClass {
+
+	// The whole document, a small value, and a small value that costs some JavaScript work
+	static final String[] DEFAULTMAPFUNCTIONS = {
+		"function (doc, meta) { doc.viewDateNow = Date.now(); emit(meta.id, doc); }",
+		"function (doc, meta) { emit(meta.id, { creationDate: doc.creationDate, viewDateNow: Date.now() }); }",
+		"function (doc, meta) { var n = 0; var s = JSON.stringify(doc); for (var i = 0; i < s.length; i++) { n = (n * 31 + s.charCodeAt(i)) % 1000003; } "
+				+ "emit(meta.id, { creationDate: doc.creationDate, viewDateNow: Date.now(), hash: n }); }"
+	};
+
+	Bucket   bucket;
+	String   designDocPrefix;
+	int      numDesignDocs;
+	int      viewsPerDesignDoc;
+	String[] mapFunctions;
+	double   writesPerSecond;
+	int      numDocuments;			// documents the writer cycles through
+	long     pollIntervalMillis;
+	long     durationMillis;
+	long     buildTimeoutMillis;
+
+	CBIndexBuildTimer[] builds;
+	long      buildNanos;
+	Recorder  writeToEmitRecorder;		// ns, from millisecond timestamps
+	Histogram writeToEmitHistogram;
+	Recorder[]  viewQueryRecorders;		// by view position, over all design documents
+	Recorder[]  viewWriteToEmitRecorders;
+	Histogram[] viewQueryHistograms;
+	Histogram[] viewWriteToEmitHistograms;
+	AtomicLong writes;
+	AtomicLong clockSkewCount;
+	AtomicReference<Throwable> firstFailure;
+
+	public CBIndexContentionTimer(Bucket b, String prefix, int designDocs, int viewsPerDoc, String[] mfs, double writeRate, int numDocs,
+			long pollInterval, long duration, long buildTimeout) {
+		if (designDocs < 1)   { throw new IllegalArgumentException("designDocs must be at least 1"); }
+		if (viewsPerDoc < 1)  { throw new IllegalArgumentException("viewsPerDoc must be at least 1"); }
+		if (mfs.length == 0)  { throw new IllegalArgumentException("at least one map function is needed"); }
+		if (writeRate <= 0)   { throw new IllegalArgumentException("writeRate must be positive"); }
+		if (numDocs < 1)      { throw new IllegalArgumentException("numDocs must be at least 1"); }
+		if (pollInterval < 1) { throw new IllegalArgumentException("pollInterval must be at least 1 ms"); }
+
+		bucket             = b;
+		designDocPrefix    = prefix;
+		numDesignDocs      = designDocs;
+		viewsPerDesignDoc  = viewsPerDoc;
+		mapFunctions       = mfs;
+		writesPerSecond    = writeRate;
+		numDocuments       = numDocs;
+		pollIntervalMillis = pollInterval;
+		durationMillis     = duration;
+		buildTimeoutMillis = buildTimeout;
+
+		writeToEmitRecorder = new Recorder(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS);
+		viewQueryRecorders        = new Recorder[viewsPerDoc];
+		viewWriteToEmitRecorders  = new Recorder[viewsPerDoc];
+		viewQueryHistograms       = new Histogram[viewsPerDoc];
+		viewWriteToEmitHistograms = new Histogram[viewsPerDoc];
+		for (int v = 0; v < viewsPerDoc; v++) {
+			viewQueryRecorders[v]       = new Recorder(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS);
+			viewWriteToEmitRecorders[v] = new Recorder(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS);
+		}
+		writes              = new AtomicLong(0);
+		clockSkewCount      = new AtomicLong(0);
+		firstFailure        = new AtomicReference<Throwable>(null);
+
+		enableOperationTiming();
+	}
+
+	public int getDesignDocCount()   { return numDesignDocs; }
+	public int getViewsPerDesignDoc() { return viewsPerDesignDoc; }
+
+	// Until every design document was built, in ms
+	public double getBuildTime() { return buildNanos / 1000000.0; }
+
+	// Of the slowest design document, in ms
+	public double getMaxDesignDocBuildTime() {
+		double max = 0;
+		for (CBIndexBuildTimer ibt : builds) { max = Math.max(max, ibt.getBuildTime()); }
+		return max;
+	}
+
+	// Rows of all views together
+	public long getRowCount() {
+		long rows = 0;
+		for (CBIndexBuildTimer ibt : builds) { rows += ibt.getRowCount(); }
+		return rows;
+	}
+
+	public double getRowsPerSecond() {
+		return (buildNanos <= 0) ? 0 : (getRowCount() * 1000000000.0) / buildNanos;
+	}
+
+	public long getWriteCount()     { return writes.get(); }
+	public long getClockSkewCount() { return clockSkewCount.get(); }
+
+	// Only valid after performTest() has completed
+	public Histogram getWriteToEmitHistogram() { return writeToEmitHistogram; }
+
+	public String getWriteToEmitSummary() {
+		if ((writeToEmitHistogram == null) || (writeToEmitHistogram.getTotalCount() == 0)) { return "no writes seen"; }
+		return latencySummary("writes", writeToEmitHistogram);
+	}
+
+	// Of view position v over all design documents; only valid after performTest() has completed
+	public Histogram getViewQueryHistogram(int v)       { return viewQueryHistograms[v]; }
+	public Histogram getViewWriteToEmitHistogram(int v) { return viewWriteToEmitHistograms[v]; }
+
+	public Map<String, Histogram> getHistograms() {
+		Map<String, Histogram> all = super.getHistograms();
+		if (writeToEmitHistogram != null) { all.put("writeToEmit", writeToEmitHistogram); }
+		for (int v = 0; v < viewsPerDesignDoc; v++) {
+			if (viewQueryHistograms[v] != null)       { all.put("query/" + viewName(v), viewQueryHistograms[v]); }
+			if (viewWriteToEmitHistograms[v] != null) { all.put("writeToEmit/" + viewName(v), viewWriteToEmitHistograms[v]); }
+		}
+		return all;
+	}
+
+	String designDocName(int k) { return designDocPrefix + k; }
+
+	static String viewName(int v) { return "vn" + v; }
+
+	public void doTheWork() throws Exception {
+		try {
+			build();
+			steady();
+		}
+		finally {
+			for (int k = 0; k < numDesignDocs; k++) {
+				try {
+					bucket.bucketManager().removeDesignDocument(designDocName(k));
+				} catch (RuntimeException e) {
+					firstFailure.compareAndSet(null, e);
+				}
+			}
+		}
+
+		Throwable t = firstFailure.get();
+		if (t != null) {
+			if (t instanceof Exception) { throw (Exception) t; }
+			throw new RuntimeException(t);
+		}
+	}
+
+	void build() throws Exception {
+
+		builds = new CBIndexBuildTimer[numDesignDocs];
+		for (int k = 0; k < numDesignDocs; k++) {
+			List<View> views = new ArrayList<View>();
+			for (int v = 0; v < viewsPerDesignDoc; v++) {
+				views.add(CBCreateDesignDocumentTimer.createView(viewName(v), mapFunctions[(k * viewsPerDesignDoc + v) % mapFunctions.length], null));
+			}
+			builds[k] = new CBIndexBuildTimer(bucket, designDocName(k), views, buildTimeoutMillis, true);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(numDesignDocs);
+		long start = System.nanoTime();
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (final CBIndexBuildTimer ibt : builds) {
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						ibt.doTheWork();
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) { throw (Exception) e.getCause(); }
+					throw e;
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		buildNanos = System.nanoTime() - start;
+	}
+
+	void steady() throws Exception {
+
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool((numDesignDocs * viewsPerDesignDoc) + 1);
+		final DocumentGenerator generator = new DocumentGenerator();
+
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			long nextSerialNumber = 0;
+			public void run() {
+				try {
+					bucket.upsert(generator.create((int) (nextSerialNumber++ % numDocuments), System.currentTimeMillis()));
+					writes.incrementAndGet();
+				} catch (Throwable t) {
+					firstFailure.compareAndSet(null, t);
+				}
+			}
+		}, 0, (long) (1000000000.0 / writesPerSecond), TimeUnit.NANOSECONDS);
+
+		final JsonArray keys = JsonArray.create();
+		for (int i = 0; i < numDocuments; i++) { keys.add(DocumentGenerator.DOCUMENTNAMEPREFIX + i); }
+
+		for (int k = 0; k < numDesignDocs; k++) {
+			for (int v = 0; v < viewsPerDesignDoc; v++) {
+				final String dn       = designDocName(k);
+				final int    position = v;
+				scheduler.scheduleWithFixedDelay(new Runnable() {
+					Map<String, Long> lastMeasured = new HashMap<String, Long>();
+					public void run() {
+						try {
+							poll(dn, position, keys, lastMeasured);
+						} catch (Throwable t) {
+							firstFailure.compareAndSet(null, t);
+						}
+					}
+				}, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + durationMillis;
+		try {
+			while ((System.currentTimeMillis() < deadline) && (firstFailure.get() == null)) {
+				Thread.sleep(Math.min(100, Math.max(1, deadline - System.currentTimeMillis())));
+			}
+		}
+		finally {
+			scheduler.shutdownNow();
+			scheduler.awaitTermination(durationMillis, TimeUnit.MILLISECONDS);
+		}
+
+		writeToEmitHistogram = writeToEmitRecorder.getIntervalHistogram();
+		for (int v = 0; v < viewsPerDesignDoc; v++) {
+			viewQueryHistograms[v]       = viewQueryRecorders[v].getIntervalHistogram();
+			viewWriteToEmitHistograms[v] = viewWriteToEmitRecorders[v].getIntervalHistogram();
+		}
+	}
+
+	void poll(String dn, int v, JsonArray keys, Map<String, Long> lastMeasured) {
+
+		long operationStart = startOperation();
+		ViewResult viewResult = bucket.query(ViewQuery.from(dn, viewName(v)).stale(Stale.FALSE).keys(keys));
+		List<ViewRow> rows = viewResult.allRows();
+		viewQueryRecorders[v].recordValue(System.nanoTime() - operationStart);
+		recordOperation(operationStart);
+
+		for (ViewRow row : rows) {
+			if (!(row.value() instanceof JsonObject)) { continue; }
+			JsonObject value  = (JsonObject) row.value();
+			Long creationDate = value.getLong("creationDate");
+			Long viewDateNow  = value.getLong("viewDateNow");
+			if ((creationDate == null) || (viewDateNow == null)) { continue; }
+
+			// Each write is measured once per view, the first time its poller sees it
+			Long previous = lastMeasured.get(row.id());
+			if ((previous != null) && (previous.longValue() >= creationDate)) { continue; }
+			lastMeasured.put(row.id(), creationDate);
+
+			long diff = viewDateNow - creationDate;
+			if (diff < 0) { clockSkewCount.incrementAndGet(); diff = 0; }
+			writeToEmitRecorder.recordValue(diff * 1000000L);
+			viewWriteToEmitRecorders[v].recordValue(diff * 1000000L);
+		}
+	}
+
+} // CBIndexContentionTimer
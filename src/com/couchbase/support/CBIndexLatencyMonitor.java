@@ -0,0 +1,220 @@
+// CBIndexLatencyMonitor
+//
+// The long-running version of the roundtrip test described at the top of ViewTimingTestRoundtrip.
+// Two threads run continuously for the configured duration:
+//
+//   writer: upserts testDocument0 .. testDocument(n-1) in turn, at a fixed rate, stamping each
+//           with a fresh creationDate
+//   poller: at a fixed interval, queries the view for exactly those keys and, for every row whose
+//           creationDate has not been measured yet, records
+//               write -> emit    viewDateNow - creationDate
+//               emit  -> client  time the row was received - viewDateNow
+//
+// The map function must stamp doc.viewDateNow and emit meta.id as the key, like the MAPFUNCTION in
+// ViewTimingTestRoundtrip.  viewDateNow is cluster-side and creationDate is client-side, so the
+// clocks are assumed to be in sync; negative differences are counted as clock skew and recorded as 0.
+//
+// While running, percentiles over a sliding window of the most recent report intervals are
+// printed every report interval.
+
+package com.couchbase.support;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+
+class CBIndexLatencyMonitor extends TimingClass {
+
+	Bucket bucket;
+	String designDocName;
+	String viewName;
+	Stale  staleValue;
+
+	int    numDocuments;			// documents the writer cycles through
+	double writesPerSecond;
+	long   pollIntervalMillis;
+	long   reportIntervalMillis;
+	int    windowIntervals;			// sliding window length, in report intervals
+	long   durationMillis;
+
+	// Values in nanoseconds, like every other TimingClass, though both timestamps only have millisecond resolution
+	Recorder writeToEmitRecorder;
+	Recorder emitToClientRecorder;
+
+	AtomicLong writes;
+	AtomicLong polls;
+	AtomicLong clockSkewCount;
+	AtomicReference<Throwable> firstFailure;
+
+	public CBIndexLatencyMonitor(Bucket b, String dn, String vn, Stale stl, int numDocs, double writeRate,
+			long pollInterval, long reportInterval, int window, long duration) {
+		if (numDocs < 1)          { throw new IllegalArgumentException("numDocs must be at least 1"); }
+		if (writeRate <= 0)       { throw new IllegalArgumentException("writeRate must be positive"); }
+		if (pollInterval < 1)     { throw new IllegalArgumentException("pollInterval must be at least 1 ms"); }
+		if (reportInterval < 1)   { throw new IllegalArgumentException("reportInterval must be at least 1 ms"); }
+		if (window < 1)           { throw new IllegalArgumentException("window must be at least 1 interval"); }
+
+		bucket               = b;
+		designDocName        = dn;
+		viewName             = vn;
+		staleValue           = stl;
+		numDocuments         = numDocs;
+		writesPerSecond      = writeRate;
+		pollIntervalMillis   = pollInterval;
+		reportIntervalMillis = reportInterval;
+		windowIntervals      = window;
+		durationMillis       = duration;
+
+		writeToEmitRecorder  = new Recorder(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS);
+		emitToClientRecorder = new Recorder(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS);
+
+		writes         = new AtomicLong(0);
+		polls          = new AtomicLong(0);
+		clockSkewCount = new AtomicLong(0);
+		firstFailure   = new AtomicReference<Throwable>(null);
+	}
+
+	public long getWriteCount()     { return writes.get(); }
+	public long getPollCount()      { return polls.get(); }
+	public long getClockSkewCount() { return clockSkewCount.get(); }
+
+	public void doTheWork() throws Exception {
+
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+
+		long writePeriodNanos = (long) (1000000000.0 / writesPerSecond);
+
+		final DocumentGenerator generator = new DocumentGenerator();
+
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			long nextSerialNumber = 0;
+			public void run() {
+				try {
+					int serialNumber = (int) (nextSerialNumber++ % numDocuments);
+					bucket.upsert(generator.create(serialNumber, System.currentTimeMillis()));
+					writes.incrementAndGet();
+				} catch (Throwable t) {
+					firstFailure.compareAndSet(null, t);
+				}
+			}
+		}, 0, writePeriodNanos, TimeUnit.NANOSECONDS);
+
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			Map<String, Long> lastMeasured = new HashMap<String, Long>();
+			JsonArray keys = monitoredKeys();
+			public void run() {
+				try {
+					poll(keys, lastMeasured);
+				} catch (Throwable t) {
+					firstFailure.compareAndSet(null, t);
+				}
+			}
+		}, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+
+		Deque<Histogram> writeToEmitWindow  = new ArrayDeque<Histogram>();
+		Deque<Histogram> emitToClientWindow = new ArrayDeque<Histogram>();
+
+		long deadline = System.currentTimeMillis() + durationMillis;
+
+		try {
+			while (System.currentTimeMillis() < deadline) {
+
+				Thread.sleep(Math.min(reportIntervalMillis, Math.max(1, deadline - System.currentTimeMillis())));
+
+				if (firstFailure.get() != null) { break; }
+
+				Histogram writeToEmit  = slide(writeToEmitWindow,  writeToEmitRecorder.getIntervalHistogram());
+				Histogram emitToClient = slide(emitToClientWindow, emitToClientRecorder.getIntervalHistogram());
+
+				ViewTimingTestRoundtrip.logMessage("Monitor: writes " + writes.get() + " polls " + polls.get()
+						+ " clock skew " + clockSkewCount.get());
+				ViewTimingTestRoundtrip.logMessage("Monitor write->emit  (last " + writeToEmitWindow.size() + " intervals) " + summarize(writeToEmit));
+				ViewTimingTestRoundtrip.logMessage("Monitor emit->client (last " + emitToClientWindow.size() + " intervals) " + summarize(emitToClient));
+			}
+		}
+		finally {
+			scheduler.shutdownNow();
+			scheduler.awaitTermination(pollIntervalMillis + reportIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+
+		Throwable t = firstFailure.get();
+		if (t != null) {
+			if (t instanceof Exception) { throw (Exception) t; }
+			throw new RuntimeException(t);
+		}
+	}
+
+	JsonArray monitoredKeys() {
+		JsonArray keys = JsonArray.create();
+		for (int i = 0; i < numDocuments; i++) {
+			keys.add(DocumentGenerator.DOCUMENTNAMEPREFIX + i);
+		}
+		return keys;
+	}
+
+	void poll(JsonArray keys, Map<String, Long> lastMeasured) {
+
+		ViewResult viewResult = bucket.query(ViewQuery.from(designDocName, viewName).stale(staleValue).keys(keys));
+
+		for (ViewRow row : viewResult) {
+
+			long receivedAt = System.currentTimeMillis();
+
+			JsonObject value  = (JsonObject) row.value();
+			Long creationDate = value.getLong("creationDate");
+			Long viewDateNow  = value.getLong("viewDateNow");
+			if ((creationDate == null) || (viewDateNow == null)) { continue; }
+
+			// Each write is measured once, the first time the poller sees it
+			Long previous = lastMeasured.get(row.id());
+			if ((previous != null) && (previous.longValue() >= creationDate)) { continue; }
+			lastMeasured.put(row.id(), creationDate);
+
+			writeToEmitRecorder.recordValue(clampSkew(viewDateNow - creationDate));
+			emitToClientRecorder.recordValue(clampSkew(receivedAt - viewDateNow));
+		}
+
+		polls.incrementAndGet();
+	}
+
+	// A difference of the millisecond timestamps, in nanoseconds
+	long clampSkew(long diff) {
+		if (diff < 0) {
+			clockSkewCount.incrementAndGet();
+			return 0;
+		}
+		return diff * 1000000L;
+	}
+
+	// Add the newest interval to the window, drop the oldest if the window is full, and return the window total
+	Histogram slide(Deque<Histogram> window, Histogram newest) {
+		window.addLast(newest);
+		if (window.size() > windowIntervals) { window.removeFirst(); }
+
+		Histogram total = new Histogram(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS);
+		for (Histogram h : window) { total.add(h); }
+		return total;
+	}
+
+	static String summarize(Histogram h) {
+		return (h.getTotalCount() == 0) ? "no samples" : latencySummary("samples", h);
+	}
+
+} // CBIndexLatencyMonitor
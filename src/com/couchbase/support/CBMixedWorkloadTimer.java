@@ -0,0 +1,200 @@
+// CBMixedWorkloadTimer
+//
+// Runs several kinds of request at once against the same bucket, the way production traffic mixes
+// them, so the view indexer has to compete with KV writes and reads.  A pool of worker threads
+// each loops until the duration is up: pick an operation at random by weight, issue it, wait for
+// it, record its latency.  With weights 70/20/5/5 for insert/get/remove/fullViewQuery that is the
+// populate, single-get, delete and full-view-query timers interleaved.
+//
+// Every operation gets its own latency histogram, completion and failure counts, so throughput
+// and latency are reported per operation; the operation histogram of TimingClass holds them all.
+// Running the same mix with rising write weights shows how view query latency degrades as the
+// write rate goes up (see runMixedWorkloadTests() in ViewTimingTestRoundtrip).
+//
+// The workers are closed-loop: each waits for its request before starting the next, so the
+// offered load follows the cluster.  Use CBOpenLoopTimer for a fixed rate.  Failed requests are
+// counted, not timed.
+
+package com.couchbase.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+
+class CBMixedWorkloadTimer extends TimingClass {
+
+	Bucket          bucket;
+	LoadOperation[] operations;
+	int[]           cumulativeWeights;
+	int             numWorkers;
+	long            durationMillis;
+
+	Recorder[]   recorders;
+	Histogram[]  histograms;
+	AtomicLong[] issued;			// also the sequence number of the next request of each operation
+	AtomicLong[] failed;
+	AtomicReference<Throwable> firstFailure;
+	long         runNanos;
+
+	public CBMixedWorkloadTimer(Bucket b, LoadOperation[] ops, int[] weights, int workers, long duration) {
+		if (ops.length == 0)              { throw new IllegalArgumentException("at least one operation is needed"); }
+		if (ops.length != weights.length) { throw new IllegalArgumentException("one weight per operation is needed"); }
+		if (workers < 1)                  { throw new IllegalArgumentException("workers must be at least 1"); }
+		if (duration < 1)                 { throw new IllegalArgumentException("duration must be at least 1 ms"); }
+
+		bucket         = b;
+		operations     = ops;
+		numWorkers     = workers;
+		durationMillis = duration;
+
+		cumulativeWeights = new int[weights.length];
+		int total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			if (weights[i] < 0) { throw new IllegalArgumentException("weights must not be negative"); }
+			total += weights[i];
+			cumulativeWeights[i] = total;
+		}
+		if (total == 0) { throw new IllegalArgumentException("at least one weight must be positive"); }
+
+		recorders    = new Recorder[ops.length];
+		histograms   = new Histogram[ops.length];
+		issued       = new AtomicLong[ops.length];
+		failed       = new AtomicLong[ops.length];
+		firstFailure = new AtomicReference<Throwable>(null);
+		for (int i = 0; i < ops.length; i++) {
+			recorders[i] = new Recorder(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS);
+			issued[i]    = new AtomicLong(0);
+			failed[i]    = new AtomicLong(0);
+		}
+
+		enableOperationTiming();
+	}
+
+	public LoadOperation[] getOperations() { return operations; }
+
+	public long getIssuedCount(int op)    { return issued[op].get(); }
+	public long getFailureCount(int op)   { return failed[op].get(); }
+	public long getCompletedCount(int op) { return (histograms[op] == null) ? 0 : histograms[op].getTotalCount(); }
+
+	// Completed requests per second over the run
+	public double getThroughput(int op) {
+		return (runNanos <= 0) ? 0 : (getCompletedCount(op) * 1000000000.0) / runNanos;
+	}
+
+	// Only valid after performTest() has completed
+	public Histogram getHistogram(int op) { return histograms[op]; }
+
+	public String getLatencySummary(int op) {
+		return (getCompletedCount(op) == 0) ? "no operations recorded" : latencySummary("ops", histograms[op]);
+	}
+
+	// Index of the first operation with this name, -1 if there is none
+	public int indexOf(String name) {
+		for (int i = 0; i < operations.length; i++) {
+			if (operations[i].name().equals(name)) { return i; }
+		}
+		return -1;
+	}
+
+	public Map<String, Histogram> getHistograms() {
+		Map<String, Histogram> all = super.getHistograms();
+		for (int i = 0; i < operations.length; i++) {
+			String name = all.containsKey(operations[i].name()) ? (operations[i].name() + i) : operations[i].name();
+			if (histograms[i] != null) { all.put(name, histograms[i]); }
+		}
+		return all;
+	}
+
+	public void doTheWork() throws Exception {
+
+		final AsyncBucket asyncBucket = bucket.async();
+		final long        start       = System.nanoTime();
+		final long        deadline    = start + (durationMillis * 1000000L);
+
+		ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+			for (int w = 0; w < numWorkers; w++) {
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() {
+						runWorker(asyncBucket, deadline);
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) { throw (Exception) e.getCause(); }
+					throw e;
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+
+		runNanos = System.nanoTime() - start;
+
+		long completed = 0;
+		for (int i = 0; i < operations.length; i++) {
+			histograms[i] = recorders[i].getIntervalHistogram();
+			completed += histograms[i].getTotalCount();
+		}
+
+		// Some failures are part of the measurement under load; nothing succeeding is not
+		Throwable t = firstFailure.get();
+		if ((t != null) && (completed == 0)) {
+			if (t instanceof Exception) { throw (Exception) t; }
+			throw new RuntimeException(t);
+		}
+	}
+
+	void runWorker(AsyncBucket asyncBucket, long deadline) {
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int totalWeight = cumulativeWeights[cumulativeWeights.length - 1];
+
+		while (System.nanoTime() < deadline) {
+
+			int op = pickOperation(random.nextInt(totalWeight));
+			long sequence = issued[op].getAndIncrement();
+
+			long operationStart = startOperation();
+			try {
+				operations[op].issue(asyncBucket, sequence).toBlocking().lastOrDefault(null);
+				recorders[op].recordValue(System.nanoTime() - operationStart);
+				recordOperation(operationStart);
+			} catch (RuntimeException e) {
+				failed[op].incrementAndGet();
+				firstFailure.compareAndSet(null, e);
+			}
+		}
+	}
+
+	// The operation whose share of the total weight r falls in
+	int pickOperation(int r) {
+		int op = 0;
+		while (r >= cumulativeWeights[op]) { op++; }
+		return op;
+	}
+
+} // CBMixedWorkloadTimer
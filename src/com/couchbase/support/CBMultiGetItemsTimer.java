@@ -0,0 +1,94 @@
+// CBMultiGetItemsTimer
+//
+// The multi-get counterpart of CBSingleGetItemsTimer.  The whole id list is fanned out through
+// bucket.async(), with at most maxConcurrent gets outstanding at any time.  A document that does
+// not exist completes without a value and is simply not counted as a success.
+//
+// Each get is recorded as one operation, so the latency distribution can be compared directly
+// with the single-get and view-query timers.
+
+package com.couchbase.support;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rx.Subscriber;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+
+class CBMultiGetItemsTimer extends TimingClass {
+
+	String[] ids;
+	Bucket   bucket;
+	int      maxConcurrent;
+
+	AtomicInteger              successCount;
+	AtomicReference<Throwable> firstFailure;
+
+	public CBMultiGetItemsTimer(Bucket b, String[] idList, int concurrency) {
+		if (concurrency < 1) { throw new IllegalArgumentException("concurrency must be at least 1"); }
+
+		bucket        = b;
+		ids           = idList;
+		maxConcurrent = concurrency;
+
+		successCount = new AtomicInteger(0);
+		firstFailure = new AtomicReference<Throwable>(null);
+
+		enableOperationTiming();
+	}
+
+	public int getSuccessCount() { return successCount.get(); }
+
+	public double getOperationsPerSecond() {
+		long elapsedNanos = getElapsedNanos();
+		if (elapsedNanos <= 0) { return 0; }
+		return (ids.length * 1000000000.0) / elapsedNanos;
+	}
+
+	public void doTheWork() throws Exception {
+
+		AsyncBucket     asyncBucket = bucket.async();
+		final Semaphore permits     = new Semaphore(maxConcurrent);
+
+		for (int i = 0; i < ids.length; i++) {
+
+			permits.acquire();
+
+			final long operationStart = startOperation();
+
+			asyncBucket.get(ids[i]).subscribe(new Subscriber<JsonDocument>() {
+
+				public void onNext(JsonDocument d) {
+					if (d != null) { successCount.incrementAndGet(); }
+				}
+
+				public void onError(Throwable e) {
+					firstFailure.compareAndSet(null, e);
+					recordOperation(operationStart);
+					permits.release();
+				}
+
+				public void onCompleted() {
+					recordOperation(operationStart);
+					permits.release();
+				}
+			});
+
+		} // for each id
+
+		// Wait for the outstanding gets to drain
+		permits.acquire(maxConcurrent);
+		permits.release(maxConcurrent);
+
+		Throwable t = firstFailure.get();
+		if (t != null) {
+			if (t instanceof Exception) { throw (Exception) t; }
+			throw new RuntimeException(t);
+		}
+	}
+
+} // Given a list of specific documents, get them concurrently through the async API
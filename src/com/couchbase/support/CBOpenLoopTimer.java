@@ -0,0 +1,180 @@
+// CBOpenLoopTimer
+//
+// An open-loop load driver: issues a LoadOperation at a fixed target rate for a fixed duration,
+// whether or not earlier requests have come back, the way independent production clients do.
+// The other timers are closed-loop, the next request only starts when the previous one returned,
+// so a slow cluster also slows down the load and the queuing delay never shows up in the numbers
+// (coordinated omission).
+//
+// Request i is due at start + i / rate.  Its response time is measured from that intended start,
+// not from when it was actually sent, so any time spent behind schedule counts against the
+// cluster.  Three histograms are kept:
+//
+//   response time            completion - intended start; the number a user of the service sees
+//   service time             completion - actual send; what a closed-loop timer would report
+//   corrected service time   service time with HdrHistogram's recordValueWithExpectedInterval()
+//                            correction, for comparison with closed-loop tools that apply it
+//
+// maxInFlight caps the outstanding requests.  When it is reached the schedule slips, which again
+// shows up in the response times; getMaxScheduleLag() tells how far behind the driver fell.
+// Failed requests are counted, not timed.
+
+package com.couchbase.support;
+
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import rx.Subscriber;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+
+class CBOpenLoopTimer extends TimingClass {
+
+	Bucket        bucket;
+	LoadOperation operation;
+	double        targetRate;			// requests per second
+	long          durationMillis;
+	int           maxInFlight;
+
+	Recorder  serviceTimeRecorder;
+	Recorder  correctedServiceTimeRecorder;
+	Histogram serviceTimeHistogram;
+	Histogram correctedServiceTimeHistogram;
+
+	AtomicLong issued;
+	AtomicLong completed;
+	AtomicLong failed;
+	AtomicReference<Throwable> firstFailure;
+	long       maxScheduleLagNanos;
+	long       issuingNanos;
+
+	public CBOpenLoopTimer(Bucket b, LoadOperation op, double rate, long duration, int inFlight) {
+		if (rate <= 0)     { throw new IllegalArgumentException("rate must be positive"); }
+		if (duration < 1)  { throw new IllegalArgumentException("duration must be at least 1 ms"); }
+		if (inFlight < 1)  { throw new IllegalArgumentException("inFlight must be at least 1"); }
+
+		bucket         = b;
+		operation      = op;
+		targetRate     = rate;
+		durationMillis = duration;
+		maxInFlight    = inFlight;
+
+		serviceTimeRecorder          = new Recorder(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS);
+		correctedServiceTimeRecorder = new Recorder(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS);
+
+		issued       = new AtomicLong(0);
+		completed    = new AtomicLong(0);
+		failed       = new AtomicLong(0);
+		firstFailure = new AtomicReference<Throwable>(null);
+
+		// The operation histogram holds the response times
+		enableOperationTiming();
+	}
+
+	public LoadOperation getOperation() { return operation; }
+
+	public long getIssuedCount()    { return issued.get(); }
+	public long getCompletedCount() { return completed.get(); }
+	public long getFailureCount()   { return failed.get(); }
+
+	// Requests per second actually issued, over the issuing period
+	public double getAchievedRate() {
+		return (issuingNanos <= 0) ? 0 : (issued.get() * 1000000000.0) / issuingNanos;
+	}
+
+	// ms, how far behind schedule the driver was at worst when it sent a request
+	public double getMaxScheduleLag() { return maxScheduleLagNanos / 1000000.0; }
+
+	public String getResponseTimeSummary() { return getOperationLatencySummary(); }
+
+	public String getServiceTimeSummary() {
+		return ((serviceTimeHistogram == null) || (serviceTimeHistogram.getTotalCount() == 0)) ? "no operations recorded"
+				: latencySummary("ops", serviceTimeHistogram);
+	}
+
+	public String getCorrectedServiceTimeSummary() {
+		return ((correctedServiceTimeHistogram == null) || (correctedServiceTimeHistogram.getTotalCount() == 0)) ? "no operations recorded"
+				: latencySummary("samples", correctedServiceTimeHistogram);
+	}
+
+	public Map<String, Histogram> getHistograms() {
+		Map<String, Histogram> histograms = super.getHistograms();
+		if (serviceTimeHistogram != null)          { histograms.put("serviceTime", serviceTimeHistogram); }
+		if (correctedServiceTimeHistogram != null) { histograms.put("correctedServiceTime", correctedServiceTimeHistogram); }
+		return histograms;
+	}
+
+	public void doTheWork() throws Exception {
+
+		final AsyncBucket asyncBucket = bucket.async();
+		final Semaphore   permits     = new Semaphore(maxInFlight);
+		final long        intervalNanos = (long) (1000000000.0 / targetRate);
+
+		long start = System.nanoTime();
+		long end   = start + (durationMillis * 1000000L);
+
+		for (long i = 0; ; i++) {
+
+			// Computed from the start every time, so rounding does not accumulate
+			final long intendedStart = start + (long) (i * (1000000000.0 / targetRate));
+			if (intendedStart >= end) { break; }
+
+			long now = System.nanoTime();
+			while (now < intendedStart) {
+				LockSupport.parkNanos(intendedStart - now);
+				now = System.nanoTime();
+			}
+
+			permits.acquire();
+
+			final long sent = System.nanoTime();
+			if ((sent - intendedStart) > maxScheduleLagNanos) { maxScheduleLagNanos = sent - intendedStart; }
+
+			operation.issue(asyncBucket, i).subscribe(new Subscriber<Object>() {
+
+				public void onNext(Object o) { }
+
+				public void onError(Throwable e) {
+					failed.incrementAndGet();
+					firstFailure.compareAndSet(null, e);
+					permits.release();
+				}
+
+				public void onCompleted() {
+					long serviceTime = System.nanoTime() - sent;
+					recordOperation(intendedStart);
+					serviceTimeRecorder.recordValue(serviceTime);
+					correctedServiceTimeRecorder.recordValueWithExpectedInterval(serviceTime, intervalNanos);
+					completed.incrementAndGet();
+					permits.release();
+				}
+			});
+
+			issued.incrementAndGet();
+		}
+
+		issuingNanos = System.nanoTime() - start;
+
+		// Once every permit can be taken back, every request has completed
+		permits.acquire(maxInFlight);
+		permits.release(maxInFlight);
+
+		serviceTimeHistogram          = serviceTimeRecorder.getIntervalHistogram();
+		correctedServiceTimeHistogram = correctedServiceTimeRecorder.getIntervalHistogram();
+
+		// Some failures are part of the measurement under load; nothing succeeding is not
+		Throwable t = firstFailure.get();
+		if ((t != null) && (completed.get() == 0)) {
+			if (t instanceof Exception) { throw (Exception) t; }
+			throw new RuntimeException(t);
+		}
+	}
+
+} // CBOpenLoopTimer
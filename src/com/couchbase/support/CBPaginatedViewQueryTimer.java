@@ -0,0 +1,235 @@
+// CBPaginatedViewQueryTimer
+//
+// Drains a view in pages instead of with one unbounded query.  Each page asks for pageSize rows;
+// the next page starts at the last key and document id seen (startkey / startkey_docid) and skips
+// that one row, so no row is returned twice even when several documents emit the same key.
+//
+// The key space can optionally be split into several ranges which are walked in parallel, one
+// thread per range (see setThreadMode()).  The range boundaries are found by sampling the view before the timer starts
+// (see sampleRangeBoundaries()), so the sampling queries are not part of the measurement.
+//
+// Every page is recorded as one operation, so getOperationLatencySummary() gives the time per page.
+
+package com.couchbase.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+
+class CBPaginatedViewQueryTimer extends TimingClass {
+
+	Bucket   bucket;
+	String   designDocName;
+	String   viewName;
+	Stale    staleValue;
+	int      pageSize;
+	Object[] rangeBoundaries;	// start key of each range, in key order; null means one range over the whole view
+	String   threadMode;		// WorkerExecutors.PLATFORM or VIRTUAL, for the range threads
+
+	AtomicLong totalResults;
+	AtomicLong totalPages;
+	long[]     rowsPerRange;
+
+	public CBPaginatedViewQueryTimer(Bucket b, String dn, String vn, Stale stl, int rowsPerPage, Object[] boundaries) {
+		if (rowsPerPage < 1) { throw new IllegalArgumentException("rowsPerPage must be at least 1"); }
+
+		bucket          = b;
+		designDocName   = dn;
+		viewName        = vn;
+		staleValue      = stl;
+		pageSize        = rowsPerPage;
+		rangeBoundaries = boundaries;
+		threadMode      = WorkerExecutors.PLATFORM;
+
+		totalResults = new AtomicLong(0);
+		totalPages   = new AtomicLong(0);
+
+		enableOperationTiming();
+	}
+
+	// A single range over the whole view, walked sequentially
+	public CBPaginatedViewQueryTimer(Bucket b, String dn, String vn, Stale stl, int rowsPerPage) {
+		this(b, dn, vn, stl, rowsPerPage, null);
+	}
+
+	public void setThreadMode(String mode) { threadMode = mode; }
+
+	public long getTotalResults() { return totalResults.get(); }
+
+	public long getTotalPages() { return totalPages.get(); }
+
+	public int getRangeCount() { return (rangeBoundaries == null) ? 1 : rangeBoundaries.length; }
+
+	public long[] getRowsPerRange() { return rowsPerRange; }
+
+	public double getRowsPerSecond() {
+		long elapsedNanos = getElapsedNanos();
+		if (elapsedNanos <= 0) { return 0; }
+		return (totalResults.get() * 1000000000.0) / elapsedNanos;
+	}
+
+	public void doTheWork() throws Exception {
+
+		int numRanges = getRangeCount();
+		rowsPerRange  = new long[numRanges];
+
+		if (numRanges == 1) {
+			rowsPerRange[0] = scanRange(rangeStart(0), rangeEnd(0));
+			return;
+		}
+
+		ExecutorService pool = WorkerExecutors.create(threadMode, numRanges);
+
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>();
+
+			for (int r = 0; r < numRanges; r++) {
+				final Object startKey = rangeStart(r);
+				final Object endKey   = rangeEnd(r);
+				futures.add(pool.submit(new Callable<Long>() {
+					public Long call() throws Exception {
+						return scanRange(startKey, endKey);
+					}
+				}));
+			}
+
+			for (int r = 0; r < numRanges; r++) {
+				try {
+					rowsPerRange[r] = futures.get(r).get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) { throw (Exception) e.getCause(); }
+					throw e;
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	Object rangeStart(int r) { return (rangeBoundaries == null) ? null : rangeBoundaries[r]; }
+
+	Object rangeEnd(int r) {
+		if ((rangeBoundaries == null) || (r + 1 >= rangeBoundaries.length)) { return null; }
+		return rangeBoundaries[r + 1];
+	}
+
+	// Walk [startKey, endKey) one page at a time.  A null startKey or endKey leaves that side open.
+	long scanRange(Object startKey, Object endKey) {
+
+		long    rowsInRange = 0;
+		Object  lastKey     = null;
+		String  lastDocId   = null;
+		boolean morePages   = true;
+
+		while (morePages) {
+
+			ViewQuery query = ViewQuery.from(designDocName, viewName).stale(staleValue).limit(pageSize);
+
+			if (lastDocId == null) {
+				setStartKey(query, startKey);
+			}
+			else if (lastKey == null) {
+				// There is no startkey for a null key.  Null sorts first, so this range starts at the
+				// beginning of the view: skip the rows read so far instead
+				query.skip((int) rowsInRange);
+			}
+			else {
+				// Resume just after the last row of the previous page
+				setStartKey(query, lastKey);
+				query.startKeyDocId(lastDocId).skip(1);
+			}
+
+			if (endKey != null) {
+				setEndKey(query, endKey);
+				query.inclusiveEnd(false);
+			}
+
+			long t = startOperation();
+
+			ViewResult viewResult = bucket.query(query);
+
+			int rowsInPage = 0;
+			for (ViewRow row : viewResult) {
+				lastKey   = row.key();
+				lastDocId = row.id();
+				rowsInPage++;
+			}
+
+			recordOperation(t);
+
+			totalPages.incrementAndGet();
+			totalResults.addAndGet(rowsInPage);
+			rowsInRange += rowsInPage;
+
+			morePages = (rowsInPage == pageSize);
+		}
+
+		return rowsInRange;
+	}
+
+	// Find numRanges start keys that split the view into ranges of roughly equal row count.
+	// This uses skip, which is expensive on the server, so call it before the timer runs.
+	static Object[] sampleRangeBoundaries(Bucket bucket, String designDocName, String viewName, Stale staleValue, int numRanges) {
+
+		ViewResult first = bucket.query(ViewQuery.from(designDocName, viewName).stale(staleValue).limit(1));
+		int totalRows = first.totalRows();
+
+		List<Object> boundaries = new ArrayList<Object>();
+
+		for (int r = 0; r < numRanges; r++) {
+			int skip = (int) (((long) totalRows * r) / numRanges);
+			List<ViewRow> rows = bucket.query(ViewQuery.from(designDocName, viewName).stale(staleValue).skip(skip).limit(1)).allRows();
+			if (rows.isEmpty()) { break; }
+			Object key = rows.get(0).key();
+			// Ranges must be non-empty and strictly increasing, so drop repeated boundary keys
+			Object previous = boundaries.isEmpty() ? null : boundaries.get(boundaries.size() - 1);
+			if (boundaries.isEmpty() || ((previous == null) ? (key != null) : !previous.equals(key))) {
+				boundaries.add(key);
+			}
+		}
+
+		// The first range must also pick up anything sorting before the first sampled key
+		if (!boundaries.isEmpty()) { boundaries.set(0, null); }
+
+		return boundaries.isEmpty() ? null : boundaries.toArray();
+	}
+
+	// A null key (the first page, an empty range, or rows emitted with a null key) sets no bound
+	static void setStartKey(ViewQuery query, Object key) {
+		if      (key == null)               { return; }
+		else if (key instanceof String)     { query.startKey((String) key); }
+		else if (key instanceof Integer)    { query.startKey((Integer) key); }
+		else if (key instanceof Long)       { query.startKey((Long) key); }
+		else if (key instanceof Double)     { query.startKey((Double) key); }
+		else if (key instanceof Boolean)    { query.startKey((Boolean) key); }
+		else if (key instanceof JsonArray)  { query.startKey((JsonArray) key); }
+		else if (key instanceof JsonObject) { query.startKey((JsonObject) key); }
+		else { throw new IllegalArgumentException("Unsupported view key type: " + key.getClass().getName()); }
+	}
+
+	static void setEndKey(ViewQuery query, Object key) {
+		if      (key == null)               { return; }
+		else if (key instanceof String)     { query.endKey((String) key); }
+		else if (key instanceof Integer)    { query.endKey((Integer) key); }
+		else if (key instanceof Long)       { query.endKey((Long) key); }
+		else if (key instanceof Double)     { query.endKey((Double) key); }
+		else if (key instanceof Boolean)    { query.endKey((Boolean) key); }
+		else if (key instanceof JsonArray)  { query.endKey((JsonArray) key); }
+		else if (key instanceof JsonObject) { query.endKey((JsonObject) key); }
+		else { throw new IllegalArgumentException("Unsupported view key type: " + key.getClass().getName()); }
+	}
+
+} // CBPaginatedViewQueryTimer
@@ -0,0 +1,117 @@
+// CBParallelBucketsTimer
+//
+// Runs one timer per bucket at the same time, each on a thread of its own, to see how the cluster
+// holds up as tenants are added: the same populate or query workload on 1, 2, 4 ... buckets from
+// one cluster connection.  Every bucket's timer keeps its own operation histogram; the throughput
+// of a bucket is its operations over its own elapsed time, and the aggregate throughput is all
+// operations over the time until the last bucket finished.  The operation histogram of this
+// timer holds the operations of every bucket.
+//
+// Timers without operation timing (creating a design document, say) are only timed.  All timers
+// are run to the end; then the first exception, if any, is thrown.
+
+package com.couchbase.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.HdrHistogram.Histogram;
+
+class CBParallelBucketsTimer extends TimingClass {
+
+	String[]      bucketNames;
+	TimingClass[] timers;
+	long          runNanos;
+
+	public CBParallelBucketsTimer(String[] names, TimingClass[] tcs) {
+		if (tcs.length == 0)            { throw new IllegalArgumentException("at least one timer is needed"); }
+		if (names.length != tcs.length) { throw new IllegalArgumentException("one bucket name per timer is needed"); }
+
+		bucketNames = names;
+		timers      = tcs;
+	}
+
+	public int getBucketCount()             { return timers.length; }
+	public String getBucketName(int i)      { return bucketNames[i]; }
+	public TimingClass getTimer(int i)      { return timers[i]; }
+
+	public long getOperationCount(int i)    { return timers[i].getOperationCount(); }
+
+	// Operations per second of one bucket, over its own elapsed time
+	public double getThroughput(int i) {
+		long nanos = timers[i].getElapsedNanos();
+		return (nanos <= 0) ? 0 : (getOperationCount(i) * 1000000000.0) / nanos;
+	}
+
+	public long getTotalOperationCount() {
+		long total = 0;
+		for (TimingClass tc : timers) { total += tc.getOperationCount(); }
+		return total;
+	}
+
+	// Operations of all buckets per second, until the last bucket finished
+	public double getAggregateThroughput() {
+		return (runNanos <= 0) ? 0 : (getTotalOperationCount() * 1000000000.0) / runNanos;
+	}
+
+	// The bucket that took longest, in ms
+	public double getSlowestTime() {
+		long max = 0;
+		for (TimingClass tc : timers) { max = Math.max(max, tc.getElapsedNanos()); }
+		return max / 1000000.0;
+	}
+
+	// Every bucket's histograms under "bucketName/metric", and all operations under "operations"
+	public Map<String, Histogram> getHistograms() {
+		Map<String, Histogram> all = super.getHistograms();
+		for (int i = 0; i < timers.length; i++) {
+			for (Map.Entry<String, Histogram> e : timers[i].getHistograms().entrySet()) {
+				all.put(bucketNames[i] + "/" + e.getKey(), e.getValue());
+			}
+		}
+		return all;
+	}
+
+	public void doTheWork() throws Exception {
+
+		ExecutorService pool = Executors.newFixedThreadPool(timers.length);
+		long start = System.nanoTime();
+
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (final TimingClass tc : timers) {
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() {
+						tc.performTest();
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : futures) { f.get(); }
+		}
+		finally {
+			pool.shutdownNow();
+		}
+
+		runNanos = System.nanoTime() - start;
+
+		Histogram combined = null;
+		for (TimingClass tc : timers) {
+			Histogram h = tc.getOperationHistogram();
+			if (h == null) { continue; }
+			if (combined == null) { combined = new Histogram(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS); }
+			combined.add(h);
+		}
+		operationHistogram = combined;
+
+		for (TimingClass tc : timers) {
+			if (tc.didExceptionOccur()) { throw tc.getException(); }
+		}
+	}
+
+} // CBParallelBucketsTimer
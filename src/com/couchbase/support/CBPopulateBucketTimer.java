@@ -0,0 +1,67 @@
+// CBPopulateBucketTimer
+//
+// Times inserting numDocuments test documents one at a time with the blocking API.
+// Documents come from a DocumentGenerator, which also sets their size and shape.
+
+package com.couchbase.support;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+
+class CBPopulateBucketTimer extends TimingClass {
+
+	Bucket bucket;
+	int numDocumentsToInsert;
+	DocumentGenerator generator;
+
+	public CBPopulateBucketTimer(Bucket b, int numDocs) {
+		this(b, numDocs, new DocumentGenerator());
+	}
+
+	public CBPopulateBucketTimer(Bucket b, int numDocs, DocumentGenerator gen) {
+		bucket = b;
+		numDocumentsToInsert = numDocs;
+		generator = gen;
+	}
+
+
+	public void doTheWork() throws Exception {
+
+		// TODO: Consider putting this inside the loop or not.
+		// When outside the loop, all docs will have the same creationDate
+		// On the other hand the total time to populate the bucket
+		// can be about 500-600 ms.
+
+		//long timeNow = System.currentTimeMillis();
+
+		for (int i = 0; i < numDocumentsToInsert; i++) {
+
+			// test
+			long timeNow = System.currentTimeMillis();
+
+			// create a document
+			RawJsonDocument document = generator.create(i, timeNow);
+
+			// insert the document
+			bucket.insert(document);
+
+		} // for each document
+
+	} // doTheWork
+
+	// The same document built the original way, a string built and parsed for every document.  The
+	// loaders use DocumentGenerator now; this stays as the baseline of DocumentConstructionBenchmark.
+	static JsonDocument createTestDocument(int serialNumber, long creationDate) {
+
+		String DOCUMENTNAMEPREFIX = "testDocument";
+
+		String documentKey        = DOCUMENTNAMEPREFIX + serialNumber;
+		String jsonDocumentString = "{ \"name\" : \"testDocument\", \"serialNumber\" : " + serialNumber + ", \"creationDate\" : " + creationDate + " }";
+		JsonObject jsonObject     = JsonObject.fromJson(jsonDocumentString);
+
+		return JsonDocument.create(documentKey, jsonObject);
+	}
+
+} // populate a bucket
@@ -0,0 +1,201 @@
+// CBReactivePipelineTimer
+//
+// The roundtrip of ViewTimingTestRoundtrip (create the design document, populate the bucket, poll
+// the view until every document is in it, analyze the timestamps) as one RxJava pipeline through
+// bucket.async(), instead of a blocking timer per step:
+//
+//   design document   upserted, then the pipeline moves on
+//   populate          Observable.range() of serial numbers, merged with at most maxInFlight inserts
+//                     subscribed at once.  merge() starts the next insert only when one completes and
+//                     pulls serial numbers from range() only a small buffer ahead, so documents are
+//                     built as the cluster takes them (backpressure).
+//   index + analyze   the view is queried with backoff until it returns numDocuments rows.  Each poll's
+//                     rows flow straight into a fresh TimestampAnalyzer; the one of the complete poll
+//                     is the result.
+//
+// Within a stage the requests are pipelined, so the times are the cluster's pipelined throughput
+// rather than a sum of round trips.  Every insert is recorded as one operation.
+//
+// The design document is created through the blocking BucketManager on an I/O thread, as a stream
+// stage like the others, so the same code runs against an InMemoryBucket.
+
+package com.couchbase.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.functions.Func2;
+import rx.schedulers.Schedulers;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.view.AsyncViewRow;
+import com.couchbase.client.java.view.DefaultView;
+import com.couchbase.client.java.view.DesignDocument;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.View;
+import com.couchbase.client.java.view.ViewQuery;
+
+class CBReactivePipelineTimer extends TimingClass {
+
+	Bucket            bucket;
+	String            designDocName;
+	String            viewName;
+	String            mapFunction;
+	int               numDocuments;
+	int               maxInFlight;
+	DocumentGenerator generator;
+	Stale             pollStale;
+	long              initialDelayMillis;
+	long              maxDelayMillis;
+	long              timeoutMillis;
+
+	// Results, nanoTime() at the end of each stage
+	long              designDocumentDoneNanos;
+	long              populateDoneNanos;
+	long              indexDoneNanos;
+	int               insertedCount;
+	AtomicInteger     pollCount;
+	TimestampAnalyzer analyzer;
+
+	public CBReactivePipelineTimer(Bucket b, String dn, String vn, String mf, int numDocs, int inFlight, DocumentGenerator gen,
+			Stale stl, long initialDelay, long maxDelay, long timeout) {
+		if (inFlight < 1)            { throw new IllegalArgumentException("inFlight must be at least 1"); }
+		if (maxDelay < initialDelay) { throw new IllegalArgumentException("maxDelay must be at least initialDelay"); }
+
+		bucket             = b;
+		designDocName      = dn;
+		viewName           = vn;
+		mapFunction        = mf;
+		numDocuments       = numDocs;
+		maxInFlight        = inFlight;
+		generator          = gen;
+		pollStale          = stl;
+		initialDelayMillis = initialDelay;
+		maxDelayMillis     = maxDelay;
+		timeoutMillis      = timeout;
+
+		pollCount = new AtomicInteger(0);
+
+		enableOperationTiming();
+	}
+
+	// Stage times in ms, with sub-millisecond resolution
+	public double getDesignDocumentTime() { return (designDocumentDoneNanos - startNanos) / 1000000.0; }
+	public double getPopulateTime()       { return (populateDoneNanos - designDocumentDoneNanos) / 1000000.0; }
+	public double getIndexTime()          { return (indexDoneNanos - populateDoneNanos) / 1000000.0; }
+
+	public double getInsertsPerSecond() {
+		long populateNanos = populateDoneNanos - designDocumentDoneNanos;
+		return (populateNanos <= 0) ? 0 : (insertedCount * 1000000000.0) / populateNanos;
+	}
+
+	public int getInsertedCount() { return insertedCount; }
+
+	public int getPollCount() { return pollCount.get(); }
+
+	// The analysis of the first complete result, null if the pipeline did not get that far
+	public TimestampAnalyzer getAnalyzer() { return analyzer; }
+
+	public void doTheWork() throws Exception {
+
+		final AsyncBucket asyncBucket = bucket.async();
+
+		analyzer = createDesignDocument()
+				.flatMap(new Func1<DesignDocument, Observable<Integer>>() {
+					public Observable<Integer> call(DesignDocument dd) {
+						designDocumentDoneNanos = System.nanoTime();
+						return populate(asyncBucket);
+					}
+				})
+				.flatMap(new Func1<Integer, Observable<TimestampAnalyzer>>() {
+					public Observable<TimestampAnalyzer> call(Integer inserted) {
+						populateDoneNanos = System.nanoTime();
+						insertedCount     = inserted;
+						return pollUntilComplete(asyncBucket);
+					}
+				})
+				.toBlocking().single();
+
+		indexDoneNanos = System.nanoTime();
+	}
+
+	Observable<DesignDocument> createDesignDocument() {
+		return Observable.defer(new Func0<Observable<DesignDocument>>() {
+			public Observable<DesignDocument> call() {
+				List<View> views = new ArrayList<View>();
+				views.add(DefaultView.create(viewName, mapFunction));
+				return Observable.just(bucket.bucketManager().upsertDesignDocument(DesignDocument.create(designDocName, views)));
+			}
+		}).subscribeOn(Schedulers.io());
+	}
+
+	// Emits the number of documents inserted
+	Observable<Integer> populate(final AsyncBucket asyncBucket) {
+
+		Observable<Observable<RawJsonDocument>> inserts = Observable.range(0, numDocuments)
+				.map(new Func1<Integer, Observable<RawJsonDocument>>() {
+					public Observable<RawJsonDocument> call(final Integer serialNumber) {
+						// merge() maps ahead of what it subscribes to, so the document and the clock wait for the subscription
+						return Observable.defer(new Func0<Observable<RawJsonDocument>>() {
+							public Observable<RawJsonDocument> call() {
+								final long operationStart = startOperation();
+								return asyncBucket.insert(generator.create(serialNumber, System.currentTimeMillis()))
+										.doOnCompleted(new Action0() {
+											public void call() { recordOperation(operationStart); }
+										});
+							}
+						});
+					}
+				});
+
+		return Observable.merge(inserts, maxInFlight).count();
+	}
+
+	// Emits the analysis of the first poll that returns every document
+	Observable<TimestampAnalyzer> pollUntilComplete(final AsyncBucket asyncBucket) {
+
+		final AtomicLong nextDelay = new AtomicLong(initialDelayMillis);
+
+		Observable<TimestampAnalyzer> poll = Observable.defer(new Func0<Observable<TimestampAnalyzer>>() {
+			public Observable<TimestampAnalyzer> call() {
+				pollCount.incrementAndGet();
+				return LoadOperations.allRows(asyncBucket.query(ViewQuery.from(designDocName, viewName).stale(pollStale)))
+						.reduce(new TimestampAnalyzer(false), new Func2<TimestampAnalyzer, AsyncViewRow, TimestampAnalyzer>() {
+							public TimestampAnalyzer call(TimestampAnalyzer a, AsyncViewRow row) {
+								a.consumeRow(row.id(), row.key(), row.value());
+								return a;
+							}
+						});
+			}
+		});
+
+		return poll
+				.repeatWhen(new Func1<Observable<? extends Void>, Observable<?>>() {
+					public Observable<?> call(Observable<? extends Void> completions) {
+						return completions.flatMap(new Func1<Void, Observable<Long>>() {
+							public Observable<Long> call(Void v) {
+								long delay = nextDelay.get();
+								nextDelay.set(Math.min(maxDelayMillis, delay * 2));
+								return Observable.timer(delay, TimeUnit.MILLISECONDS);
+							}
+						});
+					}
+				})
+				.takeFirst(new Func1<TimestampAnalyzer, Boolean>() {
+					public Boolean call(TimestampAnalyzer a) {
+						return (a.getResultsLookedAt() + a.getRowsWithoutTimestamps()) >= numDocuments;
+					}
+				})
+				.timeout(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+} // CBReactivePipelineTimer
@@ -0,0 +1,33 @@
+// CBSingleGetItemsTimer
+//
+// Given a list of specific documents, get them one at a time with the blocking API.
+
+package com.couchbase.support;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+
+class CBSingleGetItemsTimer extends TimingClass {
+	String[] ids;
+	Bucket bucket;
+	int successCount;
+
+	public CBSingleGetItemsTimer(Bucket b, String[] idList) {
+		bucket = b;
+		ids = idList;
+		successCount = 0;
+		enableOperationTiming();
+	}
+
+	public int getSuccessCount() { return successCount; }
+
+	public void doTheWork() throws Exception {
+		JsonDocument d;
+		for (int i = 0; i < ids.length; i++) {
+			long t = startOperation();
+			d = bucket.get(ids[i]);
+			recordOperation(t);
+			if (d != null) { successCount++; }
+		}
+	}
+} // Given a list of specific documents, get them sequentially
@@ -0,0 +1,247 @@
+// CBStaleTradeoffTimer
+//
+// What a stale setting costs in freshness and buys in latency, measured under write load.  For
+// the configured duration:
+//
+//   writer    upserts new documents at a fixed rate, each stamped with its creationDate, and keeps
+//             the last `recent` acknowledged ones, newest last
+//   queriers  a pool of threads, each running the full view query with the stale setting under
+//             test back to back, as CBFullViewQueryTimer does
+//
+// Every query's latency is recorded as one operation.  Its freshness is judged against the most
+// recent writes acknowledged before it was sent: how many of them are missing from the result,
+// and how long ago the oldest missing one was acknowledged.  stale=false should miss none, at a
+// price in latency; stale=ok misses whatever the indexer has not got to yet.
+//
+// A document counts as present when its id is in the result; when the row's value carries a
+// creationDate (a map function that emits the document), that must be the one written.  Run the
+// same write rate for each stale setting to get comparable rows of the trade-off, as
+// runStaleTradeoffMatrix() in ViewTimingTestRoundtrip does.  The writes are upserts, so a serial
+// number some other test has used already is simply written again.
+
+package com.couchbase.support;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+
+class CBStaleTradeoffTimer extends TimingClass {
+
+	// One acknowledged write
+	static class Write {
+		final String id;
+		final long   creationDate;
+		final long   acknowledgedNanos;
+
+		Write(String i, long c, long a) { id = i; creationDate = c; acknowledgedNanos = a; }
+	}
+
+	Bucket            bucket;
+	String            designDocName;
+	String            viewName;
+	Stale             stale;
+	int               firstSerialNumber;
+	double            writesPerSecond;
+	int               recentCount;
+	int               numQueryWorkers;
+	long              durationMillis;
+	DocumentGenerator generator;
+
+	ArrayDeque<Write> recentWrites;			// guarded by itself
+	AtomicLong        writes;
+	AtomicLong        queries;
+	AtomicReference<Throwable> firstFailure;
+
+	Recorder  missingRecorder;				// recent writes missing from a result, a count
+	Recorder  missingAgeRecorder;			// ns since the oldest missing write was acknowledged, 0 when none is missing
+	Histogram missingHistogram;
+	Histogram missingAgeHistogram;
+	long      runNanos;
+
+	public CBStaleTradeoffTimer(Bucket b, String dn, String vn, Stale stl, int firstSerial, double writeRate, int recent,
+			int queryWorkers, long duration, DocumentGenerator gen) {
+		if (writeRate <= 0)   { throw new IllegalArgumentException("writeRate must be positive"); }
+		if (recent < 1)       { throw new IllegalArgumentException("recent must be at least 1"); }
+		if (queryWorkers < 1) { throw new IllegalArgumentException("queryWorkers must be at least 1"); }
+		if (duration < 1)     { throw new IllegalArgumentException("duration must be at least 1 ms"); }
+
+		bucket            = b;
+		designDocName     = dn;
+		viewName          = vn;
+		stale             = stl;
+		firstSerialNumber = firstSerial;
+		writesPerSecond   = writeRate;
+		recentCount       = recent;
+		numQueryWorkers   = queryWorkers;
+		durationMillis    = duration;
+		generator         = gen;
+
+		recentWrites       = new ArrayDeque<Write>();
+		writes             = new AtomicLong(0);
+		queries            = new AtomicLong(0);
+		firstFailure       = new AtomicReference<Throwable>(null);
+		missingRecorder    = new Recorder(Integer.MAX_VALUE, SIGNIFICANTDIGITS);
+		missingAgeRecorder = new Recorder(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS);
+
+		enableOperationTiming();
+	}
+
+	public Stale getStale() { return stale; }
+
+	public long getWriteCount() { return writes.get(); }
+	public long getQueryCount() { return queries.get(); }
+
+	public double getQueriesPerSecond() {
+		return (runNanos <= 0) ? 0 : (getOperationCount() * 1000000000.0) / runNanos;
+	}
+
+	// Only valid after performTest() has completed
+	public Histogram getMissingHistogram()    { return missingHistogram; }
+	public Histogram getMissingAgeHistogram() { return missingAgeHistogram; }
+
+	public double getAverageMissing() {
+		return ((missingHistogram == null) || (missingHistogram.getTotalCount() == 0)) ? 0 : missingHistogram.getMean();
+	}
+
+	public String getMissingSummary() {
+		if ((missingHistogram == null) || (missingHistogram.getTotalCount() == 0)) { return "no queries recorded"; }
+		return String.format("of the last %d writes missing: avg %.1f p50: %d p90: %d p99: %d max: %d", recentCount, missingHistogram.getMean(),
+				missingHistogram.getValueAtPercentile(50.0), missingHistogram.getValueAtPercentile(90.0),
+				missingHistogram.getValueAtPercentile(99.0), missingHistogram.getMaxValue());
+	}
+
+	public String getMissingAgeSummary() {
+		if ((missingAgeHistogram == null) || (missingAgeHistogram.getTotalCount() == 0)) { return "no queries recorded"; }
+		return latencySummary("queries", missingAgeHistogram);
+	}
+
+	public Map<String, Histogram> getHistograms() {
+		Map<String, Histogram> all = super.getHistograms();
+		if (missingAgeHistogram != null) { all.put("oldestMissingAge", missingAgeHistogram); }
+		return all;
+	}
+
+	public void doTheWork() throws Exception {
+
+		final long start    = System.nanoTime();
+		final long deadline = start + (durationMillis * 1000000L);
+
+		ScheduledExecutorService writer  = Executors.newSingleThreadScheduledExecutor();
+		ExecutorService          queriers = Executors.newFixedThreadPool(numQueryWorkers);
+
+		writer.scheduleAtFixedRate(new Runnable() {
+			long nextSerialNumber = firstSerialNumber;
+			public void run() {
+				try {
+					long creationDate = System.currentTimeMillis();
+					String id = bucket.upsert(generator.create((int) nextSerialNumber++, creationDate)).id();
+					writes.incrementAndGet();
+					synchronized (recentWrites) {
+						recentWrites.addLast(new Write(id, creationDate, System.nanoTime()));
+						if (recentWrites.size() > recentCount) { recentWrites.removeFirst(); }
+					}
+				} catch (Throwable t) {
+					firstFailure.compareAndSet(null, t);
+				}
+			}
+		}, 0, (long) (1000000000.0 / writesPerSecond), TimeUnit.NANOSECONDS);
+
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int w = 0; w < numQueryWorkers; w++) {
+				futures.add(queriers.submit(new Callable<Void>() {
+					public Void call() {
+						while ((System.nanoTime() < deadline) && (firstFailure.get() == null)) {
+							try {
+								query();
+							} catch (Throwable t) {
+								firstFailure.compareAndSet(null, t);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) { throw (Exception) e.getCause(); }
+					throw e;
+				}
+			}
+		}
+		finally {
+			writer.shutdownNow();
+			queriers.shutdownNow();
+			writer.awaitTermination(durationMillis, TimeUnit.MILLISECONDS);
+		}
+
+		runNanos            = System.nanoTime() - start;
+		missingHistogram    = missingRecorder.getIntervalHistogram();
+		missingAgeHistogram = missingAgeRecorder.getIntervalHistogram();
+
+		Throwable t = firstFailure.get();
+		if (t != null) {
+			if (t instanceof Exception) { throw (Exception) t; }
+			throw new RuntimeException(t);
+		}
+	}
+
+	void query() {
+
+		Write[] expected;
+		synchronized (recentWrites) { expected = recentWrites.toArray(new Write[recentWrites.size()]); }
+
+		Map<String, Write> outstanding = new HashMap<String, Write>(expected.length * 2);
+		for (Write w : expected) { outstanding.put(w.id, w); }
+
+		long operationStart = startOperation();
+		ViewResult result = bucket.query(ViewQuery.from(designDocName, viewName).stale(stale));
+		if (!result.success()) { throw new IllegalStateException("The view query failed: " + result.error()); }
+
+		for (ViewRow row : result) {
+			Write w = outstanding.get(row.id());
+			if ((w != null) && isWritten(row, w)) { outstanding.remove(row.id()); }
+		}
+		recordOperation(operationStart);
+		queries.incrementAndGet();
+
+		long oldestMissing = operationStart;
+		for (Write w : outstanding.values()) { oldestMissing = Math.min(oldestMissing, w.acknowledgedNanos); }
+
+		missingRecorder.recordValue(outstanding.size());
+		missingAgeRecorder.recordValue(operationStart - oldestMissing);
+	}
+
+	// The row shows this write: no creationDate in the value to tell by, or the one written
+	static boolean isWritten(ViewRow row, Write w) {
+		Object value = row.value();
+		if (!(value instanceof JsonObject)) { return true; }
+		Long creationDate = ((JsonObject) value).getLong("creationDate");
+		return (creationDate == null) || (creationDate.longValue() >= w.creationDate);
+	}
+
+} // CBStaleTradeoffTimer
@@ -0,0 +1,125 @@
+// CBThreadedItemsTimer
+//
+// Gets, inserts or removes count test documents (serial numbers firstSerialNumber on) with the
+// blocking API, one task per document on a WorkerExecutors executor, with at most maxConcurrent
+// tasks running at once.  On virtual threads that is the blocking style of CBSingleGetItemsTimer
+// and CBPopulateBucketTimer at the concurrency of the async timers; on a platform pool the pool
+// size caps it as well.
+//
+// Each document is recorded as one operation, so the numbers compare directly with
+// CBMultiGetItemsTimer and CBBulkLoadTimer (see runThreadingComparison() in ViewTimingTestRoundtrip).
+
+package com.couchbase.support;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.couchbase.client.java.Bucket;
+
+class CBThreadedItemsTimer extends TimingClass {
+
+	Bucket            bucket;
+	String            operation;		// get, insert or remove
+	int               firstSerialNumber;
+	int               count;
+	DocumentGenerator generator;
+	String            threadMode;
+	int               poolSize;
+	int               maxConcurrent;
+
+	AtomicInteger              successCount;
+	AtomicReference<Throwable> firstFailure;
+
+	public CBThreadedItemsTimer(Bucket b, String op, int firstSerial, int numDocs, DocumentGenerator gen,
+			String mode, int threads, int concurrency) {
+		if (!op.equals("get") && !op.equals("insert") && !op.equals("remove")) { throw new IllegalArgumentException("Unknown operation: " + op); }
+		if (concurrency < 1) { throw new IllegalArgumentException("concurrency must be at least 1"); }
+
+		bucket            = b;
+		operation         = op;
+		firstSerialNumber = firstSerial;
+		count             = numDocs;
+		generator         = gen;
+		threadMode        = mode;
+		poolSize          = threads;
+		maxConcurrent     = concurrency;
+
+		successCount = new AtomicInteger(0);
+		firstFailure = new AtomicReference<Throwable>(null);
+
+		enableOperationTiming();
+	}
+
+	public String getOperation() { return operation; }
+
+	public String getThreadMode() { return threadMode; }
+
+	public int getCount() { return count; }
+
+	public int getSuccessCount() { return successCount.get(); }
+
+	public double getOperationsPerSecond() {
+		long elapsedNanos = getElapsedNanos();
+		if (elapsedNanos <= 0) { return 0; }
+		return (count * 1000000000.0) / elapsedNanos;
+	}
+
+	public void doTheWork() throws Exception {
+
+		ExecutorService executor = WorkerExecutors.create(threadMode, poolSize);
+		final Semaphore permits  = new Semaphore(maxConcurrent);
+
+		try {
+			for (int i = 0; i < count; i++) {
+
+				permits.acquire();
+
+				final int serialNumber = firstSerialNumber + i;
+
+				executor.execute(new Runnable() {
+					public void run() {
+						long operationStart = startOperation();
+						try {
+							if (performOne(serialNumber)) { successCount.incrementAndGet(); }
+						} catch (RuntimeException e) {
+							firstFailure.compareAndSet(null, e);
+						} finally {
+							recordOperation(operationStart);
+							permits.release();
+						}
+					}
+				});
+
+			} // for each document
+
+			// Wait for the outstanding tasks to drain
+			permits.acquire(maxConcurrent);
+			permits.release(maxConcurrent);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		Throwable t = firstFailure.get();
+		if (t != null) {
+			if (t instanceof Exception) { throw (Exception) t; }
+			throw new RuntimeException(t);
+		}
+	}
+
+	// One blocking call; false for a get of a document that does not exist
+	boolean performOne(int serialNumber) {
+		if (operation.equals("get")) {
+			return (bucket.get(DocumentGenerator.DOCUMENTNAMEPREFIX + serialNumber) != null);
+		}
+		if (operation.equals("insert")) {
+			bucket.insert(generator.create(serialNumber, System.currentTimeMillis()));
+			return true;
+		}
+		bucket.remove(DocumentGenerator.DOCUMENTNAMEPREFIX + serialNumber);
+		return true;
+	}
+
+} // CBThreadedItemsTimer
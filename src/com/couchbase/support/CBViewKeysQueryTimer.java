@@ -0,0 +1,71 @@
+// CBViewKeysQueryTimer
+//
+// Fetches a specific set of keys from a view with ViewQuery.keys(), which is the view-side
+// equivalent of a multi-get.  Long key lists are split into chunks of keysPerQuery so that a
+// single request does not grow without bound; each chunk is recorded as one operation.
+//
+// This assumes the map function emits the document id as the key, as both programs' map functions do.
+
+package com.couchbase.support;
+
+import java.util.Arrays;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+
+class CBViewKeysQueryTimer extends TimingClass {
+
+	Bucket   bucket;
+	String   designDocName;
+	String   viewName;
+	String[] keys;
+	int      keysPerQuery;
+	Stale    staleValue;
+	int      totalResults;
+
+	public CBViewKeysQueryTimer(Bucket b, String dn, String vn, String[] keyList, int chunkSize, Stale stl) {
+		if (chunkSize < 1) { throw new IllegalArgumentException("chunkSize must be at least 1"); }
+
+		bucket        = b;
+		designDocName = dn;
+		viewName      = vn;
+		keys          = keyList;
+		keysPerQuery  = chunkSize;
+		staleValue    = stl;
+		totalResults  = 0;
+
+		enableOperationTiming();
+	}
+
+	public int getTotalResults() { return totalResults; }
+
+	public double getKeysPerSecond() {
+		long elapsedNanos = getElapsedNanos();
+		if (elapsedNanos <= 0) { return 0; }
+		return (keys.length * 1000000000.0) / elapsedNanos;
+	}
+
+	public void doTheWork() throws Exception {
+
+		for (int first = 0; first < keys.length; first += keysPerQuery) {
+
+			int last = Math.min(first + keysPerQuery, keys.length);
+			JsonArray chunk = JsonArray.from(Arrays.asList((Object[]) Arrays.copyOfRange(keys, first, last)));
+
+			long t = startOperation();
+
+			ViewResult viewResult = bucket.query(ViewQuery.from(designDocName, viewName).stale(staleValue).keys(chunk));
+
+			for (ViewRow row : viewResult) {
+				totalResults++;
+			}
+
+			recordOperation(t);
+		}
+	}
+
+} // CBViewKeysQueryTimer
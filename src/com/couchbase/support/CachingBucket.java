@@ -0,0 +1,244 @@
+// CachingBucket
+//
+// Puts a ViewResultCache in front of any Bucket, a cluster's or an InMemoryBucket's.  getBucket()
+// returns a Bucket that can be handed to every timer in place of the one it wraps:
+//
+//   query(ViewQuery), blocking and through async()    answered from the cache when it can, and
+//                                                     stored in it when the query succeeds
+//   insert / upsert / replace / remove / append /     passed on, and reported to the cache when
+//   prepend / counter, blocking and through async()   they complete (see invalidateOnWrite)
+//
+// Everything else is passed straight on.  A query that misses, or whose stale mode is not cached,
+// goes to the wrapped bucket; a result that is stored is read in full first, so its rows come back
+// as one list rather than streamed.  Failed queries are never cached.
+
+package com.couchbase.support;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.AsyncViewResult;
+import com.couchbase.client.java.view.AsyncViewRow;
+import com.couchbase.client.java.view.DefaultAsyncViewResult;
+import com.couchbase.client.java.view.DefaultAsyncViewRow;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+
+class CachingBucket {
+
+	Bucket          wrappedBucket;
+	AsyncBucket     wrappedAsyncBucket;
+	ViewResultCache cache;
+
+	Bucket          bucket;
+	AsyncBucket     asyncBucket;
+
+	public CachingBucket(Bucket b, ViewResultCache c) {
+		wrappedBucket      = b;
+		wrappedAsyncBucket = b.async();
+		cache              = c;
+
+		bucket = (Bucket) Proxy.newProxyInstance(Bucket.class.getClassLoader(),
+				new Class<?>[] { Bucket.class }, new BucketHandler());
+		asyncBucket = (AsyncBucket) Proxy.newProxyInstance(AsyncBucket.class.getClassLoader(),
+				new Class<?>[] { AsyncBucket.class }, new AsyncBucketHandler());
+	}
+
+	public Bucket getBucket() { return bucket; }
+
+	public ViewResultCache getCache() { return cache; }
+
+	static boolean isWrite(String methodName) {
+		return methodName.equals("insert") || methodName.equals("upsert") || methodName.equals("replace") || methodName.equals("remove")
+				|| methodName.equals("append") || methodName.equals("prepend") || methodName.equals("counter");
+	}
+
+	// The view query of a query() call that the cache may answer, null for anything else
+	ViewQuery cacheableQuery(String methodName, Object[] args) {
+		if (!methodName.equals("query") || !InMemoryBucket.isViewQuery(args)) { return null; }
+		ViewQuery query = (ViewQuery) args[0];
+		return cache.isCacheable(query) ? query : null;
+	}
+
+	static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	// Proxies are equal only to themselves; the rest of Object's methods are left to the wrapped bucket
+	static boolean isIdentityMethod(Method method) {
+		return method.getName().equals("equals") || method.getName().equals("hashCode");
+	}
+
+	static Object identityMethod(Object proxy, Method method, Object[] args) {
+		if (method.getName().equals("hashCode")) { return System.identityHashCode(proxy); }
+		return (proxy == args[0]);
+	}
+
+	class BucketHandler implements InvocationHandler {
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String m = method.getName();
+
+			if (isIdentityMethod(method)) { return identityMethod(proxy, method, args); }
+			if (m.equals("async"))        { return asyncBucket; }
+
+			if (isWrite(m)) {
+				try {
+					return invokeOn(wrappedBucket, method, args);
+				}
+				finally {
+					cache.writeCompleted();
+				}
+			}
+
+			ViewQuery query = cacheableQuery(m, args);
+			if (query == null) { return invokeOn(wrappedBucket, method, args); }
+
+			ViewResultCache.Entry e = cache.lookup(query);
+			if (e != null) { return new CachedViewResult(e.rows, e.totalRows, e.debug); }
+
+			long generation = cache.generation();
+			ViewResult result = (ViewResult) invokeOn(wrappedBucket, method, args);
+			if (!result.success()) { return result; }
+
+			List<ViewRow> rows = (args.length == 3) ? result.allRows((Long) args[1], (TimeUnit) args[2]) : result.allRows();
+			List<ViewResultCache.Row> cached = new ArrayList<ViewResultCache.Row>(rows.size());
+			for (ViewRow row : rows) { cached.add(new ViewResultCache.Row(row.id(), row.key(), row.value())); }
+
+			cache.store(query, cached, result.totalRows(), result.debug(), generation);
+			return new CachedViewResult(cached, result.totalRows(), result.debug());
+		}
+	}
+
+	// Queries and writes start when subscribed to, as the SDK's do
+	class AsyncBucketHandler implements InvocationHandler {
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String m = method.getName();
+
+			if (isIdentityMethod(method)) { return identityMethod(proxy, method, args); }
+
+			if (isWrite(m)) {
+				return ((Observable<?>) invokeOn(wrappedAsyncBucket, method, args)).doOnTerminate(new Action0() {
+					public void call() { cache.writeCompleted(); }
+				});
+			}
+
+			final ViewQuery query = cacheableQuery(m, args);
+			if (query == null) { return invokeOn(wrappedAsyncBucket, method, args); }
+
+			final Method   queryMethod = method;
+			final Object[] queryArgs   = args;
+
+			return Observable.defer(new Func0<Observable<AsyncViewResult>>() {
+				public Observable<AsyncViewResult> call() {
+					ViewResultCache.Entry e = cache.lookup(query);
+					if (e != null) { return Observable.just(asyncViewResult(e.rows, e.totalRows, e.debug)); }
+
+					final long generation = cache.generation();
+					Observable<AsyncViewResult> results;
+					try {
+						@SuppressWarnings("unchecked")
+						Observable<AsyncViewResult> r = (Observable<AsyncViewResult>) invokeOn(wrappedAsyncBucket, queryMethod, queryArgs);
+						results = r;
+					} catch (Throwable t) {
+						return Observable.error(t);
+					}
+
+					return results.flatMap(new Func1<AsyncViewResult, Observable<AsyncViewResult>>() {
+						public Observable<AsyncViewResult> call(final AsyncViewResult result) {
+							if (!result.success()) { return Observable.just(result); }
+							return result.rows().toList().map(new Func1<List<AsyncViewRow>, AsyncViewResult>() {
+								public AsyncViewResult call(List<AsyncViewRow> rows) {
+									List<ViewResultCache.Row> cached = new ArrayList<ViewResultCache.Row>(rows.size());
+									for (AsyncViewRow row : rows) { cached.add(new ViewResultCache.Row(row.id(), row.key(), row.value())); }
+									cache.store(query, cached, result.totalRows(), result.debug(), generation);
+									return asyncViewResult(cached, result.totalRows(), result.debug());
+								}
+							});
+						}
+					});
+				}
+			});
+		}
+	}
+
+	AsyncViewResult asyncViewResult(List<ViewResultCache.Row> cached, int totalRows, JsonObject debug) {
+		List<AsyncViewRow> rows = new ArrayList<AsyncViewRow>(cached.size());
+		for (ViewResultCache.Row row : cached) { rows.add(new DefaultAsyncViewRow(asyncBucket, row.id, row.key, row.value)); }
+		return new DefaultAsyncViewResult(Observable.from(rows), totalRows, true, Observable.<JsonObject>empty(), debug);
+	}
+
+	// A successful result, with every row already here
+	class CachedViewResult implements ViewResult {
+
+		List<ViewRow> rows;
+		int           totalRows;
+		JsonObject    debug;
+
+		CachedViewResult(List<ViewResultCache.Row> cached, int total, JsonObject d) {
+			rows      = new ArrayList<ViewRow>(cached.size());
+			totalRows = total;
+			debug     = d;
+			for (ViewResultCache.Row row : cached) { rows.add(new CachedViewRow(row)); }
+		}
+
+		public List<ViewRow> allRows()                             { return rows; }
+		public List<ViewRow> allRows(long timeout, TimeUnit unit)  { return rows; }
+		public Iterator<ViewRow> rows()                            { return rows.iterator(); }
+		public Iterator<ViewRow> rows(long timeout, TimeUnit unit) { return rows.iterator(); }
+		public Iterator<ViewRow> iterator()                        { return rows.iterator(); }
+		public int totalRows()                                     { return totalRows; }
+		public boolean success()                                   { return true; }
+		public JsonObject error()                                  { return null; }
+		public JsonObject error(long timeout, TimeUnit unit)       { return null; }
+		public JsonObject debug()                                  { return debug; }
+	}
+
+	// The documents of cached rows are read through the caching bucket, as fresh as any get
+	class CachedViewRow implements ViewRow {
+
+		ViewResultCache.Row row;
+
+		CachedViewRow(ViewResultCache.Row r) { row = r; }
+
+		public String id()    { return row.id; }
+		public Object key()   { return row.key; }
+		public Object value() { return row.value; }
+
+		public JsonDocument document()                            { return (row.id == null) ? null : bucket.get(row.id); }
+		public JsonDocument document(long timeout, TimeUnit unit) { return (row.id == null) ? null : bucket.get(row.id, timeout, unit); }
+
+		public <D extends Document<?>> D document(Class<D> target) {
+			return (row.id == null) ? null : bucket.get(row.id, target);
+		}
+
+		public <D extends Document<?>> D document(Class<D> target, long timeout, TimeUnit unit) {
+			return (row.id == null) ? null : bucket.get(row.id, target, timeout, unit);
+		}
+
+		public String toString() {
+			return "ViewRow{id=" + row.id + ", key=" + row.key + ", value=" + row.value + "}";
+		}
+	}
+
+} // CachingBucket
@@ -0,0 +1,12 @@
+// ConvergenceProbe
+//
+// One poll of a ConvergenceWaiter.
+
+package com.couchbase.support;
+
+interface ConvergenceProbe {
+
+	// Perform one poll.  Return true once the expected state has been observed.
+	boolean hasConverged() throws Exception;
+
+} // ConvergenceProbe
@@ -0,0 +1,116 @@
+// ConvergenceWaiter
+//
+// Polls a ConvergenceProbe until it reports that the expected state has been reached, instead of
+// spinning on the probe with no pause.  Between polls it waits with exponential backoff, starting
+// at initialDelay and growing by backoffFactor up to maxDelay.  The wait is also never shorter than
+// the previous poll took, so polling uses at most about half of the cluster's time even when each
+// query is expensive (for example a full Stale.FALSE view query).  Polling stops at the deadline.
+//
+// The moment of convergence is not known exactly, only that it happened somewhere between the last
+// poll that did not see it and the first poll that did.  Each poll is taken to observe the cluster
+// at the midpoint of its start and end, and getFirstObservedAt() returns the midpoint between those
+// two observation points, with getUncertainty() giving the +/- bound.
+
+package com.couchbase.support;
+
+class ConvergenceWaiter {
+
+	long   initialDelayMillis;
+	long   maxDelayMillis;
+	double backoffFactor;
+	long   timeoutMillis;
+
+	// Results of the last await()
+	boolean converged;
+	int     pollCount;
+	long    waitStartMillis;
+	long    firstObservedAtMillis;
+	long    uncertaintyMillis;
+
+	// Offset between System.nanoTime() and the wall clock, so results can be compared with document timestamps
+	long    nanoToWallClockOffsetMillis;
+
+	public ConvergenceWaiter(long initialDelay, long maxDelay, double factor, long timeout) {
+		if (initialDelay < 0)      { throw new IllegalArgumentException("initialDelay must not be negative"); }
+		if (maxDelay < initialDelay) { throw new IllegalArgumentException("maxDelay must be at least initialDelay"); }
+		if (factor < 1.0)          { throw new IllegalArgumentException("factor must be at least 1.0"); }
+
+		initialDelayMillis = initialDelay;
+		maxDelayMillis     = maxDelay;
+		backoffFactor      = factor;
+		timeoutMillis      = timeout;
+	}
+
+	// Reasonable defaults for waiting on a view: 50 ms doubling up to 5 s
+	public ConvergenceWaiter(long timeout) {
+		this(50, 5000, 2.0, timeout);
+	}
+
+	public boolean hasConverged() { return converged; }
+
+	public int getPollCount() { return pollCount; }
+
+	// Wall clock time (ms) at which the probe was first seen to succeed, interpolated between polls
+	public long getFirstObservedAt() { return firstObservedAtMillis; }
+
+	// How far getFirstObservedAt() can be off, in ms
+	public long getUncertainty() { return uncertaintyMillis; }
+
+	// Time from the start of await() until convergence was first observed, in ms
+	public long getTimeToConverge() { return firstObservedAtMillis - waitStartMillis; }
+
+	// Returns true if the probe converged before the deadline
+	public boolean await(ConvergenceProbe probe) throws Exception {
+
+		nanoToWallClockOffsetMillis = System.currentTimeMillis() - (System.nanoTime() / 1000000);
+
+		converged             = false;
+		pollCount             = 0;
+		firstObservedAtMillis = 0;
+		uncertaintyMillis     = 0;
+
+		long waitStartNanos = System.nanoTime();
+		long deadlineNanos  = waitStartNanos + (timeoutMillis * 1000000);
+		waitStartMillis     = toWallClock(waitStartNanos);
+
+		// Nothing has been observed before the first poll, so start from when waiting began
+		long lastNegativeObservationNanos = waitStartNanos;
+		long delayMillis                  = initialDelayMillis;
+
+		while (true) {
+
+			long pollStart = System.nanoTime();
+			boolean result = probe.hasConverged();
+			long pollEnd   = System.nanoTime();
+			pollCount++;
+
+			long observationNanos = pollStart + ((pollEnd - pollStart) / 2);
+
+			if (result) {
+				long estimateNanos    = lastNegativeObservationNanos + ((observationNanos - lastNegativeObservationNanos) / 2);
+				firstObservedAtMillis = toWallClock(estimateNanos);
+				uncertaintyMillis     = (observationNanos - lastNegativeObservationNanos) / 2000000;
+				converged             = true;
+				return true;
+			}
+
+			lastNegativeObservationNanos = observationNanos;
+
+			// Never poll more than half the time, however expensive the probe is
+			long pollMillis = (pollEnd - pollStart) / 1000000;
+			long sleepMillis = Math.max(delayMillis, pollMillis);
+
+			long remainingMillis = (deadlineNanos - System.nanoTime()) / 1000000;
+			if (remainingMillis <= 0) { return false; }
+
+			Thread.sleep(Math.min(sleepMillis, remainingMillis));
+
+			delayMillis = Math.min(maxDelayMillis, (long) (delayMillis * backoffFactor) + 1);
+		}
+	}
+
+	long toWallClock(long nanos) {
+		return (nanos / 1000000) + nanoToWallClockOffsetMillis;
+	}
+
+} // ConvergenceWaiter
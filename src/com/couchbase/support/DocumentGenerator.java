@@ -0,0 +1,139 @@
+// DocumentGenerator
+//
+// Produces the test documents for the loaders without building a string and parsing it back
+// for every insert.  The JSON text is laid out once as a template; serialNumber and creationDate
+// are fixed-width slots in it, patched in place for each document and padded with spaces (which
+// JSON allows after a number).  Each document is then a RawJsonDocument, so the SDK sends the text
+// as it is, without another encoding pass through JsonObject.
+//
+// Documents can be made bigger and deeper, for realistic sizes of 1-50 KB:
+//
+//   sizeBytes     pad the document to about this many bytes (0 for the small document the programs always used)
+//   fields        string fields of filler per object
+//   nestingDepth  levels of nested "child" objects, each with its own filler fields
+//
+// The filler is the same for every document.  The template buffer is per thread, so a generator
+// can be shared by loader threads.
+
+package com.couchbase.support;
+
+import java.util.Random;
+
+import com.couchbase.client.java.document.RawJsonDocument;
+
+class DocumentGenerator {
+
+	static final String DOCUMENTNAMEPREFIX = "testDocument";
+	static final int    SERIALNUMBERWIDTH  = 11;	// room for any int
+	static final int    CREATIONDATEWIDTH  = 20;	// room for any long
+
+	int    sizeBytes;
+	int    fieldsPerObject;
+	int    nestingDepth;
+	char[] template;
+	int    serialNumberOffset;
+	int    creationDateOffset;
+
+	ThreadLocal<char[]> buffers;
+
+	public DocumentGenerator(int size, int fields, int depth) {
+		if ((size < 0) || (fields < 0) || (depth < 0)) { throw new IllegalArgumentException("size, fields and depth must not be negative"); }
+
+		sizeBytes       = size;
+		fieldsPerObject = ((size > 0) && (fields == 0)) ? 1 : fields;
+		nestingDepth    = depth;
+
+		buildTemplate();
+
+		buffers = new ThreadLocal<char[]>() {
+			protected char[] initialValue() { return template.clone(); }
+		};
+	}
+
+	// The documents of CBPopulateBucketTimer.createTestDocument(): name, serialNumber and creationDate only
+	public DocumentGenerator() {
+		this(0, 0, 0);
+	}
+
+	public int getTemplateLength() { return template.length; }
+
+	public RawJsonDocument create(int serialNumber, long creationDate) {
+		char[] buffer = buffers.get();
+		writeNumber(buffer, serialNumberOffset, SERIALNUMBERWIDTH, serialNumber);
+		writeNumber(buffer, creationDateOffset, CREATIONDATEWIDTH, creationDate);
+		return RawJsonDocument.create(DOCUMENTNAMEPREFIX + serialNumber, new String(buffer));
+	}
+
+	// Left-aligned digits, the rest of the slot blank
+	static void writeNumber(char[] buffer, int offset, int width, long value) {
+		int end = offset + width;
+		int pos = offset;
+
+		if (value < 0) { buffer[pos++] = '-'; }
+
+		int digitsStart = pos;
+		long remaining = value;
+		do {
+			buffer[pos++] = (char) ('0' + Math.abs(remaining % 10));
+			remaining /= 10;
+		} while (remaining != 0);
+
+		// The digits went in least significant first
+		for (int i = digitsStart, j = pos - 1; i < j; i++, j--) {
+			char c = buffer[i]; buffer[i] = buffer[j]; buffer[j] = c;
+		}
+
+		while (pos < end) { buffer[pos++] = ' '; }
+	}
+
+	void buildTemplate() {
+
+		// First pass with empty filler, to find out how much filler the size calls for
+		int fillerFields = fieldsPerObject * (nestingDepth + 1);
+		int fillerLength = 0;
+		if ((fillerFields > 0) && (sizeBytes > 0)) {
+			int unpadded = layout(0).length();
+			fillerLength = Math.max(0, (sizeBytes - unpadded) / fillerFields);
+		}
+
+		StringBuilder sb = layout(fillerLength);
+		serialNumberOffset = sb.indexOf("\"serialNumber\":") + "\"serialNumber\":".length();
+		creationDateOffset = sb.indexOf("\"creationDate\":") + "\"creationDate\":".length();
+		template = new char[sb.length()];
+		sb.getChars(0, sb.length(), template, 0);
+	}
+
+	StringBuilder layout(int fillerLength) {
+
+		Random random = new Random(fillerLength);
+		StringBuilder sb = new StringBuilder(Math.max(sizeBytes, 128) + 64);
+
+		sb.append("{\"name\":\"testDocument\",\"serialNumber\":");
+		appendBlank(sb, SERIALNUMBERWIDTH);
+		sb.append(",\"creationDate\":");
+		appendBlank(sb, CREATIONDATEWIDTH);
+
+		appendFiller(sb, fillerLength, random);
+		for (int level = 1; level <= nestingDepth; level++) {
+			sb.append(",\"child\":{\"level\":").append(level);
+			appendFiller(sb, fillerLength, random);
+		}
+		for (int level = 1; level <= nestingDepth; level++) { sb.append('}'); }
+
+		sb.append('}');
+		return sb;
+	}
+
+	void appendFiller(StringBuilder sb, int fillerLength, Random random) {
+		for (int f = 0; f < fieldsPerObject; f++) {
+			sb.append(",\"field").append(f).append("\":\"");
+			for (int i = 0; i < fillerLength; i++) { sb.append((char) ('a' + random.nextInt(26))); }
+			sb.append('"');
+		}
+	}
+
+	static void appendBlank(StringBuilder sb, int width) {
+		for (int i = 0; i < width; i++) { sb.append(' '); }
+	}
+
+} // DocumentGenerator
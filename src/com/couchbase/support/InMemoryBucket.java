@@ -0,0 +1,528 @@
+// InMemoryBucket
+//
+// A local stand-in for a cluster bucket, so the timing programs can run without a cluster: on a
+// laptop, in CI, or to find out how fast the harness itself can go.  getBucket() returns a Bucket
+// that supports what the timers use:
+//
+//   insert / upsert / replace / get / remove of JsonDocuments and RawJsonDocuments, blocking and through async()
+//   query(ViewQuery), blocking and through async(), see InMemoryViewIndex for the parameters
+//   bucketManager(): insert / upsert / get / remove of design documents
+//
+// Anything else throws UnsupportedOperationException.  Expiry, durability and timeouts are ignored.
+// Async operations run on a small pool of worker threads, as the SDK's run on its I/O threads, so
+// the caller is never blocked by them.
+//
+// Views are indexed incrementally, like the view engine does it: each mutation gets a sequence
+// number, and an index update maps only the documents changed since the previous update.  Updates
+// happen when a query asks for one, and in the background:
+//
+//   stale=false         update the index, then answer
+//   stale=ok            answer from the index as it is
+//   stale=update_after  answer from the index as it is, then start an update (the default, as on a cluster)
+//   every autoUpdateInterval ms, all indexes are brought up to date (0 turns this off)
+//
+// indexUpdateDelay is added to every update before its changes become visible, to model the time
+// the engine takes to notice and persist changes.  Map functions are run as JavaScript, see
+// ScriptedViewMapFunction, unless a Java ViewMapFunction was registered for the view.
+
+package com.couchbase.support;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Func0;
+import rx.schedulers.Schedulers;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.bucket.BucketManager;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.CASMismatchException;
+import com.couchbase.client.java.error.DesignDocumentAlreadyExistsException;
+import com.couchbase.client.java.error.DocumentAlreadyExistsException;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.client.java.view.AsyncViewResult;
+import com.couchbase.client.java.view.AsyncViewRow;
+import com.couchbase.client.java.view.DefaultAsyncViewResult;
+import com.couchbase.client.java.view.DefaultAsyncViewRow;
+import com.couchbase.client.java.view.DesignDocument;
+import com.couchbase.client.java.view.View;
+import com.couchbase.client.java.view.ViewQuery;
+import com.couchbase.client.java.view.ViewResult;
+import com.couchbase.client.java.view.ViewRow;
+
+class InMemoryBucket {
+
+	static final long DEFAULTAUTOUPDATEINTERVAL = 5000;	// ms, the view engine's default updateInterval
+
+	enum Mutation { INSERT, UPSERT, REPLACE }
+
+	static class StoredDocument {
+		final String json;
+		final long   cas;
+
+		StoredDocument(String j, long c) { json = j; cas = c; }
+	}
+
+	String bucketName;
+	long   indexUpdateDelay;		// ms
+	long   autoUpdateInterval;		// ms, 0 for no background updates
+
+	ConcurrentHashMap<String, StoredDocument> documents;
+	TreeMap<Long, String>                      changes;			// seqno of the latest mutation of each document -> id, guarded by itself
+	Map<String, Long>                          latestSeqnos;	// id -> its key in changes, guarded by changes
+	long                                       lastSeqno;		// guarded by changes
+	AtomicLong                                 casCounter;
+
+	Map<String, DesignDocument>     designDocuments;
+	Map<String, InMemoryViewIndex>  indexes;					// "designDoc/view"
+	Map<String, ViewMapFunction>    registeredMapFunctions;	// "designDoc/view"
+
+	ScheduledExecutorService indexer;
+	ExecutorService          asyncWorkers;
+	Scheduler                asyncScheduler;
+
+	Bucket        bucket;
+	AsyncBucket   asyncBucket;
+	BucketManager bucketManager;
+
+	public InMemoryBucket(String name, long updateDelay, long updateInterval) {
+		bucketName             = name;
+		indexUpdateDelay       = updateDelay;
+		autoUpdateInterval     = updateInterval;
+		documents              = new ConcurrentHashMap<String, StoredDocument>();
+		changes                = new TreeMap<Long, String>();
+		latestSeqnos           = new HashMap<String, Long>();
+		lastSeqno              = 0;
+		casCounter             = new AtomicLong(System.currentTimeMillis() << 16);
+		designDocuments        = new ConcurrentHashMap<String, DesignDocument>();
+		indexes                = new ConcurrentHashMap<String, InMemoryViewIndex>();
+		registeredMapFunctions = new ConcurrentHashMap<String, ViewMapFunction>();
+
+		indexer = Executors.newSingleThreadScheduledExecutor(daemonThreads("InMemoryBucket-indexer-"));
+		asyncWorkers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), daemonThreads("InMemoryBucket-worker-"));
+		asyncScheduler = Schedulers.from(asyncWorkers);
+		if (autoUpdateInterval > 0) {
+			indexer.scheduleWithFixedDelay(new Runnable() {
+				public void run() { updateAllIndexes(); }
+			}, autoUpdateInterval, autoUpdateInterval, TimeUnit.MILLISECONDS);
+		}
+
+		bucket = (Bucket) Proxy.newProxyInstance(Bucket.class.getClassLoader(),
+				new Class<?>[] { Bucket.class }, new BucketHandler());
+		asyncBucket = (AsyncBucket) Proxy.newProxyInstance(AsyncBucket.class.getClassLoader(),
+				new Class<?>[] { AsyncBucket.class }, new AsyncBucketHandler());
+		bucketManager = (BucketManager) Proxy.newProxyInstance(BucketManager.class.getClassLoader(),
+				new Class<?>[] { BucketManager.class }, new BucketManagerHandler());
+	}
+
+	public InMemoryBucket(String name) {
+		this(name, 0, DEFAULTAUTOUPDATEINTERVAL);
+	}
+
+	public Bucket getBucket() { return bucket; }
+
+	public int getDocumentCount() { return documents.size(); }
+
+	public long getLastSeqno() {
+		synchronized (changes) { return lastSeqno; }
+	}
+
+	// Used instead of the view's JavaScript, for example where no JavaScript engine is available.
+	// Register before the design document is created.
+	public void registerMapFunction(String designDocName, String viewName, ViewMapFunction mapFunction) {
+		registeredMapFunctions.put(designDocName + "/" + viewName, mapFunction);
+	}
+
+	public InMemoryViewIndex getIndex(String designDocName, String viewName) {
+		return indexes.get(designDocName + "/" + viewName);
+	}
+
+	public void close() {
+		indexer.shutdownNow();
+		asyncWorkers.shutdownNow();
+	}
+
+	ThreadFactory daemonThreads(final String namePrefix) {
+		return new ThreadFactory() {
+			int count = 0;
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, namePrefix + bucketName + "-" + (count++));
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	// ---- Key/value
+
+	// Returns the document with its new CAS, as the same class it was passed in as
+	Document<?> store(Document<?> document, Mutation mutation) {
+
+		String id = document.id();
+		String json = jsonContent(document);
+
+		synchronized (changes) {
+			StoredDocument existing = documents.get(id);
+			if ((mutation == Mutation.INSERT) && (existing != null)) {
+				throw new DocumentAlreadyExistsException();
+			}
+			if (mutation == Mutation.REPLACE) {
+				if (existing == null) { throw new DocumentDoesNotExistException(); }
+				if ((document.cas() != 0) && (document.cas() != existing.cas)) { throw new CASMismatchException(); }
+			}
+
+			StoredDocument stored = new StoredDocument(json, casCounter.incrementAndGet());
+			documents.put(id, stored);
+			recordChange(id);
+
+			if (document instanceof RawJsonDocument) {
+				return RawJsonDocument.create(id, document.expiry(), json, stored.cas);
+			}
+			return JsonDocument.create(id, document.expiry(), ((JsonDocument) document).content(), stored.cas);
+		}
+	}
+
+	JsonDocument get(String id) {
+		StoredDocument stored = documents.get(id);
+		if (stored == null) { return null; }
+		return JsonDocument.create(id, 0, JsonObject.fromJson(stored.json), stored.cas);
+	}
+
+	// get(id, target) of the SDK, for JsonDocument and RawJsonDocument
+	Document<?> get(String id, Class<?> target) {
+		if ((target == null) || target.isAssignableFrom(JsonDocument.class)) { return get(id); }
+		if (!target.isAssignableFrom(RawJsonDocument.class)) {
+			throw new UnsupportedOperationException("InMemoryBucket only stores JSON documents, not " + target.getName());
+		}
+		StoredDocument stored = documents.get(id);
+		if (stored == null) { return null; }
+		return RawJsonDocument.create(id, 0, stored.json, stored.cas);
+	}
+
+	JsonDocument remove(String id, long cas) {
+		synchronized (changes) {
+			StoredDocument existing = documents.get(id);
+			if (existing == null) { throw new DocumentDoesNotExistException(); }
+			if ((cas != 0) && (cas != existing.cas)) { throw new CASMismatchException(); }
+			documents.remove(id);
+			recordChange(id);
+			return JsonDocument.create(id, 0, null, casCounter.incrementAndGet());
+		}
+	}
+
+	// Called holding changes.  Only the latest change of each document is kept, as in the engine's change feed.
+	void recordChange(String id) {
+		lastSeqno++;
+		Long previous = latestSeqnos.put(id, lastSeqno);
+		if (previous != null) { changes.remove(previous); }
+		changes.put(lastSeqno, id);
+	}
+
+	static String jsonContent(Document<?> document) {
+		if (document instanceof RawJsonDocument) {
+			String content = ((RawJsonDocument) document).content();
+			return (content == null) ? "{}" : content;
+		}
+		if (document instanceof JsonDocument) {
+			JsonObject content = ((JsonDocument) document).content();
+			return (content == null) ? "{}" : content.toString();
+		}
+		throw new UnsupportedOperationException("InMemoryBucket only stores JSON documents, not " + document.getClass().getName());
+	}
+
+	// ---- Views
+
+	// Brings one index up to date with every mutation made so far
+	void updateIndex(InMemoryViewIndex index) {
+
+		synchronized (index.updateMonitor) {
+
+			if (indexUpdateDelay > 0) {
+				try {
+					Thread.sleep(indexUpdateDelay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+
+			// Snapshot the changed documents; the mapping happens outside the lock
+			Map<String, String> changedDocuments = new LinkedHashMap<String, String>();
+			long upToSeqno;
+			synchronized (changes) {
+				upToSeqno = lastSeqno;
+				for (String id : changes.tailMap(index.getIndexedSeqno(), false).values()) {
+					StoredDocument stored = documents.get(id);
+					changedDocuments.put(id, (stored == null) ? null : stored.json);
+				}
+			}
+
+			if (upToSeqno > index.getIndexedSeqno()) {
+				index.applyChanges(changedDocuments, upToSeqno);
+			}
+		}
+	}
+
+	void updateAllIndexes() {
+		for (InMemoryViewIndex index : indexes.values()) {
+			updateIndex(index);
+		}
+	}
+
+	void updateIndexLater(final InMemoryViewIndex index) {
+		if (indexer.isShutdown()) { return; }
+		indexer.execute(new Runnable() {
+			public void run() { updateIndex(index); }
+		});
+	}
+
+	InMemoryViewIndex.Result query(ViewQuery query) {
+
+		InMemoryViewIndex index = indexes.get(query.getDesign() + "/" + query.getView());
+		if (index == null) {
+			InMemoryViewIndex.Result notFound = new InMemoryViewIndex.Result();
+			notFound.error = JsonObject.create().put("error", "not_found").put("reason", "missing");
+			return notFound;
+		}
+
+		Map<String, String> params = InMemoryViewIndex.parseParameters(query);
+		String stale = params.containsKey("stale") ? params.get("stale") : "update_after";
+
+		if (stale.equals("false")) { updateIndex(index); }
+
+		InMemoryViewIndex.Result result = index.query(params);
+
+		boolean staleUpdateAfter = stale.equals("update_after");
+
+		if (staleUpdateAfter) { updateIndexLater(index); }
+
+		return result;
+	}
+
+	void putDesignDocument(DesignDocument designDocument, boolean failIfExists) {
+
+		String name = designDocument.name();
+
+		synchronized (designDocuments) {
+			if (failIfExists && designDocuments.containsKey(name)) {
+				throw new DesignDocumentAlreadyExistsException();
+			}
+
+			// Build all views first, so that a bad map function leaves the old design document in place
+			Map<String, InMemoryViewIndex> newIndexes = new HashMap<String, InMemoryViewIndex>();
+			for (View view : designDocument.views()) {
+				String indexName = name + "/" + view.name();
+				ViewMapFunction mapFunction = registeredMapFunctions.get(indexName);
+				if (mapFunction == null) {
+					try {
+						mapFunction = new ScriptedViewMapFunction(view.map());
+					} catch (Exception e) {
+						throw new IllegalArgumentException("Cannot compile the map function of " + indexName + ": " + e.getMessage(), e);
+					}
+				}
+				String reduce = view.hasReduce() ? view.reduce().trim() : null;
+				newIndexes.put(indexName, new InMemoryViewIndex(name, view.name(), mapFunction, reduce));
+			}
+
+			removeIndexes(name);
+			indexes.putAll(newIndexes);
+			designDocuments.put(name, designDocument);
+		}
+	}
+
+	boolean removeDesignDocument(String name) {
+		synchronized (designDocuments) {
+			removeIndexes(name);
+			return (designDocuments.remove(name) != null);
+		}
+	}
+
+	void removeIndexes(String designDocName) {
+		Iterator<String> names = indexes.keySet().iterator();
+		while (names.hasNext()) {
+			if (names.next().startsWith(designDocName + "/")) { names.remove(); }
+		}
+	}
+
+	// ---- SDK interfaces
+
+	static UnsupportedOperationException unsupported(Method method) {
+		return new UnsupportedOperationException("InMemoryBucket does not implement " + method.getName());
+	}
+
+	// toString, hashCode and equals of the proxies
+	static Object objectMethod(String what, Object proxy, Method method, Object[] args) {
+		String m = method.getName();
+		if (m.equals("toString")) { return what; }
+		if (m.equals("hashCode")) { return System.identityHashCode(proxy); }
+		if (m.equals("equals"))   { return (proxy == args[0]); }
+		throw unsupported(method);
+	}
+
+	// The key of a get or remove: either the id or a Document
+	static String idArgument(Object argument) {
+		return (argument instanceof Document) ? ((Document<?>) argument).id() : (String) argument;
+	}
+
+	// The document class a get asks for: get(id, Class) or get(Document)
+	static Class<?> targetArgument(Object[] args) {
+		if (args[0] instanceof Document) { return args[0].getClass(); }
+		return ((args.length > 1) && (args[1] instanceof Class)) ? (Class<?>) args[1] : null;
+	}
+
+	static long casArgument(Object argument) {
+		return (argument instanceof Document) ? ((Document<?>) argument).cas() : 0;
+	}
+
+	static Mutation mutationFor(String methodName) {
+		if (methodName.equals("insert")) { return Mutation.INSERT; }
+		if (methodName.equals("upsert")) { return Mutation.UPSERT; }
+		if (methodName.equals("replace")) { return Mutation.REPLACE; }
+		return null;
+	}
+
+	static boolean isViewQuery(Object[] args) {
+		return (args != null) && (args.length > 0) && (args[0] instanceof ViewQuery);
+	}
+
+	class BucketHandler implements InvocationHandler {
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String m = method.getName();
+
+			if (mutationFor(m) != null) { return store((Document<?>) args[0], mutationFor(m)); }
+			if (m.equals("get"))        { return get(idArgument(args[0]), targetArgument(args)); }
+			if (m.equals("remove"))     { return remove(idArgument(args[0]), casArgument(args[0])); }
+			if (m.equals("query") && isViewQuery(args)) {
+				return new InMemoryViewResult(query((ViewQuery) args[0]));
+			}
+			if (m.equals("bucketManager")) { return bucketManager; }
+			if (m.equals("async"))         { return asyncBucket; }
+			if (m.equals("name"))          { return bucketName; }
+			if (m.equals("close"))         { close(); return Boolean.TRUE; }
+
+			return objectMethod("InMemoryBucket " + bucketName, proxy, method, args);
+		}
+	}
+
+	// Operations run when subscribed to, as the SDK's do
+	class AsyncBucketHandler implements InvocationHandler {
+		public Object invoke(Object proxy, final Method method, final Object[] args) {
+			final String m = method.getName();
+
+			if ((mutationFor(m) != null) || m.equals("get") || m.equals("remove") || (m.equals("query") && isViewQuery(args))) {
+				return Observable.defer(new Func0<Observable<Object>>() {
+					public Observable<Object> call() {
+						try {
+							if (mutationFor(m) != null) { return Observable.<Object>just(store((Document<?>) args[0], mutationFor(m))); }
+							if (m.equals("remove"))     { return Observable.<Object>just(remove(idArgument(args[0]), casArgument(args[0]))); }
+							if (m.equals("get")) {
+								Document<?> d = get(idArgument(args[0]), targetArgument(args));
+								return (d == null) ? Observable.empty() : Observable.<Object>just(d);
+							}
+							return Observable.<Object>just(asyncViewResult(query((ViewQuery) args[0])));
+						} catch (RuntimeException e) {
+							return Observable.error(e);
+						}
+					}
+				}).subscribeOn(asyncScheduler);
+			}
+			if (m.equals("name")) { return bucketName; }
+
+			return objectMethod("InMemoryBucket " + bucketName + " (async)", proxy, method, args);
+		}
+	}
+
+	class BucketManagerHandler implements InvocationHandler {
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String m = method.getName();
+
+			if (m.equals("insertDesignDocument")) { putDesignDocument((DesignDocument) args[0], true); return args[0]; }
+			if (m.equals("upsertDesignDocument")) { putDesignDocument((DesignDocument) args[0], false); return args[0]; }
+			if (m.equals("getDesignDocument"))    { return designDocuments.get((String) args[0]); }
+			if (m.equals("getDesignDocuments"))   { return new ArrayList<DesignDocument>(designDocuments.values()); }
+			if (m.equals("removeDesignDocument")) { return removeDesignDocument((String) args[0]); }
+			if (m.equals("publishDesignDocument")) { return designDocuments.get((String) args[0]); }
+
+			return objectMethod("InMemoryBucket " + bucketName + " manager", proxy, method, args);
+		}
+	}
+
+	AsyncViewResult asyncViewResult(InMemoryViewIndex.Result result) {
+		List<AsyncViewRow> rows = new ArrayList<AsyncViewRow>(result.rows.size());
+		for (InMemoryViewIndex.Row row : result.rows) {
+			rows.add(new DefaultAsyncViewRow(asyncBucket, row.id, row.key, row.value));
+		}
+		Observable<JsonObject> error = (result.error == null) ? Observable.<JsonObject>empty() : Observable.just(result.error);
+		return new DefaultAsyncViewResult(Observable.from(rows), result.totalRows, (result.error == null), error, null);
+	}
+
+	// DefaultViewRow needs a CouchbaseEnvironment, so the blocking rows are this instead
+	class InMemoryViewRow implements ViewRow {
+
+		InMemoryViewIndex.Row row;
+
+		InMemoryViewRow(InMemoryViewIndex.Row r) { row = r; }
+
+		public String id()    { return row.id; }
+		public Object key()   { return row.key; }
+		public Object value() { return row.value; }
+
+		public JsonDocument document()                            { return (row.id == null) ? null : get(row.id); }
+		public JsonDocument document(long timeout, TimeUnit unit) { return document(); }
+
+		public <D extends Document<?>> D document(Class<D> target) {
+			return (row.id == null) ? null : target.cast(get(row.id, target));
+		}
+
+		public <D extends Document<?>> D document(Class<D> target, long timeout, TimeUnit unit) { return document(target); }
+
+		public String toString() {
+			return "ViewRow{id=" + row.id + ", key=" + row.key + ", value=" + row.value + "}";
+		}
+	}
+
+	class InMemoryViewResult implements ViewResult {
+
+		InMemoryViewIndex.Result result;
+		List<ViewRow>            rows;
+
+		InMemoryViewResult(InMemoryViewIndex.Result r) {
+			result = r;
+			rows   = new ArrayList<ViewRow>(r.rows.size());
+			for (InMemoryViewIndex.Row row : r.rows) { rows.add(new InMemoryViewRow(row)); }
+		}
+
+		public List<ViewRow> allRows()                             { return rows; }
+		public List<ViewRow> allRows(long timeout, TimeUnit unit)  { return rows; }
+		public Iterator<ViewRow> rows()                            { return rows.iterator(); }
+		public Iterator<ViewRow> rows(long timeout, TimeUnit unit) { return rows.iterator(); }
+		public Iterator<ViewRow> iterator()                        { return rows.iterator(); }
+		public int totalRows()                                     { return result.totalRows; }
+		public boolean success()                                   { return (result.error == null); }
+		public JsonObject error()                                  { return result.error; }
+		public JsonObject error(long timeout, TimeUnit unit)       { return result.error; }
+		public JsonObject debug()                                  { return null; }
+	}
+
+} // InMemoryBucket
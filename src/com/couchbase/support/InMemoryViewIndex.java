@@ -0,0 +1,334 @@
+// InMemoryViewIndex
+//
+// One view of an InMemoryBucket: the rows its map function emitted, sorted by key and then document
+// id, and kept up to date incrementally.  Each update maps only the documents that changed since
+// the last one, after removing the rows those documents emitted before.
+//
+// Queries support key, keys, startkey/endkey (+ _docid), inclusive_end, descending, skip and limit.
+// The built-in reduce functions _count, _sum and _stats are supported, with group and group_level;
+// JavaScript reduce functions are not, so a view that has one can only be queried with reduce=false.
+
+package com.couchbase.support;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.ViewQuery;
+
+class InMemoryViewIndex {
+
+	// Position of one emitted row.  Bounds used for range queries have a null docId or an ordinal of
+	// LOWERBOUND / UPPERBOUND, so that they sort before or after every row with the same key.
+	static class IndexKey {
+		static final int LOWERBOUND = -1;
+		static final int UPPERBOUND = Integer.MAX_VALUE;
+
+		final Object key;
+		final String docId;
+		final int    ordinal;	// the n-th emit of the document, rows may share key and id
+
+		IndexKey(Object k, String id, int n) { key = k; docId = id; ordinal = n; }
+	}
+
+	static final Comparator<IndexKey> INDEXORDER = new Comparator<IndexKey>() {
+		public int compare(IndexKey a, IndexKey b) {
+			int c = ViewCollation.INSTANCE.compare(a.key, b.key);
+			if (c != 0) { return c; }
+			if (a.docId == null) {
+				return (b.docId == null) ? Integer.compare(a.ordinal, b.ordinal) : ((a.ordinal < 0) ? -1 : 1);
+			}
+			if (b.docId == null) { return (b.ordinal < 0) ? 1 : -1; }
+			c = a.docId.compareTo(b.docId);
+			return (c != 0) ? c : Integer.compare(a.ordinal, b.ordinal);
+		}
+	};
+
+	// One row of a query result.  id is null for reduced rows.
+	static class Row {
+		final String id;
+		final Object key;
+		final Object value;
+
+		Row(String i, Object k, Object v) { id = i; key = k; value = v; }
+	}
+
+	static class Result {
+		List<Row>  rows      = new ArrayList<Row>();
+		int        totalRows = 0;
+		JsonObject error     = null;
+	}
+
+	String          designDocName;
+	String          viewName;
+	ViewMapFunction mapFunction;
+	String          reduceFunction;		// null for a map-only view
+
+	TreeMap<IndexKey, Object>     entries;
+	Map<String, List<IndexKey>>   rowsByDocument;
+	long                          indexedSeqno;	// changes up to this sequence number are in the index
+	int                           updateCount;
+	int                           mapErrorCount;
+	Object                        updateMonitor;	// held for the whole of an update, so only one runs at a time
+	ReentrantReadWriteLock        lock;				// guards entries and rowsByDocument
+
+	public InMemoryViewIndex(String dn, String vn, ViewMapFunction map, String reduce) {
+		designDocName  = dn;
+		viewName       = vn;
+		mapFunction    = map;
+		reduceFunction = reduce;
+		entries        = new TreeMap<IndexKey, Object>(INDEXORDER);
+		rowsByDocument = new HashMap<String, List<IndexKey>>();
+		indexedSeqno   = 0;
+		updateCount    = 0;
+		mapErrorCount  = 0;
+		updateMonitor  = new Object();
+		lock           = new ReentrantReadWriteLock();
+	}
+
+	public long getIndexedSeqno()  { return indexedSeqno; }
+	public int  getUpdateCount()   { return updateCount; }
+	public int  getMapErrorCount() { return mapErrorCount; }
+
+	public int getRowCount() {
+		lock.readLock().lock();
+		try { return entries.size(); } finally { lock.readLock().unlock(); }
+	}
+
+	// changedDocuments maps each document id changed since indexedSeqno to its JSON, or null if it was
+	// deleted.  The documents are mapped before the lock is taken, so queries only wait for the swap.
+	void applyChanges(Map<String, String> changedDocuments, long upToSeqno) {
+
+		final Map<String, List<Object[]>> emittedByDocument = new HashMap<String, List<Object[]>>();
+
+		for (Map.Entry<String, String> change : changedDocuments.entrySet()) {
+			final List<Object[]> emitted = new ArrayList<Object[]>();
+			if (change.getValue() != null) {
+				try {
+					mapFunction.map(change.getKey(), JsonObject.fromJson(change.getValue()), new ViewMapFunction.Emitter() {
+						public void emit(Object key, Object value) { emitted.add(new Object[] { key, value }); }
+					});
+				} catch (Exception e) {
+					// Like the view engine, a document the map function fails on is left out of the index
+					mapErrorCount++;
+					emitted.clear();
+				}
+			}
+			emittedByDocument.put(change.getKey(), emitted);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (Map.Entry<String, List<Object[]>> document : emittedByDocument.entrySet()) {
+				String id = document.getKey();
+
+				List<IndexKey> previous = rowsByDocument.remove(id);
+				if (previous != null) {
+					for (IndexKey ik : previous) { entries.remove(ik); }
+				}
+
+				List<Object[]> emitted = document.getValue();
+				if (emitted.isEmpty()) { continue; }
+
+				List<IndexKey> current = new ArrayList<IndexKey>(emitted.size());
+				for (int n = 0; n < emitted.size(); n++) {
+					IndexKey ik = new IndexKey(emitted.get(n)[0], id, n);
+					entries.put(ik, emitted.get(n)[1]);
+					current.add(ik);
+				}
+				rowsByDocument.put(id, current);
+			}
+			indexedSeqno = upToSeqno;
+			updateCount++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// params are the query's parameters, see parseParameters()
+	public Result query(Map<String, String> params) {
+
+		Result result = new Result();
+
+		boolean descending   = "true".equals(params.get("descending"));
+		boolean inclusiveEnd = !"false".equals(params.get("inclusive_end"));
+		int     skip         = params.containsKey("skip") ? Integer.parseInt(params.get("skip")) : 0;
+		int     limit        = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : Integer.MAX_VALUE;
+		boolean reduce       = (reduceFunction != null) && !"false".equals(params.get("reduce"));
+		boolean group        = "true".equals(params.get("group"));
+		int     groupLevel   = params.containsKey("group_level") ? Integer.parseInt(params.get("group_level")) : 0;
+
+		if (reduce && !reduceFunction.startsWith("_")) {
+			result.error = JsonObject.create().put("error", "query_parse_error")
+					.put("reason", "InMemoryBucket only supports the built-in reduce functions, query " + viewName + " with reduce=false");
+			return result;
+		}
+		if ((group || (groupLevel > 0)) && !reduce) {
+			result.error = JsonObject.create().put("error", "query_parse_error")
+					.put("reason", "Invalid URL parameter 'group' or 'group_level' for non-reduce view.");
+			return result;
+		}
+
+		List<Row> matched = new ArrayList<Row>();
+
+		lock.readLock().lock();
+		try {
+			result.totalRows = entries.size();
+
+			if (params.containsKey("keys") || params.containsKey("key")) {
+				JsonArray keys = params.containsKey("keys") ? JsonArray.fromJson(params.get("keys"))
+						: JsonArray.from(parseJsonValue(params.get("key")));
+				for (int i = 0; i < keys.size(); i++) {
+					NavigableMap<IndexKey, Object> sameKey = entries.subMap(
+							new IndexKey(keys.get(i), null, IndexKey.LOWERBOUND), true,
+							new IndexKey(keys.get(i), null, IndexKey.UPPERBOUND), true);
+					addRows(descending ? sameKey.descendingMap() : sameKey, matched);
+				}
+			}
+			else {
+				addRows(range(params, descending, inclusiveEnd), matched);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		// An explicit group_level wins over group=true, which groups by the whole key
+		if (group && !params.containsKey("group_level")) { groupLevel = Integer.MAX_VALUE; }
+		List<Row> rows = reduce ? reduceRows(matched, groupLevel) : matched;
+
+		for (int i = skip; (i < rows.size()) && (result.rows.size() < limit); i++) {
+			result.rows.add(rows.get(i));
+		}
+
+		if (reduce) { result.totalRows = 0; }
+		return result;
+	}
+
+	// Rows between startkey and endkey, in query order.  Called with the read lock held.
+	NavigableMap<IndexKey, Object> range(Map<String, String> params, boolean descending, boolean inclusiveEnd) {
+
+		Object startKey   = params.containsKey("startkey") ? parseJsonValue(params.get("startkey")) : null;
+		Object endKey     = params.containsKey("endkey") ? parseJsonValue(params.get("endkey")) : null;
+		String startDocId = params.get("startkey_docid");
+		String endDocId   = params.get("endkey_docid");
+
+		// Seen from the low end of the index; a descending query starts at the high end
+		IndexKey low = null;
+		IndexKey high = null;
+		if (!descending) {
+			if (params.containsKey("startkey")) { low = new IndexKey(startKey, startDocId, IndexKey.LOWERBOUND); }
+			if (params.containsKey("endkey")) { high = new IndexKey(endKey, endDocId, inclusiveEnd ? IndexKey.UPPERBOUND : IndexKey.LOWERBOUND); }
+		}
+		else {
+			if (params.containsKey("startkey")) { high = new IndexKey(startKey, startDocId, IndexKey.UPPERBOUND); }
+			if (params.containsKey("endkey")) { low = new IndexKey(endKey, endDocId, inclusiveEnd ? IndexKey.LOWERBOUND : IndexKey.UPPERBOUND); }
+		}
+
+		if ((low != null) && (high != null) && (INDEXORDER.compare(low, high) > 0)) {
+			return new TreeMap<IndexKey, Object>(INDEXORDER);
+		}
+
+		NavigableMap<IndexKey, Object> selected = entries;
+		if (low != null)  { selected = selected.tailMap(low, true); }
+		if (high != null) { selected = selected.headMap(high, true); }
+
+		return descending ? selected.descendingMap() : selected;
+	}
+
+	static void addRows(NavigableMap<IndexKey, Object> selected, List<Row> rows) {
+		for (Map.Entry<IndexKey, Object> e : selected.entrySet()) {
+			rows.add(new Row(e.getKey().docId, e.getKey().key, e.getValue()));
+		}
+	}
+
+	// groupLevel 0 reduces everything to one row, Integer.MAX_VALUE groups by the whole key
+	List<Row> reduceRows(List<Row> matched, int groupLevel) {
+
+		List<Row> reduced = new ArrayList<Row>();
+		if (matched.isEmpty()) { return reduced; }
+
+		Object groupKey = null;
+		List<Object> groupValues = new ArrayList<Object>();
+
+		for (Row row : matched) {
+			Object rowGroupKey = groupKey(row.key, groupLevel);
+			if (!groupValues.isEmpty() && (ViewCollation.INSTANCE.compare(groupKey, rowGroupKey) != 0)) {
+				reduced.add(new Row(null, groupKey, reduceValues(groupValues)));
+				groupValues.clear();
+			}
+			groupKey = rowGroupKey;
+			groupValues.add(row.value);
+		}
+		reduced.add(new Row(null, groupKey, reduceValues(groupValues)));
+
+		return reduced;
+	}
+
+	static Object groupKey(Object key, int groupLevel) {
+		if (groupLevel == 0) { return null; }
+		if ((groupLevel == Integer.MAX_VALUE) || !(key instanceof JsonArray)) { return key; }
+		JsonArray array = (JsonArray) key;
+		if (array.size() <= groupLevel) { return array; }
+		return JsonArray.from(array.toList().subList(0, groupLevel));
+	}
+
+	Object reduceValues(List<Object> values) {
+
+		if (reduceFunction.equals("_count")) { return (long) values.size(); }
+
+		boolean integral = true;
+		double  sum = 0, sumsqr = 0;
+		double  min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+
+		for (Object v : values) {
+			if (!(v instanceof Number)) { continue; }	// the engine would fail the query; here non-numbers are skipped
+			double d = ((Number) v).doubleValue();
+			if ((v instanceof Double) || (v instanceof Float)) { integral = false; }
+			sum += d;
+			sumsqr += d * d;
+			if (d < min) { min = d; }
+			if (d > max) { max = d; }
+		}
+
+		if (reduceFunction.equals("_sum")) {
+			return integral ? (Object) (long) sum : (Object) sum;
+		}
+		if (reduceFunction.equals("_stats")) {
+			return JsonObject.create().put("sum", sum).put("count", (long) values.size())
+					.put("min", values.isEmpty() ? 0 : min).put("max", values.isEmpty() ? 0 : max).put("sumsqr", sumsqr);
+		}
+
+		throw new IllegalStateException("Unknown built-in reduce function " + reduceFunction);
+	}
+
+	// ViewQuery has no getters for its parameters, so they are read back from its query string
+	static Map<String, String> parseParameters(ViewQuery query) {
+		Map<String, String> params = new HashMap<String, String>();
+		String queryString = query.toString();
+		if (queryString.isEmpty()) { return params; }
+		try {
+			for (String pair : queryString.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq < 0) { continue; }
+				params.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return params;
+	}
+
+	static Object parseJsonValue(String json) {
+		return JsonArray.fromJson("[" + json + "]").get(0);
+	}
+
+} // InMemoryViewIndex
@@ -0,0 +1,21 @@
+// LoadOperation
+//
+// One kind of request a load driver can issue through the async API, such as a get of a random
+// test document or a view query.  LoadOperations has the built-in ones.
+
+package com.couchbase.support;
+
+import rx.Observable;
+
+import com.couchbase.client.java.AsyncBucket;
+
+interface LoadOperation {
+
+	// Short name for reports, like "get" or "viewQuery"
+	String name();
+
+	// Starts request number sequence (0, 1, 2 ... per driver).  The request is complete when the
+	// returned Observable completes, and has failed when it errors.  Must not block.
+	Observable<?> issue(AsyncBucket bucket, long sequence);
+
+} // LoadOperation
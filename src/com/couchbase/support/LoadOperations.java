@@ -0,0 +1,109 @@
+// LoadOperations
+//
+// The built-in LoadOperations, over the test documents the loaders create (testDocument0 .. n-1).
+// Which document an operation touches is chosen at random, so repeated runs do not all hit the
+// same few documents.
+
+package com.couchbase.support;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import rx.Observable;
+import rx.functions.Func1;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.view.AsyncViewResult;
+import com.couchbase.client.java.view.AsyncViewRow;
+import com.couchbase.client.java.view.Stale;
+import com.couchbase.client.java.view.ViewQuery;
+
+class LoadOperations {
+
+	// Get of one of testDocument0 .. numDocuments-1
+	static LoadOperation get(final int numDocuments) {
+		return new LoadOperation() {
+			public String name() { return "get"; }
+			public Observable<?> issue(AsyncBucket bucket, long sequence) {
+				return bucket.get(randomDocumentId(numDocuments));
+			}
+		};
+	}
+
+	// Upsert of one of testDocument0 .. numDocuments-1, with a fresh creationDate
+	static LoadOperation upsert(final int numDocuments, final DocumentGenerator generator) {
+		return new LoadOperation() {
+			public String name() { return "upsert"; }
+			public Observable<?> issue(AsyncBucket bucket, long sequence) {
+				int serialNumber = ThreadLocalRandom.current().nextInt(numDocuments);
+				return bucket.upsert(generator.create(serialNumber, System.currentTimeMillis()));
+			}
+		};
+	}
+
+	// Insert of new documents, numbered from firstSerialNumber on, so they do not collide with the loaded ones
+	static LoadOperation insert(final int firstSerialNumber, final DocumentGenerator generator) {
+		return new LoadOperation() {
+			public String name() { return "insert"; }
+			public Observable<?> issue(AsyncBucket bucket, long sequence) {
+				return bucket.insert(generator.create((int) (firstSerialNumber + sequence), System.currentTimeMillis()));
+			}
+		};
+	}
+
+	// Remove of the documents insert(firstSerialNumber, ...) creates, oldest first, so the loaded ones
+	// stay in place.  A remove that gets ahead of the inserts fails with DocumentDoesNotExistException.
+	static LoadOperation remove(final int firstSerialNumber) {
+		return new LoadOperation() {
+			public String name() { return "remove"; }
+			public Observable<?> issue(AsyncBucket bucket, long sequence) {
+				return bucket.remove(DocumentGenerator.DOCUMENTNAMEPREFIX + (firstSerialNumber + sequence));
+			}
+		};
+	}
+
+	// The whole view, as CBFullViewQueryTimer queries it.  Complete once every row has arrived.
+	static LoadOperation fullViewQuery(final String designDocName, final String viewName, final Stale stale) {
+		return new LoadOperation() {
+			public String name() { return "fullViewQuery"; }
+			public Observable<?> issue(AsyncBucket bucket, long sequence) {
+				return allRows(bucket.query(ViewQuery.from(designDocName, viewName).stale(stale)));
+			}
+		};
+	}
+
+	// A view query for keysPerQuery random document ids (the key is meta.id, as in the programs'
+	// map functions).  Complete once every row has arrived.
+	static LoadOperation viewKeysQuery(final String designDocName, final String viewName, final Stale stale,
+			final int numDocuments, final int keysPerQuery) {
+		return new LoadOperation() {
+			public String name() { return "viewQuery"; }
+			public Observable<?> issue(AsyncBucket bucket, long sequence) {
+				JsonArray keys = JsonArray.create();
+				for (int i = 0; i < keysPerQuery; i++) { keys.add(randomDocumentId(numDocuments)); }
+				return allRows(bucket.query(ViewQuery.from(designDocName, viewName).stale(stale).keys(keys)));
+			}
+		};
+	}
+
+	// The first limit rows of the view.  Complete once every row has arrived.
+	static LoadOperation viewRangeQuery(final String designDocName, final String viewName, final Stale stale, final int limit) {
+		return new LoadOperation() {
+			public String name() { return "viewRangeQuery"; }
+			public Observable<?> issue(AsyncBucket bucket, long sequence) {
+				return allRows(bucket.query(ViewQuery.from(designDocName, viewName).stale(stale).limit(limit)));
+			}
+		};
+	}
+
+	static Observable<AsyncViewRow> allRows(Observable<AsyncViewResult> result) {
+		return result.flatMap(new Func1<AsyncViewResult, Observable<AsyncViewRow>>() {
+			public Observable<AsyncViewRow> call(AsyncViewResult r) { return r.rows(); }
+		});
+	}
+
+	static String randomDocumentId(int numDocuments) {
+		return DocumentGenerator.DOCUMENTNAMEPREFIX + ThreadLocalRandom.current().nextInt(numDocuments);
+	}
+
+} // LoadOperations
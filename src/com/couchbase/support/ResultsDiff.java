@@ -0,0 +1,133 @@
+// ResultsDiff
+//
+// Compares the results.json of two runs written by ResultsSink, for example before and after a
+// cluster upgrade, phase by phase and metric by metric, and flags the regressions:
+//
+//   java com.couchbase.support.ResultsDiff <baseline results.json> <candidate results.json> [threshold %]
+//
+// A phase's elapsed time or a metric's p50 / p99 latency that grew, or a metric's rate that fell,
+// by more than the threshold (10% by default) is a regression.  Latency differences under
+// MINIMUMDIFFMS are left out as noise.  Phases found in only one of the runs are listed.
+// The exit code is 1 when there is a regression, so a build can fail on it.
+
+package com.couchbase.support;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+
+public class ResultsDiff {
+
+	static final double DEFAULTTHRESHOLDPERCENT = 10.0;
+	static final double MINIMUMDIFFMS           = 1.0;
+
+	double thresholdPercent;
+	int    regressions;
+	int    improvements;
+
+	public ResultsDiff(double threshold) {
+		thresholdPercent = threshold;
+	}
+
+	public static void main(String[] args) {
+
+		if ((args.length < 2) || (args.length > 3)) {
+			System.out.println("Usage: ResultsDiff <baseline results.json> <candidate results.json> [threshold %]");
+			System.exit(2);
+		}
+
+		ResultsDiff diff = new ResultsDiff((args.length == 3) ? Double.parseDouble(args[2]) : DEFAULTTHRESHOLDPERCENT);
+
+		try {
+			diff.compare(read(args[0]), read(args[1]));
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(2);
+		}
+
+		System.out.println(diff.regressions + " regressions, " + diff.improvements + " improvements beyond " + diff.thresholdPercent + "%.");
+		System.exit((diff.regressions > 0) ? 1 : 0);
+	}
+
+	static JsonObject read(String path) throws IOException {
+		return JsonObject.fromJson(new String(Files.readAllBytes(Paths.get(path)), "UTF-8"));
+	}
+
+	public void compare(JsonObject baseline, JsonObject candidate) {
+
+		Map<String, JsonObject> basePhases      = phasesByName(baseline);
+		Map<String, JsonObject> candidatePhases = phasesByName(candidate);
+
+		System.out.println(String.format("%-50s %-22s %-10s %14s %14s %9s", "phase", "metric", "", baseline.getString("run"),
+				candidate.getString("run"), "change"));
+
+		for (Map.Entry<String, JsonObject> e : basePhases.entrySet()) {
+			String     phase = e.getKey();
+			JsonObject b     = e.getValue();
+			JsonObject c     = candidatePhases.get(phase);
+
+			if (c == null) { System.out.println(phase + ": only in " + baseline.getString("run")); continue; }
+			if (b.getBoolean("failed") || c.getBoolean("failed")) {
+				System.out.println(phase + ": failed in " + (b.getBoolean("failed") ? baseline.getString("run") : candidate.getString("run")));
+				continue;
+			}
+
+			compareValue(phase, "", "elapsedMs", b, c, false);
+
+			JsonObject baseMetrics      = b.getObject("metrics");
+			JsonObject candidateMetrics = c.getObject("metrics");
+			for (String metric : baseMetrics.getNames()) {
+				JsonObject bm = baseMetrics.getObject(metric);
+				JsonObject cm = candidateMetrics.getObject(metric);
+				if (cm == null) { continue; }
+				compareValue(phase, metric, "p50Ms", bm, cm, false);
+				compareValue(phase, metric, "p99Ms", bm, cm, false);
+				compareValue(phase, metric, "perSecond", bm, cm, true);
+			}
+		}
+
+		for (String phase : candidatePhases.keySet()) {
+			if (!basePhases.containsKey(phase)) { System.out.println(phase + ": only in " + candidate.getString("run")); }
+		}
+	}
+
+	// higherIsBetter for rates, lower is better for times
+	void compareValue(String phase, String metric, String field, JsonObject b, JsonObject c, boolean higherIsBetter) {
+
+		Object bv = b.get(field);
+		Object cv = c.get(field);
+		if (!(bv instanceof Number) || !(cv instanceof Number)) { return; }
+
+		double baseValue      = ((Number) bv).doubleValue();
+		double candidateValue = ((Number) cv).doubleValue();
+		if (baseValue == 0) { return; }
+
+		double changePercent = ((candidateValue - baseValue) * 100.0) / baseValue;
+		boolean worse  = higherIsBetter ? (changePercent < -thresholdPercent) : (changePercent > thresholdPercent);
+		boolean better = higherIsBetter ? (changePercent > thresholdPercent) : (changePercent < -thresholdPercent);
+		if (!higherIsBetter && (Math.abs(candidateValue - baseValue) < MINIMUMDIFFMS)) { worse = false; better = false; }
+
+		String flag = "";
+		if (worse)  { flag = "  REGRESSION"; regressions++; }
+		if (better) { flag = "  improved"; improvements++; }
+
+		System.out.println(String.format("%-50s %-22s %-10s %14.3f %14.3f %+8.1f%%%s", phase, metric, field, baseValue, candidateValue,
+				changePercent, flag));
+	}
+
+	static Map<String, JsonObject> phasesByName(JsonObject results) {
+		Map<String, JsonObject> byName = new LinkedHashMap<String, JsonObject>();
+		JsonArray phases = results.getArray("phases");
+		for (int i = 0; i < phases.size(); i++) {
+			JsonObject p = phases.getObject(i);
+			byName.put(p.getString("phase"), p);
+		}
+		return byName;
+	}
+
+} // ResultsDiff
@@ -0,0 +1,174 @@
+// ResultsSink
+//
+// Writes the result of every timer run to a directory, next to the console report, so runs can be
+// processed by other tools and compared with ResultsDiff:
+//
+//   results.csv    one row per phase and latency metric: elapsed time, count, rate and percentiles
+//   results.json   the same as one document, written when the sink is closed
+//   latency.hlog   every latency histogram in HdrHistogram's log format, tagged "phase/metric",
+//                  for HistogramLogProcessor and the HdrHistogram plotters
+//
+// A phase is one timer run, under a name the caller chooses; keep the names the same from run to
+// run so ResultsDiff can match them up.  The files are written by AsyncResultWriters, so
+// recordPhase() only formats and queues text.  Latencies are in ms.
+
+package com.couchbase.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+
+class ResultsSink {
+
+	static final String CSVHEADER = "run,phase,timer,metric,elapsedMs,failed,count,perSecond,p50Ms,p90Ms,p99Ms,p999Ms,maxMs";
+
+	String             runName;
+	Path               directory;
+	long               startTimeMillis;
+	AsyncResultWriter  csvWriter;
+	AsyncResultWriter  hlogWriter;
+	JsonArray          phases;
+
+	// The HdrHistogram log writer formats into this buffer, which is then handed to hlogWriter
+	ByteArrayOutputStream hlogBuffer;
+	HistogramLogWriter    histogramLogWriter;
+
+	public ResultsSink(Path dir, String name) throws IOException {
+		runName         = name;
+		directory       = dir;
+		startTimeMillis = System.currentTimeMillis();
+		phases          = JsonArray.create();
+
+		Files.createDirectories(dir);
+
+		csvWriter = new AsyncResultWriter(dir.resolve("results.csv"));
+		csvWriter.writeLine(CSVHEADER);
+
+		hlogWriter         = new AsyncResultWriter(dir.resolve("latency.hlog"));
+		hlogBuffer         = new ByteArrayOutputStream();
+		histogramLogWriter = new HistogramLogWriter(new PrintStream(hlogBuffer, false, "UTF-8"));
+		histogramLogWriter.outputComment("run " + name);
+		histogramLogWriter.outputLogFormatVersion();
+		histogramLogWriter.outputStartTime(startTimeMillis);
+		histogramLogWriter.setBaseTime(startTimeMillis);
+		histogramLogWriter.outputLegend();
+		flushHistogramLog();
+	}
+
+	public Path getDirectory() { return directory; }
+
+	public synchronized void recordPhase(String phase, TimingClass tc) {
+
+		double elapsedMs = tc.getElapsedNanos() / 1000000.0;
+		boolean failed   = tc.didExceptionOccur();
+
+		JsonObject metrics = JsonObject.create();
+		Map<String, Histogram> histograms = tc.getHistograms();
+
+		if (histograms.isEmpty()) {
+			csvWriter.writeLine(csvRow(phase, tc, "elapsed", elapsedMs, failed, null));
+		}
+
+		for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+			Histogram h = e.getValue();
+			csvWriter.writeLine(csvRow(phase, tc, e.getKey(), elapsedMs, failed, h));
+			metrics.put(e.getKey(), metricObject(h, tc.getElapsedNanos()));
+
+			if (h.getTotalCount() > 0) {
+				Histogram tagged = h.copy();
+				tagged.setTag(tag(phase + "/" + e.getKey()));
+				tagged.setStartTimeStamp(tc.startTime);
+				tagged.setEndTimeStamp(Math.max(tc.endTime, tc.startTime));
+				histogramLogWriter.outputIntervalHistogram(tagged);
+				flushHistogramLog();
+			}
+		}
+
+		phases.add(JsonObject.create()
+				.put("phase", phase)
+				.put("timer", tc.getClass().getSimpleName())
+				.put("elapsedMs", elapsedMs)
+				.put("failed", failed)
+				.put("metrics", metrics));
+	}
+
+	// Writes results.json and closes every file
+	public synchronized void close() throws IOException {
+		AsyncResultWriter jsonWriter = new AsyncResultWriter(directory.resolve("results.json"));
+		jsonWriter.write(JsonObject.create()
+				.put("run", runName)
+				.put("startTime", startTimeMillis)
+				.put("phases", phases).toString());
+		jsonWriter.close();
+		csvWriter.close();
+		hlogWriter.close();
+	}
+
+	static JsonObject metricObject(Histogram h, long elapsedNanos) {
+		JsonObject o = JsonObject.create().put("count", h.getTotalCount()).put("perSecond", perSecond(h.getTotalCount(), elapsedNanos));
+		if (h.getTotalCount() > 0) {
+			o.put("p50Ms",  millis(h.getValueAtPercentile(50.0)))
+			 .put("p90Ms",  millis(h.getValueAtPercentile(90.0)))
+			 .put("p99Ms",  millis(h.getValueAtPercentile(99.0)))
+			 .put("p999Ms", millis(h.getValueAtPercentile(99.9)))
+			 .put("maxMs",  millis(h.getMaxValue()));
+		}
+		return o;
+	}
+
+	String csvRow(String phase, TimingClass tc, String metric, double elapsedMs, boolean failed, Histogram h) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(csvField(runName)).append(',').append(csvField(phase)).append(',').append(tc.getClass().getSimpleName())
+		  .append(',').append(csvField(metric)).append(',').append(elapsedMs).append(',').append(failed);
+		if ((h == null) || (h.getTotalCount() == 0)) {
+			sb.append(',').append((h == null) ? "" : "0").append(",,,,,,");
+		}
+		else {
+			sb.append(',').append(h.getTotalCount())
+			  .append(',').append(perSecond(h.getTotalCount(), tc.getElapsedNanos()))
+			  .append(',').append(millis(h.getValueAtPercentile(50.0)))
+			  .append(',').append(millis(h.getValueAtPercentile(90.0)))
+			  .append(',').append(millis(h.getValueAtPercentile(99.0)))
+			  .append(',').append(millis(h.getValueAtPercentile(99.9)))
+			  .append(',').append(millis(h.getMaxValue()));
+		}
+		return sb.toString();
+	}
+
+	void flushHistogramLog() {
+		try {
+			hlogWriter.write(hlogBuffer.toString("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		hlogBuffer.reset();
+	}
+
+	static double millis(long nanos) { return nanos / 1000000.0; }
+
+	static double perSecond(long count, long elapsedNanos) {
+		return (elapsedNanos <= 0) ? 0 : (count * 1000000000.0) / elapsedNanos;
+	}
+
+	// Quoted when it has a comma or a quote in it
+	static String csvField(String s) {
+		if ((s.indexOf(',') < 0) && (s.indexOf('"') < 0)) { return s; }
+		return "\"" + s.replace("\"", "\"\"") + "\"";
+	}
+
+	// HdrHistogram log tags cannot hold commas or white space
+	static String tag(String s) {
+		return s.replaceAll("[,\\s]+", "_");
+	}
+
+} // ResultsSink
@@ -0,0 +1,57 @@
+// ScenarioContext
+//
+// The state that the steps of a scenario share: the cluster connection, the bucket the scenario
+// runs against, and the design document, view and document count that later steps default to
+// once an earlier step has set them.
+
+package com.couchbase.support;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.CouchbaseCluster;
+
+class ScenarioContext {
+
+	CouchbaseCluster cluster;
+	String           username;
+	String           password;
+
+	Bucket bucket;
+	String bucketName;
+
+	String designDocName;		// set by createDesignDocument
+	String viewName;
+	int    documentCount;		// set by populate
+	int    nextSerialNumber;	// first serial number no document has been given yet, set by populate and the steps that insert
+	int    nextRemovalSerialNumber;	// oldest document the insert steps created that no remove step has taken yet
+
+	public ScenarioContext(CouchbaseCluster c, String un, String pw) {
+		cluster       = c;
+		username      = un;
+		password      = pw;
+		designDocName = null;
+		viewName      = null;
+		documentCount = 0;
+		nextSerialNumber = 0;
+		nextRemovalSerialNumber = 0;
+	}
+
+	// After a populate: new documents, and so the removals, start after the loaded ones
+	void loaded(int count) {
+		documentCount           = count;
+		nextSerialNumber        = count;
+		nextRemovalSerialNumber = count;
+	}
+
+	// After a step that removed count documents from nextRemovalSerialNumber on; never past the inserts
+	void removed(long count) {
+		nextRemovalSerialNumber = (int) Math.min(nextRemovalSerialNumber + count, nextSerialNumber);
+	}
+
+	// The ids the loaders give documents 0 .. count-1
+	static String[] documentIds(int count) {
+		String[] ids = new String[count];
+		for (int i = 0; i < count; i++) { ids[i] = DocumentGenerator.DOCUMENTNAMEPREFIX + i; }
+		return ids;
+	}
+
+} // ScenarioContext
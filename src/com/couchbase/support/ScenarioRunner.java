@@ -0,0 +1,485 @@
+// ScenarioRunner
+//
+// Runs performance scenarios described in a JSON file, instead of a sequence hard-coded in main().
+// Connecting to the cluster and creating the bucket happen once and are shared by every scenario
+// in the file, unless a scenario asks for a bucket of its own with "newBucket": true, or for
+// several with "buckets" (see runParallelScenario()).
+//
+//   java com.couchbase.support.ScenarioRunner scenarios/roundtrip.json
+//
+// File layout:
+//
+// {
+//   "hostname": "10.111.90.101",
+//   "username": "Administrator",
+//   "password": "couchbase",
+//   "bucketNamePrefix": "testBucket",      the bucket name gets a random number appended, like the other programs
+//   "bucketQuota": 100,                    megabytes
+//   "bucketName": "existingBucket",        optional: use this existing bucket instead of creating one
+//   "inMemory": false,                     true: use InMemoryBucket instead of a cluster; hostname etc. are ignored
+//   "indexUpdateDelay": 0,                 in-memory only: ms each index update takes
+//   "autoUpdateInterval": 5000,            in-memory only: ms between background index updates, 0 for none
+//   "resultsDirectory": "results/run1",    optional: also write CSV, JSON and HdrHistogram log results here (see ResultsSink)
+//   "runName": "before upgrade",           name of the run in those results, the directory name by default
+//   "scenarios": [
+//     {
+//       "name": "full view scan, 1000 docs",
+//       "newBucket": false,
+//       "buckets": 4,                      optional: that many new buckets, every step runs on all of them at once
+//       "bucketQuota": 100,                megabytes, for this scenario's new buckets; the file's bucketQuota by default
+//       "keepBuckets": false,              true: keep the buckets of "buckets" after the scenario; by default they are removed
+//       "viewCache": { "entries": 10000, "ttlOk": 10000, "ttlUpdateAfter": 1000, "ttlFalse": 0, "invalidateOnWrite": true },
+//                                          optional: every step goes through a CachingBucket, see ViewResultCache
+//       "steps": [
+//         { "type": "createDesignDocument", "designDocument": "dd1", "view": "vn1", "mapFunction": "function (doc, meta) { ... }" },
+//         { "type": "populate", "documents": 1000, "inFlight": 128 },
+//         { "type": "viewQuery", "stale": "false", "streaming": true }
+//       ]
+//     }
+//   ]
+// }
+//
+// The step types and their parameters are listed in ScenarioSteps.  New step types can be added
+// with ScenarioSteps.register().  Scenarios that share a bucket also share its documents and design
+// documents, so give a scenario its own bucket when it must start empty.
+//
+// The whole file is checked for unknown step types before connecting.  A step that fails ends its
+// scenario; the remaining scenarios still run.
+
+package com.couchbase.support;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.CouchbaseCluster;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+
+public class ScenarioRunner {
+
+	static final int    SCREENCOLUMNS   = 100;	// adjust to fit your terminal
+	static final int    MAXBUCKETNUMBER = 1000;
+	static final String DEFAULTPASSWORD = "couchbase";	// the same as the other programs
+
+	JsonObject       config;
+	CouchbaseCluster cluster;
+	Bucket           sharedBucket;
+	List<Bucket>     openBuckets;
+	List<String>     report;
+	ResultsSink      resultsSink;
+
+	public ScenarioRunner(JsonObject scenarioFile) {
+		config      = scenarioFile;
+		openBuckets = new ArrayList<Bucket>();
+		report      = new ArrayList<String>();
+	}
+
+	public static void main(String[] args) {
+
+		if (args.length != 1) {
+			System.out.println("Usage: ScenarioRunner <scenario file.json>");
+			System.exit(1);
+		}
+
+		JsonObject scenarioFile = null;
+		try {
+			scenarioFile = readScenarioFile(args[0]);
+			validate(scenarioFile);
+		} catch (Exception e) {
+			printCenteredBanner("Could not load " + args[0]);
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		ScenarioRunner runner = new ScenarioRunner(scenarioFile);
+		boolean allPassed = runner.runAll();
+
+		System.exit(allPassed ? 0 : 1);
+
+	} // end of main()
+
+	static JsonObject readScenarioFile(String path) throws IOException {
+		String text = new String(Files.readAllBytes(Paths.get(path)), "UTF-8");
+		return JsonObject.fromJson(text);
+	}
+
+	// Fail before connecting if the file refers to a step type that does not exist
+	static void validate(JsonObject scenarioFile) {
+		JsonArray scenarios = scenarioFile.getArray("scenarios");
+		if ((scenarios == null) || (scenarios.size() == 0)) {
+			throw new IllegalArgumentException("The file has no \"scenarios\" array");
+		}
+
+		for (int s = 0; s < scenarios.size(); s++) {
+			JsonObject scenario = scenarios.getObject(s);
+			JsonArray steps = scenario.getArray("steps");
+			if (steps == null) {
+				throw new IllegalArgumentException("Scenario " + scenarioName(scenario, s) + " has no \"steps\" array");
+			}
+			for (int i = 0; i < steps.size(); i++) {
+				String type = steps.getObject(i).getString("type");
+				if ((type == null) || (ScenarioSteps.lookup(type) == null)) {
+					throw new IllegalArgumentException("Scenario " + scenarioName(scenario, s) + " step " + i + ": unknown step type " + type);
+				}
+			}
+		}
+	}
+
+	public boolean runAll() {
+
+		boolean allPassed = true;
+
+		String resultsDirectory = ScenarioSteps.stringValue(config, "resultsDirectory", null);
+		if (resultsDirectory != null) {
+			try {
+				Path dir = Paths.get(resultsDirectory);
+				resultsSink = new ResultsSink(dir, ScenarioSteps.stringValue(config, "runName", dir.getFileName().toString()));
+			} catch (IOException e) {
+				printCenteredBanner("Could not create the results in " + resultsDirectory);
+				e.printStackTrace();
+				return false;
+			}
+		}
+
+		if (!isInMemory()) {
+			CBConnectTimer ct = new CBConnectTimer(ScenarioSteps.stringValue(config, "hostname", "127.0.0.1"));
+			boolean connected = runATimingClass(ct);
+			record("connect", ct);
+			if (!connected) { closeResults(); return false; }
+			cluster = ct.getCluster();
+			report.add("Connect: " + ct.getElapsedTime() + " ms.");
+		}
+
+		JsonArray scenarios = config.getArray("scenarios");
+
+		for (int s = 0; s < scenarios.size(); s++) {
+			JsonObject scenario = scenarios.getObject(s);
+			if (!runScenario(scenario, scenarioName(scenario, s))) { allPassed = false; }
+		}
+
+		for (Bucket b : openBuckets) { b.close(); }
+		if (cluster != null) { cluster.disconnect(); }
+
+		if (!closeResults()) { allPassed = false; }
+
+		printCenteredBanner("Scenario results");
+		for (String line : report) { logMessage(line); }
+
+		return allPassed;
+	}
+
+	boolean runScenario(JsonObject scenario, String name) {
+
+		printCenteredBanner("Scenario: " + name);
+
+		ScenarioContext context = new ScenarioContext(cluster,
+				ScenarioSteps.stringValue(config, "username", "Administrator"),
+				ScenarioSteps.stringValue(config, "password", DEFAULTPASSWORD));
+
+		// Even "buckets": 1 goes this way, so the baseline of a tenant count series is reported like the rest
+		if (scenario.containsKey("buckets")) {
+			int numBuckets = ScenarioSteps.intValue(scenario, "buckets", 1);
+			if (numBuckets < 1) { report.add(name + ": \"buckets\" must be at least 1"); return false; }
+			return runParallelScenario(scenario, name, numBuckets);
+		}
+
+		boolean newBucket = ScenarioSteps.booleanValue(scenario, "newBucket", false);
+
+		if (newBucket || (sharedBucket == null)) {
+			Bucket b = provisionBucket(name, bucketQuota(scenario), false);
+			if (b == null) { report.add(name + ": could not provision a bucket"); return false; }
+			if (!newBucket) { sharedBucket = b; }
+			context.bucket = b;
+		}
+		else {
+			context.bucket = sharedBucket;
+		}
+		context.bucketName = context.bucket.name();
+
+		ViewResultCache cache = null;
+		JsonObject cacheConfig = scenario.getObject("viewCache");
+		if (cacheConfig != null) {
+			cache = new ViewResultCache(ScenarioSteps.intValue(cacheConfig, "entries", 10000), ScenarioSteps.longValue(cacheConfig, "ttlOk", 10000),
+					ScenarioSteps.longValue(cacheConfig, "ttlUpdateAfter", 1000), ScenarioSteps.longValue(cacheConfig, "ttlFalse", 0),
+					ScenarioSteps.booleanValue(cacheConfig, "invalidateOnWrite", true));
+			context.bucket = new CachingBucket(context.bucket, cache).getBucket();
+		}
+
+		JsonArray steps = scenario.getArray("steps");
+
+		for (int i = 0; i < steps.size(); i++) {
+
+			JsonObject step = steps.getObject(i);
+			String type = step.getString("type");
+			String label = name + " / " + i + " " + type;
+			ScenarioStepFactory factory = ScenarioSteps.lookup(type);
+
+			TimingClass tc;
+			try {
+				tc = factory.createTimer(step, context);
+			} catch (IllegalArgumentException e) {
+				report.add(label + ": invalid step: " + e.getMessage());
+				reportCache(name, cache);
+				return false;
+			} catch (RuntimeException e) {
+				// Some steps query the cluster while setting up (paginatedScan samples its ranges)
+				printCenteredBanner(label + ": An exception did occur");
+				e.printStackTrace();
+				report.add(label + ": failed with " + e);
+				reportCache(name, cache);
+				return false;
+			}
+
+			boolean passed = runATimingClass(tc);
+			record(label, tc);
+			if (!passed) {
+				report.add(label + ": failed with " + tc.getException());
+				reportCache(name, cache);
+				return false;
+			}
+
+			factory.afterRun(tc, step, context);
+
+			String line = label + ": " + tc.getElapsedTime() + " ms.";
+			if (tc.isOperationTimingEnabled()) { line += " latency " + tc.getOperationLatencySummary(); }
+			report.add(line);
+		}
+
+		reportCache(name, cache);
+		return true;
+	}
+
+	// Every step runs on each of the scenario's buckets at the same time, through CBParallelBucketsTimer,
+	// and the next step starts when all of them are done.  Each bucket has its own context, so their
+	// documents and design documents are their own, and its own view cache if there is one.  The
+	// report gives the throughput of every bucket and of all together.  The buckets are removed at
+	// the end unless "keepBuckets" is true, so a series of tenant counts each starts on its own.
+	boolean runParallelScenario(JsonObject scenario, String name, int numBuckets) {
+
+		String[]          bucketNames = new String[numBuckets];
+		ScenarioContext[] contexts    = new ScenarioContext[numBuckets];
+		ViewResultCache[] caches      = new ViewResultCache[numBuckets];
+		JsonObject cacheConfig = scenario.getObject("viewCache");
+		List<Bucket>      provisioned = new ArrayList<Bucket>();
+		boolean passed = true;
+
+		for (int b = 0; b < numBuckets; b++) {
+			Bucket bucket = provisionBucket(name + " / bucket " + b, bucketQuota(scenario), true);
+			if (bucket == null) { report.add(name + ": could not provision bucket " + b); passed = false; break; }
+			provisioned.add(bucket);
+
+			contexts[b] = new ScenarioContext(cluster,
+					ScenarioSteps.stringValue(config, "username", "Administrator"),
+					ScenarioSteps.stringValue(config, "password", DEFAULTPASSWORD));
+			contexts[b].bucket     = bucket;
+			contexts[b].bucketName = bucket.name();
+			bucketNames[b]         = bucket.name();
+
+			if (cacheConfig != null) {
+				caches[b] = new ViewResultCache(ScenarioSteps.intValue(cacheConfig, "entries", 10000), ScenarioSteps.longValue(cacheConfig, "ttlOk", 10000),
+						ScenarioSteps.longValue(cacheConfig, "ttlUpdateAfter", 1000), ScenarioSteps.longValue(cacheConfig, "ttlFalse", 0),
+						ScenarioSteps.booleanValue(cacheConfig, "invalidateOnWrite", true));
+				contexts[b].bucket = new CachingBucket(bucket, caches[b]).getBucket();
+			}
+		}
+
+		JsonArray steps = scenario.getArray("steps");
+
+		for (int i = 0; (i < steps.size()) && passed; i++) {
+
+			JsonObject step = steps.getObject(i);
+			String type = step.getString("type");
+			String label = name + " / " + i + " " + type;
+			ScenarioStepFactory factory = ScenarioSteps.lookup(type);
+
+			TimingClass[] timers = new TimingClass[numBuckets];
+			try {
+				for (int b = 0; b < numBuckets; b++) { timers[b] = factory.createTimer(step, contexts[b]); }
+			} catch (IllegalArgumentException e) {
+				report.add(label + ": invalid step: " + e.getMessage());
+				passed = false;
+				break;
+			} catch (RuntimeException e) {
+				printCenteredBanner(label + ": An exception did occur");
+				e.printStackTrace();
+				report.add(label + ": failed with " + e);
+				passed = false;
+				break;
+			}
+
+			CBParallelBucketsTimer pbt = new CBParallelBucketsTimer(bucketNames, timers);
+			boolean ran = runATimingClass(pbt);
+			record(label, pbt);
+			if (!ran) {
+				report.add(label + ": failed with " + pbt.getException());
+				passed = false;
+				break;
+			}
+
+			for (int b = 0; b < numBuckets; b++) { factory.afterRun(timers[b], step, contexts[b]); }
+
+			String line = label + " on " + numBuckets + ((numBuckets == 1) ? " bucket: " : " buckets: ") + pbt.getElapsedTime() + " ms.";
+			if (pbt.getTotalOperationCount() > 0) {
+				line += " " + pbt.getTotalOperationCount() + " operations, " + (long) pbt.getAggregateThroughput() + " ops/sec in all, latency "
+						+ pbt.getOperationLatencySummary();
+			}
+			report.add(line);
+			for (int b = 0; b < numBuckets; b++) {
+				String bucketLine = "    " + bucketNames[b] + ": " + timers[b].getElapsedTime() + " ms.";
+				if (timers[b].getOperationCount() > 0) {
+					bucketLine += " " + (long) pbt.getThroughput(b) + " ops/sec, latency " + timers[b].getOperationLatencySummary();
+				}
+				report.add(bucketLine);
+			}
+		}
+
+		for (int b = 0; b < numBuckets; b++) { reportCache(name + " / " + bucketNames[b], caches[b]); }
+
+		if (!ScenarioSteps.booleanValue(scenario, "keepBuckets", false)) { removeBuckets(name, provisioned); }
+		return passed;
+	}
+
+	// Close and delete a scenario's buckets, so the next scenario starts on a cluster without them
+	void removeBuckets(String scenarioName, List<Bucket> buckets) {
+		for (Bucket b : buckets) {
+			String bucketName = b.name();
+			b.close();
+			openBuckets.remove(b);
+			if (isInMemory()) { continue; }
+			try {
+				cluster.clusterManager(ScenarioSteps.stringValue(config, "username", "Administrator"),
+						ScenarioSteps.stringValue(config, "password", DEFAULTPASSWORD)).removeBucket(bucketName);
+				report.add(scenarioName + ": removed bucket " + bucketName);
+			} catch (RuntimeException e) {
+				printCenteredBanner("Could not remove bucket " + bucketName);
+				e.printStackTrace();
+				report.add(scenarioName + ": could not remove bucket " + bucketName + ": " + e);
+			}
+		}
+	}
+
+	void reportCache(String scenarioName, ViewResultCache cache) {
+		if (cache != null) { report.add(scenarioName + ": view cache " + cache.getSummary()); }
+	}
+
+	void record(String phase, TimingClass tc) {
+		if (resultsSink != null) { resultsSink.recordPhase(phase, tc); }
+	}
+
+	// False if the results could not be written
+	boolean closeResults() {
+		if (resultsSink == null) { return true; }
+		try {
+			resultsSink.close();
+			report.add("Results written to " + resultsSink.getDirectory());
+			return true;
+		} catch (IOException e) {
+			printCenteredBanner("Could not write the results to " + resultsSink.getDirectory());
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	boolean isInMemory() {
+		return ScenarioSteps.booleanValue(config, "inMemory", false);
+	}
+
+	int bucketQuota(JsonObject scenario) {
+		return ScenarioSteps.intValue(scenario, "bucketQuota", ScenarioSteps.intValue(config, "bucketQuota", 100));
+	}
+
+	// Create (or, with "bucketName", just open) a bucket, timing both like the other programs do.
+	// alwaysCreate ignores "bucketName", for scenarios that need buckets of their own.
+	Bucket provisionBucket(String scenarioName, int quota, boolean alwaysCreate) {
+
+		if (isInMemory()) {
+			String bucketName = ScenarioSteps.stringValue(config, "bucketNamePrefix", "testBucket") + openBuckets.size();
+			Bucket b = new InMemoryBucket(bucketName, ScenarioSteps.longValue(config, "indexUpdateDelay", 0),
+					ScenarioSteps.longValue(config, "autoUpdateInterval", InMemoryBucket.DEFAULTAUTOUPDATEINTERVAL)).getBucket();
+			report.add(scenarioName + ": in-memory bucket " + bucketName);
+			openBuckets.add(b);
+			return b;
+		}
+
+		String bucketName = ScenarioSteps.stringValue(config, "bucketName", null);
+
+		if ((bucketName == null) || (sharedBucket != null) || alwaysCreate) {
+			do {
+				int randomIdentifier = (int) (Math.random() * MAXBUCKETNUMBER);
+				bucketName = ScenarioSteps.stringValue(config, "bucketNamePrefix", "testBucket") + randomIdentifier;
+			} while (isOpen(bucketName));
+
+			printCenteredBanner("The Bucket name for " + scenarioName + " is " + bucketName);
+			CBCreateBucketTimer cbt = new CBCreateBucketTimer(cluster, bucketName,
+					ScenarioSteps.stringValue(config, "username", "Administrator"),
+					ScenarioSteps.stringValue(config, "password", DEFAULTPASSWORD),
+					quota);
+			boolean created = runATimingClass(cbt);
+			record(scenarioName + " / create bucket", cbt);
+			if (!created) { return null; }
+			report.add(scenarioName + ": create bucket " + bucketName + ": " + cbt.getElapsedTime() + " ms.");
+		}
+
+		CBOpenBucketTimer bt = new CBOpenBucketTimer(cluster, bucketName);
+		boolean opened = runATimingClass(bt);
+		record(scenarioName + " / open bucket", bt);
+		if (!opened) { return null; }
+		report.add(scenarioName + ": open bucket " + bucketName + ": " + bt.getElapsedTime() + " ms.");
+
+		openBuckets.add(bt.getBucket());
+		return bt.getBucket();
+	}
+
+	boolean isOpen(String bucketName) {
+		for (Bucket b : openBuckets) {
+			if (b.name().equals(bucketName)) { return true; }
+		}
+		return false;
+	}
+
+	static String scenarioName(JsonObject scenario, int index) {
+		return ScenarioSteps.stringValue(scenario, "name", "scenario" + index);
+	}
+
+	// Unlike the other programs, a failure does not end the run, the caller moves on to the next scenario
+	static boolean runATimingClass(TimingClass tc) {
+		tc.performTest();
+
+		if (tc.didExceptionOccur()) {
+			printCenteredBanner(tc.getClass().getName() + ": An exception did occur");
+			tc.getException().printStackTrace();
+			return false;
+		}
+
+		printCenteredBanner(tc.getClass().getName() + ": Elapsed time: " + tc.getElapsedTime() + " ms.");
+
+		if (tc.isOperationTimingEnabled()) {
+			logMessage(tc.getClass().getName() + " latency " + tc.getOperationLatencySummary());
+		}
+
+		return true;
+	}
+
+
+	public static void printDecoration(int c, String s) {
+		for (int i = 0; i < c; i++) { System.out.print(s); }
+	}
+
+	public static void printCenteredBanner(String s) {
+		int numDecorations = ((SCREENCOLUMNS - (s.length() + 2)) / 2);
+		printDecoration(numDecorations,"=");
+		System.out.print(" " + s + " ");
+		printDecoration(numDecorations,"=");
+		System.out.println();
+	}
+
+	static void logMessage(String s) {
+		System.out.println("=== " + s + " ===");
+	}
+
+} // ScenarioRunner
@@ -0,0 +1,19 @@
+// ScenarioStepFactory
+//
+// Turns one step of a scenario file into the TimingClass that performs it.  Each step type is
+// registered under its name with ScenarioSteps.register(); see ScenarioSteps for the built-in ones.
+
+package com.couchbase.support;
+
+import com.couchbase.client.java.document.json.JsonObject;
+
+interface ScenarioStepFactory {
+
+	// step is the step's JSON object from the scenario file.  Called just before the step runs, so
+	// the context reflects everything earlier steps did.  Throw IllegalArgumentException for bad parameters.
+	TimingClass createTimer(JsonObject step, ScenarioContext context);
+
+	// Called after the step ran without an exception, to log results and update the context
+	void afterRun(TimingClass timer, JsonObject step, ScenarioContext context);
+
+} // ScenarioStepFactory
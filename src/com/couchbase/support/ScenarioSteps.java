@@ -0,0 +1,514 @@
+// ScenarioSteps
+//
+// The registry of step types a scenario file can use, and the built-in ones.  Each built-in step
+// maps onto one of the existing timers:
+//
+//   createDesignDocument  designDocument, view, mapFunction,         CBCreateDesignDocumentTimer
+//                         reduceFunction                             (_count, _sum, _stats or JavaScript; none by default)
+//   populate              documents, inFlight, batchSize, upsert,    CBPopulateBucketTimer (inFlight 1) or CBBulkLoadTimer
+//                         documentSize, fields, nesting              (see DocumentGenerator; upsert true always uses CBBulkLoadTimer)
+//   reactivePipeline      designDocument, view, mapFunction,         CBReactivePipelineTimer: createDesignDocument, populate
+//                         documents, inFlight, documentSize, fields, and waitForRows as one RxJava pipeline
+//                         nesting, stale, pollDelay, maxPollDelay, timeout
+//   singleGet             documents                                  CBSingleGetItemsTimer
+//   multiGet              documents, concurrency                     CBMultiGetItemsTimer
+//   viewQuery             stale, streaming, printRows                CBFullViewQueryTimer
+//   viewKeysQuery         documents, keysPerQuery, stale             CBViewKeysQueryTimer
+//   waitForRows           expected, stale, timeout                   CBConvergenceTimer + ViewRowCountProbe
+//   analyzeTimestamps     stale, printRows                           CBFullViewQueryTimer streaming into TimestampAnalyzer
+//   paginatedScan         pageSize, ranges, stale, threads           CBPaginatedViewQueryTimer
+//   deletePropagation     documents, concurrency, keysPerQuery, timeout   CBDeletePropagationTimer
+//                         (deletes the last loaded documents; later steps default to the ones left)
+//   latencyMonitor        documents, writeRate, pollInterval, reportInterval, window, duration   CBIndexLatencyMonitor
+//   openLoop              operation, rate, duration, maxInFlight,    CBOpenLoopTimer
+//                         documents, keysPerQuery, limit, stale      (operation: get, upsert, insert, remove, viewQuery,
+//                                                                    viewRangeQuery or fullViewQuery)
+//   mixedWorkload         workers, duration, operations              CBMixedWorkloadTimer
+//                         (a list of openLoop-style operation objects, each with a "weight"; default insert 70, get 20,
+//                         remove 5, fullViewQuery 5)
+//   staleTradeoff         stale, writeRate, recent, workers,         CBStaleTradeoffTimer: view query latency and how many of the
+//                         duration, firstSerialNumber                last `recent` new documents the results are missing
+//   aggregate             aggregate, where, group, groupLevel,       CBAggregationTimer: a reduce=true query with grouping
+//                         stale, repeats                             (where "server") or reduce=false and aggregating here ("client")
+//   indexBuild            designDocument, view, mapFunction,         CBIndexBuildTimer: build a view from nothing over the
+//                         timeout, keep                              loaded documents, then remove it unless keep is true
+//   indexContention       designDocument (name prefix),              CBIndexContentionTimer: build K design documents of V views
+//                         designDocuments, viewsPerDesignDocument,   at once, then measure write -> emit and Stale.FALSE query
+//                         mapFunctions, writeRate, documents,        latency (mapFunctions is a list cycled over the views;
+//                         pollInterval, duration, timeout            documents, the ones written and polled, defaults to 10)
+//   threadedItems         operation, documents, firstSerialNumber,   CBThreadedItemsTimer (operation: get, insert or remove;
+//                         threads, poolSize, concurrency             get and remove default to the loaded documents)
+//
+// Every parameter is optional.  "documents" defaults to the count of the last populate step, and
+// designDocument / view default to the last createDesignDocument step.  stale is one of
+// "false", "ok" (or "true") and "update_after".  insert and remove work on new documents, numbered
+// on from the last populate or insert.  threads is "virtual" or "platform" (see WorkerExecutors).
+
+package com.couchbase.support;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.Stale;
+
+class ScenarioSteps {
+
+	static final Map<String, ScenarioStepFactory> STEPTYPES = new LinkedHashMap<String, ScenarioStepFactory>();
+
+	public static void register(String type, ScenarioStepFactory factory) {
+		STEPTYPES.put(type, factory);
+	}
+
+	public static ScenarioStepFactory lookup(String type) {
+		return STEPTYPES.get(type);
+	}
+
+	static {
+
+		register("createDesignDocument", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				return new CBCreateDesignDocumentTimer(context.bucket, designDocName(step, context), viewName(step, context),
+						requiredString(step, "mapFunction"), stringValue(step, "reduceFunction", null));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				context.designDocName = designDocName(step, context);
+				context.viewName      = viewName(step, context);
+			}
+		});
+
+		register("populate", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				int numDocs  = intValue(step, "documents", 1000);
+				int inFlight = intValue(step, "inFlight", 1);
+				boolean upsert = booleanValue(step, "upsert", false);
+				DocumentGenerator generator = new DocumentGenerator(intValue(step, "documentSize", 0),
+						intValue(step, "fields", 1), intValue(step, "nesting", 0));
+				if ((inFlight == 1) && !upsert) {
+					return new CBPopulateBucketTimer(context.bucket, numDocs, generator);
+				}
+				CBBulkLoadTimer blt = new CBBulkLoadTimer(context.bucket, numDocs, inFlight, intValue(step, "batchSize", 1000), generator);
+				blt.setUpsert(upsert);
+				return blt;
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				context.loaded(intValue(step, "documents", 1000));
+				if (timer instanceof CBBulkLoadTimer) {
+					CBBulkLoadTimer blt = (CBBulkLoadTimer) timer;
+					ScenarioRunner.logMessage("Bulk load: " + (long) blt.getDocumentsPerSecond() + " docs/sec. average batch latency "
+							+ blt.getAverageBatchLatency() + " ms.");
+				}
+			}
+		});
+
+		register("singleGet", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				return new CBSingleGetItemsTimer(context.bucket, ScenarioContext.documentIds(documents(step, context)));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				ScenarioRunner.logMessage("The success count was " + ((CBSingleGetItemsTimer) timer).getSuccessCount());
+			}
+		});
+
+		register("multiGet", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				return new CBMultiGetItemsTimer(context.bucket, ScenarioContext.documentIds(documents(step, context)),
+						intValue(step, "concurrency", 64));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBMultiGetItemsTimer mgt = (CBMultiGetItemsTimer) timer;
+				ScenarioRunner.logMessage("The success count was " + mgt.getSuccessCount() + ", " + (long) mgt.getOperationsPerSecond() + " keys/sec.");
+			}
+		});
+
+		register("viewQuery", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				if (booleanValue(step, "streaming", false)) {
+					return new CBFullViewQueryTimer(context.bucket, designDocName(step, context), viewName(step, context),
+							staleValue(step, Stale.FALSE), ViewRowConsumer.DISCARD);
+				}
+				return new CBFullViewQueryTimer(context.bucket, designDocName(step, context), viewName(step, context), staleValue(step, Stale.FALSE));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBFullViewQueryTimer fvqt = (CBFullViewQueryTimer) timer;
+				if (booleanValue(step, "printRows", false)) { fvqt.printRows(); }
+				ScenarioRunner.logMessage("The total results count was " + fvqt.getTotalResults());
+			}
+		});
+
+		register("viewKeysQuery", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				return new CBViewKeysQueryTimer(context.bucket, designDocName(step, context), viewName(step, context),
+						ScenarioContext.documentIds(documents(step, context)), intValue(step, "keysPerQuery", 1000), staleValue(step, Stale.TRUE));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBViewKeysQueryTimer vkt = (CBViewKeysQueryTimer) timer;
+				ScenarioRunner.logMessage("The total results count was " + vkt.getTotalResults() + ", " + (long) vkt.getKeysPerSecond() + " keys/sec.");
+			}
+		});
+
+		register("waitForRows", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				ViewRowCountProbe probe = new ViewRowCountProbe(context.bucket, designDocName(step, context), viewName(step, context),
+						staleValue(step, Stale.FALSE), intValue(step, "expected", context.documentCount));
+				return new CBConvergenceTimer(new ConvergenceWaiter(longValue(step, "timeout", 600000)), probe);
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBConvergenceTimer ct = (CBConvergenceTimer) timer;
+				ConvergenceWaiter w = ct.getWaiter();
+				if (ct.didConverge()) {
+					ScenarioRunner.logMessage("Rows first observed after " + w.getTimeToConverge() + " ms (+/- " + w.getUncertainty() + " ms), "
+							+ w.getPollCount() + " polls.");
+				}
+				else {
+					ScenarioRunner.logMessage("The expected rows did not appear before the timeout (" + w.getPollCount() + " polls).");
+				}
+			}
+		});
+
+		register("analyzeTimestamps", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				return new CBFullViewQueryTimer(context.bucket, designDocName(step, context), viewName(step, context),
+						staleValue(step, Stale.FALSE), new TimestampAnalyzer(booleanValue(step, "printRows", false)));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				TimestampAnalyzer ta = (TimestampAnalyzer) ((CBFullViewQueryTimer) timer).rowConsumer;
+				ScenarioRunner.logMessage("Looked at " + ta.getResultsLookedAt() + " rows.  (View emit - Creation time) min "
+						+ ta.getMinimumDiff() + " ms. avg " + (long) ta.getAverageDiff() + " ms. max " + ta.getMaximumDiff() + " ms.");
+			}
+		});
+
+		register("paginatedScan", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				String dn = designDocName(step, context);
+				String vn = viewName(step, context);
+				Stale stl = staleValue(step, Stale.TRUE);
+				int ranges = intValue(step, "ranges", 1);
+				Object[] boundaries = (ranges > 1) ? CBPaginatedViewQueryTimer.sampleRangeBoundaries(context.bucket, dn, vn, stl, ranges) : null;
+				CBPaginatedViewQueryTimer pvqt = new CBPaginatedViewQueryTimer(context.bucket, dn, vn, stl, intValue(step, "pageSize", 1000), boundaries);
+				pvqt.setThreadMode(stringValue(step, "threads", WorkerExecutors.PLATFORM));
+				return pvqt;
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBPaginatedViewQueryTimer pvqt = (CBPaginatedViewQueryTimer) timer;
+				ScenarioRunner.logMessage(pvqt.getTotalResults() + " rows in " + pvqt.getTotalPages() + " pages over " + pvqt.getRangeCount()
+						+ " ranges, " + (long) pvqt.getRowsPerSecond() + " rows/sec.");
+			}
+		});
+
+		register("deletePropagation", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				// The last of the loaded documents, so those left are still 0 .. documentCount-1 afterwards
+				int numToDelete = documents(step, context);
+				int first       = Math.max(0, context.documentCount - numToDelete);
+				String[] keys = new String[numToDelete];
+				for (int i = 0; i < numToDelete; i++) { keys[i] = DocumentGenerator.DOCUMENTNAMEPREFIX + (first + i); }
+				return new CBDeletePropagationTimer(context.bucket, designDocName(step, context), viewName(step, context), keys,
+						intValue(step, "concurrency", 16), intValue(step, "keysPerQuery", 1000),
+						new ConvergenceWaiter(longValue(step, "timeout", 600000)));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBDeletePropagationTimer dpt = (CBDeletePropagationTimer) timer;
+				context.documentCount = Math.max(0, context.documentCount - documents(step, context));
+				ScenarioRunner.logMessage("Delete -> index removal " + dpt.getPropagationSummary() + ", " + dpt.getOutstandingCount() + " still outstanding.");
+			}
+		});
+
+		register("latencyMonitor", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				return new CBIndexLatencyMonitor(context.bucket, designDocName(step, context), viewName(step, context), staleValue(step, Stale.FALSE),
+						intValue(step, "documents", 10), doubleValue(step, "writeRate", 20.0), longValue(step, "pollInterval", 250),
+						longValue(step, "reportInterval", 5000), intValue(step, "window", 12), longValue(step, "duration", 60000));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBIndexLatencyMonitor ilm = (CBIndexLatencyMonitor) timer;
+				ScenarioRunner.logMessage(ilm.getWriteCount() + " writes, " + ilm.getPollCount() + " polls, " + ilm.getClockSkewCount() + " samples with clock skew.");
+			}
+		});
+
+		register("openLoop", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				return new CBOpenLoopTimer(context.bucket, loadOperation(step, context), doubleValue(step, "rate", 1000.0),
+						longValue(step, "duration", 30000), intValue(step, "maxInFlight", 10000));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBOpenLoopTimer olt = (CBOpenLoopTimer) timer;
+				logOpenLoopResults(olt);
+				if (olt.getOperation().name().equals("insert")) { context.nextSerialNumber += olt.getIssuedCount(); }
+				if (olt.getOperation().name().equals("remove")) { context.removed(olt.getIssuedCount()); }
+			}
+		});
+
+		register("mixedWorkload", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				JsonArray specs = step.getArray("operations");
+				if (specs == null) {
+					specs = JsonArray.create()
+							.add(JsonObject.create().put("operation", "insert").put("weight", 70))
+							.add(JsonObject.create().put("operation", "get").put("weight", 20))
+							.add(JsonObject.create().put("operation", "remove").put("weight", 5))
+							.add(JsonObject.create().put("operation", "fullViewQuery").put("weight", 5));
+				}
+				LoadOperation[] operations = new LoadOperation[specs.size()];
+				int[]           weights    = new int[specs.size()];
+				for (int i = 0; i < specs.size(); i++) {
+					operations[i] = loadOperation(specs.getObject(i), context);
+					weights[i]    = intValue(specs.getObject(i), "weight", 1);
+				}
+				return new CBMixedWorkloadTimer(context.bucket, operations, weights, intValue(step, "workers", 16),
+						longValue(step, "duration", 30000));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBMixedWorkloadTimer mwt = (CBMixedWorkloadTimer) timer;
+				logMixedWorkloadResults(mwt);
+				int insert = mwt.indexOf("insert");
+				int remove = mwt.indexOf("remove");
+				if (insert >= 0) { context.nextSerialNumber += mwt.getIssuedCount(insert); }
+				if (remove >= 0) { context.removed(mwt.getIssuedCount(remove)); }
+			}
+		});
+
+		register("reactivePipeline", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				DocumentGenerator generator = new DocumentGenerator(intValue(step, "documentSize", 0),
+						intValue(step, "fields", 1), intValue(step, "nesting", 0));
+				return new CBReactivePipelineTimer(context.bucket, designDocName(step, context), viewName(step, context),
+						requiredString(step, "mapFunction"), intValue(step, "documents", 1000), intValue(step, "inFlight", 128), generator,
+						staleValue(step, Stale.UPDATE_AFTER), longValue(step, "pollDelay", 50), longValue(step, "maxPollDelay", 5000),
+						longValue(step, "timeout", 600000));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBReactivePipelineTimer rpt = (CBReactivePipelineTimer) timer;
+				context.designDocName    = designDocName(step, context);
+				context.viewName         = viewName(step, context);
+				context.loaded(intValue(step, "documents", 1000));
+				ScenarioRunner.logMessage("Pipeline: design document " + String.format("%.3f", rpt.getDesignDocumentTime()) + " ms, populate "
+						+ String.format("%.3f", rpt.getPopulateTime()) + " ms (" + (long) rpt.getInsertsPerSecond() + " inserts/sec), complete view after "
+						+ String.format("%.3f", rpt.getIndexTime()) + " ms and " + rpt.getPollCount() + " polls.");
+				if (rpt.getAnalyzer() != null) {
+					ScenarioRunner.logMessage("Pipeline: (View emit - Creation time) max " + rpt.getAnalyzer().getMaximumDiff() + " ms over "
+							+ rpt.getAnalyzer().getResultsLookedAt() + " rows.");
+				}
+			}
+		});
+
+		register("staleTradeoff", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				return new CBStaleTradeoffTimer(context.bucket, designDocName(step, context), viewName(step, context), staleValue(step, Stale.TRUE),
+						intValue(step, "firstSerialNumber", context.nextSerialNumber), doubleValue(step, "writeRate", 100.0),
+						intValue(step, "recent", 100), intValue(step, "workers", 4), longValue(step, "duration", 30000), new DocumentGenerator());
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBStaleTradeoffTimer stt = (CBStaleTradeoffTimer) timer;
+				context.nextSerialNumber += (int) stt.getWriteCount();
+				ScenarioRunner.logMessage("stale=" + stt.getStale().identifier() + ": " + (long) stt.getQueriesPerSecond() + " queries/sec, "
+						+ stt.getMissingSummary());
+				ScenarioRunner.logMessage("stale=" + stt.getStale().identifier() + " oldest missing write age " + stt.getMissingAgeSummary());
+			}
+		});
+
+		register("aggregate", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				int level = booleanValue(step, "group", false) ? CBAggregationTimer.GROUPEXACT : intValue(step, "groupLevel", 0);
+				return new CBAggregationTimer(context.bucket, designDocName(step, context), viewName(step, context), staleValue(step, Stale.FALSE),
+						stringValue(step, "aggregate", "_count"), level, stringValue(step, "where", CBAggregationTimer.SERVER),
+						intValue(step, "repeats", 10));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBAggregationTimer at = (CBAggregationTimer) timer;
+				ScenarioRunner.logMessage("Aggregate on the " + at.getWhere() + ", " + CBAggregationTimer.describeGrouping(at.groupLevel) + ": "
+						+ at.getGroupCount() + " groups from " + at.getRowsReceived() + " rows, " + at.getPayloadCharacters() + " characters.");
+			}
+		});
+
+		register("indexBuild", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				return new CBIndexBuildTimer(context.bucket, stringValue(step, "designDocument", "indexBuild"), stringValue(step, "view", "vn1"),
+						requiredString(step, "mapFunction"), longValue(step, "timeout", 3600000), booleanValue(step, "keep", false));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBIndexBuildTimer ibt = (CBIndexBuildTimer) timer;
+				if (booleanValue(step, "keep", false)) {
+					context.designDocName = stringValue(step, "designDocument", "indexBuild");
+					context.viewName      = stringValue(step, "view", "vn1");
+				}
+				ScenarioRunner.logMessage("Index build: " + ibt.getRowCount() + " rows in " + String.format("%.1f", ibt.getBuildTime()) + " ms ("
+						+ (long) ibt.getRowsPerSecond() + " rows/sec), " + ibt.getAttempts() + " Stale.FALSE queries.");
+			}
+		});
+
+		register("indexContention", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				String[] mapFunctions = CBIndexContentionTimer.DEFAULTMAPFUNCTIONS;
+				JsonArray specs = step.getArray("mapFunctions");
+				if (specs != null) {
+					mapFunctions = new String[specs.size()];
+					for (int i = 0; i < specs.size(); i++) { mapFunctions[i] = specs.getString(i); }
+				}
+				return new CBIndexContentionTimer(context.bucket, stringValue(step, "designDocument", "contention"),
+						intValue(step, "designDocuments", 1), intValue(step, "viewsPerDesignDocument", 1), mapFunctions,
+						doubleValue(step, "writeRate", 20.0), intValue(step, "documents", 10), longValue(step, "pollInterval", 250),
+						longValue(step, "duration", 30000), longValue(step, "timeout", 3600000));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBIndexContentionTimer ict = (CBIndexContentionTimer) timer;
+				String config = ict.getDesignDocCount() + " x " + ict.getViewsPerDesignDoc();
+				ScenarioRunner.logMessage(config + " views built in " + String.format("%.1f", ict.getBuildTime()) + " ms ("
+						+ (long) ict.getRowsPerSecond() + " rows/sec), slowest design document " + String.format("%.1f", ict.getMaxDesignDocBuildTime())
+						+ " ms.");
+				ScenarioRunner.logMessage(config + " write -> emit " + ict.getWriteToEmitSummary());
+				for (int v = 0; v < ict.getViewsPerDesignDoc(); v++) {
+					Histogram q = ict.getViewQueryHistogram(v);
+					Histogram e = ict.getViewWriteToEmitHistogram(v);
+					ScenarioRunner.logMessage(config + " " + CBIndexContentionTimer.viewName(v) + ": query "
+							+ ((q.getTotalCount() == 0) ? "none" : TimingClass.latencySummary("ops", q)) + ", write -> emit "
+							+ ((e.getTotalCount() == 0) ? "none" : TimingClass.latencySummary("writes", e)));
+				}
+			}
+		});
+
+		register("threadedItems", new ScenarioStepFactory() {
+			public TimingClass createTimer(JsonObject step, ScenarioContext context) {
+				String operation = stringValue(step, "operation", "get");
+				int first = intValue(step, "firstSerialNumber", operation.equals("insert") ? context.nextSerialNumber : 0);
+				int numDocs = operation.equals("insert") ? intValue(step, "documents", 1000) : documents(step, context);
+				DocumentGenerator generator = new DocumentGenerator(intValue(step, "documentSize", 0), intValue(step, "fields", 1), 0);
+				return new CBThreadedItemsTimer(context.bucket, operation, first, numDocs, generator,
+						stringValue(step, "threads", WorkerExecutors.VIRTUAL), intValue(step, "poolSize", 200), intValue(step, "concurrency", 10000));
+			}
+			public void afterRun(TimingClass timer, JsonObject step, ScenarioContext context) {
+				CBThreadedItemsTimer tit = (CBThreadedItemsTimer) timer;
+				ScenarioRunner.logMessage("Threaded " + tit.getOperation() + " on " + WorkerExecutors.describe(tit.getThreadMode()) + " threads: "
+						+ (long) tit.getOperationsPerSecond() + " ops/sec, " + tit.getSuccessCount() + " succeeded.");
+				if (tit.getOperation().equals("insert")) { context.nextSerialNumber += tit.getCount(); }
+			}
+		});
+
+	} // built-in step types
+
+	static void logOpenLoopResults(CBOpenLoopTimer olt) {
+		String name = olt.getOperation().name();
+		ScenarioRunner.logMessage("Open loop " + name + ": " + olt.getIssuedCount() + " issued at " + (long) olt.getAchievedRate() + "/sec, "
+				+ olt.getFailureCount() + " failed, max schedule lag " + String.format("%.3f", olt.getMaxScheduleLag()) + " ms.");
+		ScenarioRunner.logMessage("Open loop " + name + " response time          " + olt.getResponseTimeSummary());
+		ScenarioRunner.logMessage("Open loop " + name + " service time           " + olt.getServiceTimeSummary());
+		ScenarioRunner.logMessage("Open loop " + name + " corrected service time " + olt.getCorrectedServiceTimeSummary());
+	}
+
+
+	static void logMixedWorkloadResults(CBMixedWorkloadTimer mwt) {
+		LoadOperation[] operations = mwt.getOperations();
+		for (int i = 0; i < operations.length; i++) {
+			ScenarioRunner.logMessage("Mixed workload " + operations[i].name() + ": " + (long) mwt.getThroughput(i) + "/sec, "
+					+ mwt.getFailureCount(i) + " failed, " + mwt.getLatencySummary(i));
+		}
+	}
+
+
+	// Parameter helpers
+
+	// "operation" is get, upsert, insert, remove, viewQuery, viewRangeQuery (the first limit rows) or fullViewQuery;
+	// the other parameters are as for the steps of the same name.  remove takes the documents insert created, oldest first, from where the
+	// last remove left off (ScenarioContext.nextRemovalSerialNumber); in one mixedWorkload it can get
+	// ahead of the inserts.
+	static LoadOperation loadOperation(JsonObject spec, ScenarioContext context) {
+		String operation = stringValue(spec, "operation", "get");
+		if (operation.equals("get")) {
+			return LoadOperations.get(documents(spec, context));
+		}
+		if (operation.equals("upsert")) {
+			return LoadOperations.upsert(documents(spec, context), new DocumentGenerator(intValue(spec, "documentSize", 0), intValue(spec, "fields", 1), 0));
+		}
+		if (operation.equals("insert")) {
+			// New documents follow the loaded ones unless firstSerialNumber says otherwise
+			return LoadOperations.insert(intValue(spec, "firstSerialNumber", context.nextSerialNumber),
+					new DocumentGenerator(intValue(spec, "documentSize", 0), intValue(spec, "fields", 1), 0));
+		}
+		if (operation.equals("remove")) {
+			return LoadOperations.remove(intValue(spec, "firstSerialNumber", context.nextRemovalSerialNumber));
+		}
+		if (operation.equals("viewQuery")) {
+			return LoadOperations.viewKeysQuery(designDocName(spec, context), viewName(spec, context), staleValue(spec, Stale.TRUE),
+					documents(spec, context), intValue(spec, "keysPerQuery", 1));
+		}
+		if (operation.equals("viewRangeQuery")) {
+			return LoadOperations.viewRangeQuery(designDocName(spec, context), viewName(spec, context), staleValue(spec, Stale.TRUE),
+					intValue(spec, "limit", 10));
+		}
+		if (operation.equals("fullViewQuery")) {
+			return LoadOperations.fullViewQuery(designDocName(spec, context), viewName(spec, context), staleValue(spec, Stale.TRUE));
+		}
+		throw new IllegalArgumentException("Unknown operation: " + operation);
+	}
+
+	static int documents(JsonObject step, ScenarioContext context) {
+		int n = intValue(step, "documents", context.documentCount);
+		if (n < 1) { throw new IllegalArgumentException("\"documents\" is not set and no loaded documents are left"); }
+		return n;
+	}
+
+	static String designDocName(JsonObject step, ScenarioContext context) {
+		String dn = stringValue(step, "designDocument", context.designDocName);
+		if (dn == null) { throw new IllegalArgumentException("\"designDocument\" is not set and no createDesignDocument step ran before"); }
+		return dn;
+	}
+
+	static String viewName(JsonObject step, ScenarioContext context) {
+		String vn = stringValue(step, "view", context.viewName);
+		if (vn == null) { throw new IllegalArgumentException("\"view\" is not set and no createDesignDocument step ran before"); }
+		return vn;
+	}
+
+	static Stale staleValue(JsonObject step, Stale defaultValue) {
+		String s = stringValue(step, "stale", null);
+		if (s == null) { return defaultValue; }
+		return parseStale(s);
+	}
+
+	static Stale parseStale(String s) {
+		if (s.equalsIgnoreCase("false"))                                { return Stale.FALSE; }
+		if (s.equalsIgnoreCase("ok") || s.equalsIgnoreCase("true"))     { return Stale.TRUE; }
+		if (s.equalsIgnoreCase("update_after"))                         { return Stale.UPDATE_AFTER; }
+		throw new IllegalArgumentException("Unknown stale value: " + s);
+	}
+
+	static String requiredString(JsonObject o, String name) {
+		String s = stringValue(o, name, null);
+		if (s == null) { throw new IllegalArgumentException("\"" + name + "\" is required"); }
+		return s;
+	}
+
+	static String stringValue(JsonObject o, String name, String defaultValue) {
+		Object v = o.get(name);
+		return (v == null) ? defaultValue : v.toString();
+	}
+
+	static int intValue(JsonObject o, String name, int defaultValue) {
+		return (int) longValue(o, name, defaultValue);
+	}
+
+	static long longValue(JsonObject o, String name, long defaultValue) {
+		Object v = o.get(name);
+		if (v == null) { return defaultValue; }
+		if (!(v instanceof Number)) { throw new IllegalArgumentException("\"" + name + "\" must be a number"); }
+		return ((Number) v).longValue();
+	}
+
+	static double doubleValue(JsonObject o, String name, double defaultValue) {
+		Object v = o.get(name);
+		if (v == null) { return defaultValue; }
+		if (!(v instanceof Number)) { throw new IllegalArgumentException("\"" + name + "\" must be a number"); }
+		return ((Number) v).doubleValue();
+	}
+
+	static boolean booleanValue(JsonObject o, String name, boolean defaultValue) {
+		Object v = o.get(name);
+		if (v == null) { return defaultValue; }
+		if (!(v instanceof Boolean)) { throw new IllegalArgumentException("\"" + name + "\" must be true or false"); }
+		return ((Boolean) v).booleanValue();
+	}
+
+} // ScenarioSteps
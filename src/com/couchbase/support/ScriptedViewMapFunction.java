@@ -0,0 +1,74 @@
+// ScriptedViewMapFunction
+//
+// Runs a view's JavaScript map function, such as MAPFUNCTION in the timing programs, through the
+// javax.script engine.  Java 8 ships Nashorn; from Java 15 on it has to be on the classpath
+// (org.openjdk.nashorn:nashorn-core, added by the jdk15+ profile of the Maven build).
+//
+// The document goes into the script as JSON text and the emitted rows come back the same way, so
+// keys and values are plain JSON, as they are when they arrive from a cluster.  meta carries id and type.
+
+package com.couchbase.support;
+
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+
+class ScriptedViewMapFunction implements ViewMapFunction {
+
+	static final String[] ENGINENAMES = { "nashorn", "javascript", "js" };
+
+	String    source;
+	Invocable invocable;
+
+	public ScriptedViewMapFunction(String mapFunctionSource) throws ScriptException {
+		source = mapFunctionSource;
+
+		ScriptEngine engine = findEngine();
+		if (engine == null) {
+			throw new IllegalStateException("No JavaScript engine is available to run the map function.  On Java 15 and later add "
+					+ "org.openjdk.nashorn:nashorn-core to the classpath, or register a ViewMapFunction with InMemoryBucket.registerMapFunction()");
+		}
+
+		// emit() collects [key, value] pairs, __viewMap() runs the map function over one document
+		engine.eval("var __emitted = [];\n"
+				+ "function emit(key, value) { __emitted.push([ (key === undefined) ? null : key, (value === undefined) ? null : value ]); }\n"
+				+ "var __map = (" + mapFunctionSource + ");\n"
+				+ "function __viewMap(documentJson, id) {\n"
+				+ "  __emitted = [];\n"
+				+ "  __map(JSON.parse(documentJson), { id : id, type : \"json\" });\n"
+				+ "  return JSON.stringify(__emitted);\n"
+				+ "}\n");
+
+		invocable = (Invocable) engine;
+	}
+
+	// Null if this JVM has no JavaScript engine
+	static ScriptEngine findEngine() {
+		ScriptEngineManager manager = new ScriptEngineManager();
+		for (String name : ENGINENAMES) {
+			ScriptEngine engine = manager.getEngineByName(name);
+			if (engine != null) { return engine; }
+		}
+		return null;
+	}
+
+	public static boolean isScriptingAvailable() { return (findEngine() != null); }
+
+	public String getSource() { return source; }
+
+	public void map(String id, JsonObject document, Emitter emitter) throws Exception {
+
+		String emittedJson = (String) invocable.invokeFunction("__viewMap", document.toString(), id);
+		JsonArray emitted = JsonArray.fromJson(emittedJson);
+
+		for (int i = 0; i < emitted.size(); i++) {
+			JsonArray row = emitted.getArray(i);
+			emitter.emit(row.get(0), row.get(1));
+		}
+	}
+
+} // ScriptedViewMapFunction
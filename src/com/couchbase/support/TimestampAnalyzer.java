@@ -0,0 +1,78 @@
+// TimestampAnalyzer
+//
+// Collects the creationDate / viewDateNow statistics of ViewTimingTestRoundtrip's view rows.
+// The row value is the SDK JsonObject the view emitted, so the two fields are read straight out of
+// it as Numbers; there is no toString() and re-parse of the row, and nothing is allocated per row
+// unless verbose per-row output is turned on.
+//
+// It is a ViewRowConsumer, so it can analyze a materialized row list afterwards or be handed to
+// CBFullViewQueryTimer's streaming mode.
+
+package com.couchbase.support;
+
+import com.couchbase.client.java.document.json.JsonObject;
+
+class TimestampAnalyzer implements ViewRowConsumer {
+
+	boolean verbose;		// print each row's timestamps; console output is slow, so off for large views
+
+	int  resultsLookedAt;
+	int  rowsWithoutTimestamps;
+	long minimumDiff;
+	long maximumDiff;
+	long totalDiff;
+
+	public TimestampAnalyzer(boolean printEachRow) {
+		verbose               = printEachRow;
+		resultsLookedAt       = 0;
+		rowsWithoutTimestamps = 0;
+		minimumDiff           = Long.MAX_VALUE;
+		maximumDiff           = Long.MIN_VALUE;
+		totalDiff             = 0;
+	}
+
+	public int  getResultsLookedAt()       { return resultsLookedAt; }
+	public int  getRowsWithoutTimestamps() { return rowsWithoutTimestamps; }
+
+	// (View emit - Creation time), in ms
+	public long getMinimumDiff() { return (resultsLookedAt == 0) ? 0 : minimumDiff; }
+	public long getMaximumDiff() { return (resultsLookedAt == 0) ? 0 : maximumDiff; }
+	public double getAverageDiff() { return (resultsLookedAt == 0) ? 0 : (totalDiff / (double) resultsLookedAt); }
+
+	public void consumeRow(String id, Object key, Object value) {
+
+		if (!(value instanceof JsonObject)) { rowsWithoutTimestamps++; return; }
+
+		JsonObject valueJO = (JsonObject) value;
+		Object viewDateNowField  = valueJO.get("viewDateNow");
+		Object creationDateField = valueJO.get("creationDate");
+
+		if (!(viewDateNowField instanceof Number) || !(creationDateField instanceof Number)) { rowsWithoutTimestamps++; return; }
+
+		long viewDateNow  = ((Number) viewDateNowField).longValue();
+		long creationDate = ((Number) creationDateField).longValue();
+		long diff = viewDateNow - creationDate;   // This difference should be positive
+
+		resultsLookedAt++;
+		totalDiff += diff;
+		if (diff < minimumDiff) { minimumDiff = diff; }
+		if (diff > maximumDiff) { maximumDiff = diff; }
+
+		if (verbose) {
+			System.out.println("Result #: " + resultsLookedAt
+					+ " creationDate: " + creationDate
+					+ " viewDateNow: "  + viewDateNow
+					+ " difference: "   + diff + " ms.");
+
+			// Here is what this program is all about:
+			// t2 is right now.  Compare creationDate from the doc and viewDateNow from the view
+			// to right now, and report the time difference.
+
+			long t2 = System.currentTimeMillis();
+
+			ViewTimingTestRoundtrip.logMessage("The item was first created " + ( t2 - creationDate) + " ms ago.");
+			ViewTimingTestRoundtrip.logMessage("The view emitted its value " + ( t2 - viewDateNow)  + " ms ago.");
+		}
+	}
+
+} // TimestampAnalyzer
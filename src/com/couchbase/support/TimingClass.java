@@ -0,0 +1,128 @@
+// TimingClass
+//
+// Base class of every timed operation.  A subclass implements doTheWork(); performTest() times it
+// and catches any exception so the caller can check didExceptionOccur() afterwards.
+// Shared by ViewTimingTest, ViewTimingTestRoundtrip and ScenarioRunner.
+
+package com.couchbase.support;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+class TimingClass {
+
+	long      startTime, endTime;			// wall clock, milliseconds
+	long      startNanos, endNanos;			// System.nanoTime(), for sub-millisecond elapsed times
+	boolean   exceptionOccurred;
+	Exception caughtException;
+
+	// Per-operation latencies in nanoseconds.  Only allocated when a subclass calls enableOperationTiming().
+	// The Recorder is wait-free and does not allocate when recording, and it is safe to record into from
+	// several threads at once (async callbacks, worker pools).
+	static final long HIGHESTTRACKABLELATENCY = TimeUnit.HOURS.toNanos(1);
+	static final int  SIGNIFICANTDIGITS       = 3;
+
+	Recorder  operationRecorder;
+	Histogram operationHistogram;
+
+	public TimingClass() {
+		startTime         = 0;
+		endTime           = 0;
+		caughtException   = null;
+		exceptionOccurred = false;
+	}
+
+	public void startTiming() {		startTime = System.currentTimeMillis(); startNanos = System.nanoTime();    }
+	public void stopTiming()  {		endNanos  = System.nanoTime(); endTime   = System.currentTimeMillis();    }
+
+	public long getElapsedTime() { 
+		return (endTime - startTime);
+	}
+
+	public long getElapsedNanos() {
+		return (endNanos - startNanos);
+	}
+
+	// Call from the subclass constructor to turn on per-operation latency recording
+	public void enableOperationTiming() {
+		operationRecorder = new Recorder(HIGHESTTRACKABLELATENCY, SIGNIFICANTDIGITS);
+	}
+
+	public boolean isOperationTimingEnabled() { return (operationRecorder != null); }
+
+	// Typical use:  long t = startOperation(); ...one operation... ; recordOperation(t);
+	public long startOperation() { return System.nanoTime(); }
+
+	public void recordOperation(long operationStartNanos) {
+		if (operationRecorder != null) {
+			operationRecorder.recordValue(System.nanoTime() - operationStartNanos);
+		}
+	}
+
+	// Only valid after performTest() has completed
+	public Histogram getOperationHistogram() { return operationHistogram; }
+
+	// Every latency histogram of the timer by metric name, for ResultsSink.  Subclasses with more than
+	// the operation histogram add theirs.  Only valid after performTest() has completed.
+	public Map<String, Histogram> getHistograms() {
+		Map<String, Histogram> histograms = new LinkedHashMap<String, Histogram>();
+		if (operationHistogram != null) { histograms.put("operations", operationHistogram); }
+		return histograms;
+	}
+
+	public long getOperationCount() {
+		return (operationHistogram == null) ? 0 : operationHistogram.getTotalCount();
+	}
+
+	public String getOperationLatencySummary() {
+		if (getOperationCount() == 0) { return "no operations recorded"; }
+		return latencySummary("ops", operationHistogram);
+	}
+
+	// Percentiles of a histogram of nanosecond values, in ms
+	static String latencySummary(String countLabel, Histogram h) {
+		return countLabel + ": " + h.getTotalCount()
+			+ " p50: "   + nanosToMillis(h.getValueAtPercentile(50.0))
+			+ " p90: "   + nanosToMillis(h.getValueAtPercentile(90.0))
+			+ " p99: "   + nanosToMillis(h.getValueAtPercentile(99.0))
+			+ " p99.9: " + nanosToMillis(h.getValueAtPercentile(99.9))
+			+ " max: "   + nanosToMillis(h.getMaxValue()) + " ms";
+	}
+
+	static String nanosToMillis(long nanos) {
+		return String.format("%.3f", nanos / 1000000.0);
+	}
+
+	public boolean didExceptionOccur() { return exceptionOccurred; }
+
+	public Exception getException() { return caughtException; }
+
+	// override in subclass
+	public void doTheWork() throws Exception {
+		ViewTimingTestRoundtrip.printCenteredBanner("This is where you do something");
+	}
+
+	public void performTest() {
+
+		ViewTimingTestRoundtrip.printCenteredBanner(this.getClass().getName());
+
+		// call the method that can be overridden
+		startTiming();
+		try {
+			doTheWork();
+		} catch (Exception e) {
+			caughtException = e;
+			exceptionOccurred = true;
+		}
+		stopTiming();
+
+		if (operationRecorder != null) {
+			operationHistogram = operationRecorder.getIntervalHistogram();
+		}
+	}
+
+} // generic TimingClass, each specific operation below is a subclass of it and implements the doTheWork() method
@@ -0,0 +1,79 @@
+// ViewCollation
+//
+// Orders view keys the way the view engine does: null, false, true, numbers, strings, arrays, objects.
+// Arrays compare element by element and objects field by field.  Strings compare by UTF-16 code
+// unit, not by the engine's Unicode collation, which only matters for mixed case and non-ASCII keys.
+
+package com.couchbase.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+
+class ViewCollation implements Comparator<Object> {
+
+	static final ViewCollation INSTANCE = new ViewCollation();
+
+	static int typeRank(Object o) {
+		if (o == null)               { return 0; }
+		if (o instanceof Boolean)    { return ((Boolean) o) ? 2 : 1; }
+		if (o instanceof Number)     { return 3; }
+		if (o instanceof String)     { return 4; }
+		if (o instanceof JsonArray)  { return 5; }
+		if (o instanceof JsonObject) { return 6; }
+		throw new IllegalArgumentException("Not a JSON value: " + o.getClass().getName());
+	}
+
+	public int compare(Object a, Object b) {
+
+		int rankA = typeRank(a);
+		int rankB = typeRank(b);
+		if (rankA != rankB) { return (rankA < rankB) ? -1 : 1; }
+
+		switch (rankA) {
+		case 3:
+			return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+		case 4:
+			return ((String) a).compareTo((String) b);
+		case 5:
+			return compareArrays((JsonArray) a, (JsonArray) b);
+		case 6:
+			return compareObjects((JsonObject) a, (JsonObject) b);
+		default:
+			return 0;	// null, false and true are each equal to themselves
+		}
+	}
+
+	int compareArrays(JsonArray a, JsonArray b) {
+		int common = Math.min(a.size(), b.size());
+		for (int i = 0; i < common; i++) {
+			int c = compare(a.get(i), b.get(i));
+			if (c != 0) { return c; }
+		}
+		return (a.size() < b.size()) ? -1 : ((a.size() == b.size()) ? 0 : 1);
+	}
+
+	int compareObjects(JsonObject a, JsonObject b) {
+		List<String> namesA = sortedNames(a);
+		List<String> namesB = sortedNames(b);
+		int common = Math.min(namesA.size(), namesB.size());
+		for (int i = 0; i < common; i++) {
+			int c = namesA.get(i).compareTo(namesB.get(i));
+			if (c != 0) { return c; }
+			c = compare(a.get(namesA.get(i)), b.get(namesB.get(i)));
+			if (c != 0) { return c; }
+		}
+		return (namesA.size() < namesB.size()) ? -1 : ((namesA.size() == namesB.size()) ? 0 : 1);
+	}
+
+	static List<String> sortedNames(JsonObject o) {
+		List<String> names = new ArrayList<String>(o.getNames());
+		Collections.sort(names);
+		return names;
+	}
+
+} // ViewCollation
@@ -0,0 +1,133 @@
+// ViewKeyIndex
+//
+// A compact set of view row keys, filled in as rows stream in (it is a ViewRowConsumer), so that
+// "is this key in the result?" is a single hash probe instead of a scan over every row.
+//
+// The table is open addressing with linear probing over two parallel arrays: a 64-bit hash per slot
+// and the key itself.  There are no per-entry objects as there would be with a HashSet, and probes
+// compare the 64-bit hashes first so String.equals() is only called on a real match.  Keys are only
+// ever added; a new index is built for every query.
+//
+// Two indexes from consecutive polls can be diffed with keysNotIn(): O(1) per key.
+//
+// Non-String keys (numbers, arrays, objects) are indexed by their JSON text from toString().
+
+package com.couchbase.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class ViewKeyIndex implements ViewRowConsumer {
+
+	static final long   EMPTY       = 0L;		// hash value that marks an unused slot
+	static final double MAXLOADFACTOR = 0.5;
+
+	long[]   hashes;
+	String[] keys;
+	int      mask;
+	int      size;
+
+	public ViewKeyIndex(int expectedSize) {
+		int capacity = 16;
+		while (capacity * MAXLOADFACTOR < expectedSize) { capacity <<= 1; }
+		allocate(capacity);
+	}
+
+	public ViewKeyIndex() {
+		this(16);
+	}
+
+	public int size() { return size; }
+
+	public void consumeRow(String id, Object key, Object value) {
+		if (key != null) { add(keyToString(key)); }
+	}
+
+	// Returns true if the key was not already present
+	public boolean add(String key) {
+		if ((size + 1) > (hashes.length * MAXLOADFACTOR)) { grow(); }
+		return insert(key, hash64(key));
+	}
+
+	public boolean contains(String key) {
+		long h = hash64(key);
+		int slot = (int) mix(h) & mask;
+
+		while (hashes[slot] != EMPTY) {
+			if ((hashes[slot] == h) && keys[slot].equals(key)) { return true; }
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	public boolean containsKey(Object key) {
+		return (key != null) && contains(keyToString(key));
+	}
+
+	// Keys in this index that are not in the other one.
+	// With this = current poll and other = previous poll these are the added keys; swap them for the removed keys.
+	public List<String> keysNotIn(ViewKeyIndex other) {
+		List<String> result = new ArrayList<String>();
+		for (int slot = 0; slot < hashes.length; slot++) {
+			if ((hashes[slot] != EMPTY) && !other.contains(keys[slot])) {
+				result.add(keys[slot]);
+			}
+		}
+		return result;
+	}
+
+	boolean insert(String key, long h) {
+		int slot = (int) mix(h) & mask;
+
+		while (hashes[slot] != EMPTY) {
+			if ((hashes[slot] == h) && keys[slot].equals(key)) { return false; }
+			slot = (slot + 1) & mask;
+		}
+
+		hashes[slot] = h;
+		keys[slot]   = key;
+		size++;
+		return true;
+	}
+
+	void allocate(int capacity) {
+		hashes = new long[capacity];
+		keys   = new String[capacity];
+		mask   = capacity - 1;
+		size   = 0;
+	}
+
+	void grow() {
+		long[]   oldHashes = hashes;
+		String[] oldKeys   = keys;
+
+		allocate(oldHashes.length * 2);
+
+		for (int slot = 0; slot < oldHashes.length; slot++) {
+			if (oldHashes[slot] != EMPTY) { insert(oldKeys[slot], oldHashes[slot]); }
+		}
+	}
+
+	static String keyToString(Object key) {
+		return (key instanceof String) ? (String) key : key.toString();
+	}
+
+	// 64-bit FNV-1a over the UTF-16 chars.  Never returns EMPTY.
+	static long hash64(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return (h == EMPTY) ? 1L : h;
+	}
+
+	// Spread the hash bits before masking, FNV's low bits alone cluster for similar keys
+	static long mix(long h) {
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		return h;
+	}
+
+} // ViewKeyIndex
@@ -0,0 +1,21 @@
+// ViewMapFunction
+//
+// The map step of a view in InMemoryBucket: called once per document, emits zero or more rows.
+// ScriptedViewMapFunction runs a design document's JavaScript; a Java implementation can be
+// registered with InMemoryBucket.registerMapFunction() where no JavaScript engine is available.
+
+package com.couchbase.support;
+
+import com.couchbase.client.java.document.json.JsonObject;
+
+interface ViewMapFunction {
+
+	// Keys and values are what the SDK hands out in view rows: null, Boolean, Number, String, JsonArray or JsonObject
+	interface Emitter {
+		void emit(Object key, Object value);
+	}
+
+	// document is the stored content, id is meta.id.  Called by one indexer thread at a time per view.
+	void map(String id, JsonObject document, Emitter emitter) throws Exception;
+
+} // ViewMapFunction
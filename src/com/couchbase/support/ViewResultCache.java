@@ -0,0 +1,171 @@
+// ViewResultCache
+//
+// Client-side cache of view query results, for services that issue the same ViewQuery over and
+// over.  Entries are keyed by design document, view and the query's parameters (stale, keys,
+// ranges, limit ...), so two queries share an entry only if the view engine would answer them
+// the same way.  CachingBucket puts it in front of a Bucket.
+//
+// How long an entry may be used depends on the stale mode of its query, which says how fresh the
+// caller wants the answer:
+//
+//   stale=ok            ttlOk ms; the indexer's answer is already out of date by an unknown amount
+//   stale=update_after  ttlUpdateAfter ms (also for queries that do not set stale, as on the cluster)
+//   stale=false         ttlFalse ms, 0 by default: the caller asked for every write so far, so only
+//                       a cache that sees every write (invalidateOnWrite, one client) may answer it
+//
+// A TTL of 0 turns caching off for that mode.  At most maxEntries results are kept; the least
+// recently used one is evicted first.  With invalidateOnWrite, every write made through the
+// CachingBucket empties the cache.  A query that was already running when the write happened does
+// not store its result, so a write can never be followed by a result from before it.
+//
+// Hits, misses, expired entries, evictions and invalidations are counted for the reports.
+
+package com.couchbase.support;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.view.ViewQuery;
+
+class ViewResultCache {
+
+	// One row of a cached result, enough to build a ViewRow or an AsyncViewRow from
+	static class Row {
+		final String id;
+		final Object key;
+		final Object value;
+
+		Row(String i, Object k, Object v) { id = i; key = k; value = v; }
+	}
+
+	static class Entry {
+		final List<Row>  rows;
+		final int        totalRows;
+		final JsonObject debug;
+		final long       expiresAtNanos;
+
+		Entry(List<Row> r, int total, JsonObject d, long expires) {
+			rows           = r;
+			totalRows      = total;
+			debug          = d;
+			expiresAtNanos = expires;
+		}
+	}
+
+	int     maxEntries;
+	long    ttlOkMillis;
+	long    ttlUpdateAfterMillis;
+	long    ttlFalseMillis;
+	boolean invalidateOnWrite;
+
+	LinkedHashMap<String, Entry> entries;
+	long generation;				// bumped by every invalidation, guarded by this
+
+	AtomicLong hits;
+	AtomicLong misses;
+	AtomicLong expirations;
+	AtomicLong evictions;
+	AtomicLong invalidations;
+
+	public ViewResultCache(int maxSize, long ttlOk, long ttlUpdateAfter, long ttlFalse, boolean invalidate) {
+		if (maxSize < 1) { throw new IllegalArgumentException("maxSize must be at least 1"); }
+
+		maxEntries           = maxSize;
+		ttlOkMillis          = ttlOk;
+		ttlUpdateAfterMillis = ttlUpdateAfter;
+		ttlFalseMillis       = ttlFalse;
+		invalidateOnWrite    = invalidate;
+
+		// Access order, so the eldest entry is the least recently used one
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() <= maxEntries) { return false; }
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+
+		hits          = new AtomicLong(0);
+		misses        = new AtomicLong(0);
+		expirations   = new AtomicLong(0);
+		evictions     = new AtomicLong(0);
+		invalidations = new AtomicLong(0);
+	}
+
+	public boolean isInvalidateOnWrite() { return invalidateOnWrite; }
+
+	public long getHitCount()          { return hits.get(); }
+	public long getMissCount()         { return misses.get(); }
+	public long getExpirationCount()   { return expirations.get(); }
+	public long getEvictionCount()     { return evictions.get(); }
+	public long getInvalidationCount() { return invalidations.get(); }
+
+	public double getHitRate() {
+		long lookups = hits.get() + misses.get();
+		return (lookups == 0) ? 0 : hits.get() / (double) lookups;
+	}
+
+	public synchronized int size() { return entries.size(); }
+
+	public String getSummary() {
+		return String.format("hit rate %.1f%% (%d hits, %d misses), %d expired, %d evicted, %d invalidations", getHitRate() * 100.0,
+				getHitCount(), getMissCount(), getExpirationCount(), getEvictionCount(), getInvalidationCount());
+	}
+
+	static String keyOf(ViewQuery query) {
+		return query.getDesign() + "/" + query.getView() + (query.isDevelopment() ? " (dev)" : "") + "?" + query;
+	}
+
+	// ViewQuery has no getter for stale, but it is one of the parameters it encodes
+	long timeToLive(ViewQuery query) {
+		String parameters = query.toString();
+		if (hasParameter(parameters, "stale=ok"))    { return ttlOkMillis; }
+		if (hasParameter(parameters, "stale=false")) { return ttlFalseMillis; }
+		return ttlUpdateAfterMillis;
+	}
+
+	static boolean hasParameter(String parameters, String p) {
+		return parameters.startsWith(p + "&") || parameters.equals(p) || parameters.contains("&" + p + "&") || parameters.endsWith("&" + p);
+	}
+
+	public boolean isCacheable(ViewQuery query) { return timeToLive(query) > 0; }
+
+	// The cached result of this query, null on a miss
+	public synchronized Entry lookup(ViewQuery query) {
+		String key = keyOf(query);
+		Entry e = entries.get(key);
+		if ((e != null) && (System.nanoTime() - e.expiresAtNanos >= 0)) {
+			entries.remove(key);
+			expirations.incrementAndGet();
+			e = null;
+		}
+		if (e == null) { misses.incrementAndGet(); } else { hits.incrementAndGet(); }
+		return e;
+	}
+
+	// Taken before the query is sent, and handed back to store()
+	public synchronized long generation() { return generation; }
+
+	// Keeps a result, unless there was an invalidation since the query was sent
+	public synchronized void store(ViewQuery query, List<Row> rows, int totalRows, JsonObject debug, long queryGeneration) {
+		if (queryGeneration != generation) { return; }
+		long ttl = timeToLive(query);
+		if (ttl <= 0) { return; }
+		entries.put(keyOf(query), new Entry(rows, totalRows, debug, System.nanoTime() + (ttl * 1000000L)));
+	}
+
+	public synchronized void invalidateAll() {
+		generation++;
+		invalidations.incrementAndGet();
+		entries.clear();
+	}
+
+	// Called by CachingBucket for every write that goes through it
+	public void writeCompleted() {
+		if (invalidateOnWrite) { invalidateAll(); }
+	}
+
+} // ViewResultCache
@@ -0,0 +1,20 @@
+// ViewRowConsumer
+//
+// Receives view rows one at a time as they arrive from the cluster, so that a full view
+// scan can be processed without first collecting every row into a List.
+// See the streaming constructor of CBFullViewQueryTimer.
+
+package com.couchbase.support;
+
+interface ViewRowConsumer {
+
+	// Called once per row, in the order the view returns them.  Implementations should not hold on
+	// to the row contents unless they need them, otherwise memory is no longer bounded.
+	void consumeRow(String id, Object key, Object value);
+
+	// Drops every row.  Use this to time a full view scan where only the row count matters.
+	ViewRowConsumer DISCARD = new ViewRowConsumer() {
+		public void consumeRow(String id, Object key, Object value) { }
+	};
+
+} // ViewRowConsumer
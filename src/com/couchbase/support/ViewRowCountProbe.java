@@ -0,0 +1,39 @@
+// ViewRowCountProbe
+//
+// Converged once a full view query returns at least the expected number of rows.  The rows are
+// streamed and discarded, only the count is kept.
+
+package com.couchbase.support;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.view.Stale;
+
+class ViewRowCountProbe implements ConvergenceProbe {
+
+	Bucket bucket;
+	String designDocName;
+	String viewName;
+	Stale  staleValue;
+	int    expectedRows;
+	int    lastRowCount;
+
+	public ViewRowCountProbe(Bucket b, String dn, String vn, Stale stl, int expected) {
+		bucket        = b;
+		designDocName = dn;
+		viewName      = vn;
+		staleValue    = stl;
+		expectedRows  = expected;
+		lastRowCount  = 0;
+	}
+
+	public int getLastRowCount() { return lastRowCount; }
+
+	public boolean hasConverged() throws Exception {
+		CBFullViewQueryTimer fvqt = new CBFullViewQueryTimer(bucket, designDocName, viewName, staleValue, ViewRowConsumer.DISCARD);
+		fvqt.performTest();
+		if (fvqt.didExceptionOccur()) { throw fvqt.getException(); }
+		lastRowCount = fvqt.getTotalResults();
+		return (lastRowCount >= expectedRows);
+	}
+
+} // ViewRowCountProbe
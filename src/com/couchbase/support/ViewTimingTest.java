@@ -3,6 +3,8 @@
 // ViewTimingTest
 // Developed with Couchbase Java SDK version 2.1.3 available from:
 // http://packages.couchbase.com/clients/java/2.1.3/Couchbase-Java-Client-2.1.3.zip
+// Per-operation latencies are recorded with HdrHistogram, available from:
+// http://hdrhistogram.org/
 //
 // Given a cluster, connect
 // Create a design document
@@ -15,26 +17,9 @@
 
 package com.couchbase.support;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
-
 import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.CouchbaseCluster;
-import com.couchbase.client.java.cluster.BucketSettings;
-import com.couchbase.client.java.cluster.ClusterManager;
-import com.couchbase.client.java.cluster.DefaultBucketSettings;
-import com.couchbase.client.java.document.Document;
-import com.couchbase.client.java.document.JsonDocument;
-import com.couchbase.client.java.document.json.JsonObject;
-import com.couchbase.client.java.view.DefaultView;
-import com.couchbase.client.java.view.DesignDocument;
 import com.couchbase.client.java.view.Stale;
-import com.couchbase.client.java.view.View;
-import com.couchbase.client.java.view.ViewQuery;
-import com.couchbase.client.java.view.ViewResult;
-import com.couchbase.client.java.view.ViewRow;
-import com.couchbase.client.java.bucket.BucketManager;
 
 
 public class ViewTimingTest {
@@ -56,6 +41,8 @@ public class ViewTimingTest {
 		
 		int    NUMDOCUMENTS       = 1000;
 		
+		long   POLLTIMEOUT        = 600000;	// ms, give up polling after this long
+		
 		// Connect to the cluster
 		CBConnectTimer ct = new CBConnectTimer(HOSTNAME);
 		runATimingClass(ct);
@@ -117,22 +104,18 @@ public class ViewTimingTest {
 		if (performPollingTest) {
 		logMessage("Performing polling test");	
 		// Query the view with Stale = Update After which is the default
-		int iterationCount         = 0;
-		boolean gotExpectedResults = false;
-		CBFullViewQueryTimer fvqt1 = null;
-		int resultsSeen            = 0;
 		int expectedResults        = 10;
-				
-		while (gotExpectedResults == false) {
-			fvqt1 = new CBFullViewQueryTimer(bucket, DESIGNDOCUMENTNAME, VIEWNAME, Stale.UPDATE_AFTER);
-			runATimingClass(fvqt1);
-			resultsSeen = fvqt1.getTotalResults();
-			if (resultsSeen == expectedResults) {
-				gotExpectedResults = true;
-				timeToGetCompleteResultSet = fvqt1.getElapsedTime();
-			} 
-			logMessage("Iteration " + iterationCount + ": The total results count was " + fvqt1.getTotalResults());
-			iterationCount++;
+
+		ExpectedResultCountProbe probe = new ExpectedResultCountProbe(bucket, DESIGNDOCUMENTNAME, VIEWNAME, expectedResults);
+		ConvergenceWaiter waiter = new ConvergenceWaiter(POLLTIMEOUT);
+
+		if (awaitConvergence(waiter, probe)) {
+			timeToGetCompleteResultSet = probe.lastQuery.getElapsedTime();
+			logMessage("The expected results were first observed " + waiter.getTimeToConverge() + " ms (+/- "
+					+ waiter.getUncertainty() + " ms) after polling started, after " + waiter.getPollCount() + " polls.");
+		}
+		else {
+			logMessage("Did not get the expected results within " + POLLTIMEOUT + " ms.");
 		}
 		}
 		
@@ -153,6 +136,48 @@ public class ViewTimingTest {
 		
 	} // end of main()
 	
+	// One poll: a full Stale.UPDATE_AFTER query, converged once it returns the expected number of rows
+	static class ExpectedResultCountProbe implements ConvergenceProbe {
+
+		Bucket bucket;
+		String designDocName;
+		String viewName;
+		int    expectedResults;
+
+		int                  iterationCount = 0;
+		CBFullViewQueryTimer lastQuery      = null;
+
+		ExpectedResultCountProbe(Bucket b, String dn, String vn, int expected) {
+			bucket          = b;
+			designDocName   = dn;
+			viewName        = vn;
+			expectedResults = expected;
+		}
+
+		public boolean hasConverged() {
+			lastQuery = new CBFullViewQueryTimer(bucket, designDocName, viewName, Stale.UPDATE_AFTER);
+			runATimingClass(lastQuery);
+			logMessage("Iteration " + iterationCount + ": The total results count was " + lastQuery.getTotalResults());
+			iterationCount++;
+			return (lastQuery.getTotalResults() == expectedResults);
+		}
+
+	} // ExpectedResultCountProbe
+
+	static boolean awaitConvergence(ConvergenceWaiter waiter, ConvergenceProbe probe) {
+		boolean converged = false;
+
+		try {
+			converged = waiter.await(probe);
+		} catch (Exception e) {
+			printCenteredBanner("An exception did occur");
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		return converged;
+	}
+	
 	static void runATimingClass(TimingClass tc) {
 		tc.performTest();
 		
@@ -166,6 +191,10 @@ public class ViewTimingTest {
 		}
 	
 		printCenteredBanner("Elapsed time: " + tc.getElapsedTime() + " ms.");		
+
+		if (tc.isOperationTimingEnabled()) {
+			logMessage(tc.getClass().getName() + " latency " + tc.getOperationLatencySummary());
+		}
 	}
 	
 	
@@ -189,250 +218,4 @@ public class ViewTimingTest {
 } // ViewTimingTest
 
 
-class TimingClass {
-	
-	long      startTime, endTime;
-	boolean   exceptionOccurred;
-	Exception caughtException;
-	
-	public TimingClass() {
-		startTime         = 0;
-		endTime           = 0;
-		caughtException   = null;
-		exceptionOccurred = false;
-	}
-	
-	public void startTiming() {		startTime = System.currentTimeMillis();    }
-	public void stopTiming()  {		endTime   = System.currentTimeMillis();    }
-
-	public long getElapsedTime() { 
-		return (endTime - startTime);
-	}
-	
-	public boolean didExceptionOccur() { return exceptionOccurred; }
-	
-	public Exception getException() { return caughtException; }
-	
-	// override in subclass
-	public void doTheWork() throws Exception {
-		ViewTimingTest.printCenteredBanner("This is where you do something");
-	}
-	
-	public void performTest() {
-		
-		ViewTimingTest.printCenteredBanner(this.getClass().getName());
-
-		// call the method that can be overridden
-		startTiming();
-		try {
-			doTheWork();
-		} catch (Exception e) {
-			caughtException = e;
-			exceptionOccurred = true;
-		}
-		stopTiming();
-	}
-	
-} // TimingClass
-
-class CBSingleGetItemsTimer extends TimingClass {
-	String[] ids;
-	Bucket bucket;
-	int successCount;
-	
-	public CBSingleGetItemsTimer(Bucket b, String[] idList) {
-		bucket = b;
-		ids = idList;
-		successCount = 0;
-	}
-		
-	public int getSuccessCount() { return successCount; }
-	
-	public void doTheWork() throws Exception {
-		Document d;
-		for (int i = 0; i < ids.length; i++) {
-			d = bucket.get(ids[i]);
-			if (d != null) { successCount++; }
-		}
-	}
-}
-
-
-class CBConnectTimer extends TimingClass {
-
-	CouchbaseCluster sourceCluster;
-	String hostName;
-	
-	public CBConnectTimer(String s) {
-		hostName = s;
-	}
-	
-	public CouchbaseCluster getCluster() { return sourceCluster; };
-	
-	public void doTheWork() throws Exception {
-		sourceCluster = CouchbaseCluster.create(hostName);
-	}
-
-} // CBConnectTimer
-
-
-
-class CBOpenBucketTimer extends TimingClass {
-	
-	CouchbaseCluster myCluster;
-	Bucket bucket;
-	String bucketName;
-	
-	// Given a cluster and a bucket name, open the bucket
-	public CBOpenBucketTimer(CouchbaseCluster c, String bName) {
-		myCluster  = c;
-		bucketName = bName;
-	}
-	
-	public Bucket getBucket() { return bucket; };
-	
-	public void doTheWork() throws Exception {
-		bucket = myCluster.openBucket(bucketName);	
-	}
-	
-}
-
-
-class CBCreateBucketTimer extends TimingClass {
-
-	// This is for bucket creation only.
-	
-	CouchbaseCluster myCluster;
-	String bucketName;
-	String u;
-	String p;
-	
-	int bucketQuota = 100; // megabytes
-	
-	// Given a cluster and a bucket name, open the bucket
-	public CBCreateBucketTimer(CouchbaseCluster c, String bName, String un, String pw) {
-		myCluster  = c;
-		bucketName = bName;
-		u = un;
-		p = pw;
-	}
-	
-	public void doTheWork() throws Exception {
-		DefaultBucketSettings.Builder bb = DefaultBucketSettings.builder();
-		bb.name(bucketName);
-		bb.quota(bucketQuota);
-		BucketSettings bs = bb.build();
-		
-		ClusterManager cm = myCluster.clusterManager(u,p);
-		cm.insertBucket(bs);
-		
-	}
-	
-}
-
-
-class CBFullViewQueryTimer extends TimingClass {
-	
-	Bucket bucket;
-	String designDocName;
-	String viewName;
-	int totalResults;
-	Stale staleValue;
-	
-	public CBFullViewQueryTimer(Bucket b, String dn, String vn, Stale stl) {
-		bucket        = b;
-		designDocName = dn;
-		viewName      = vn;
-		totalResults  = 0;
-		staleValue = stl;
-	}
-
-	public int getTotalResults() { return totalResults; }
-	
-	public void doTheWork() throws Exception {
-
-		// Perform the ViewQuery
-		ViewResult result = bucket.query(ViewQuery.from(designDocName, viewName).stale(staleValue));
-
-		//boolean  success = result.success();
-		//JsonObject debug = result.debug();
-		//int    totalRows = result.totalRows();
-				
-		// Iterate through the returned ViewRows
-		for (ViewRow row : result) {
-		    System.out.println(row);
-		    totalResults++;
-		}
-	}
-	
-} // CBFullViewQueryTimer
-
-
-class CBPopulateBucketTimer extends TimingClass {
-	
-	Bucket bucket;
-	int numDocumentsToInsert;
-	
-	public CBPopulateBucketTimer(Bucket b, int numDocs) {
-		bucket = b;
-		numDocumentsToInsert = numDocs;
-	}
-	
-	
-	public void doTheWork() throws Exception {
-	
-		String DOCUMENTNAMEPREFIX = "testDocument";
-		String jsonDocumentString = "";
-		String documentKey        = "";
-		JsonObject jsonObject     = null;
-		
-		for (int i = 0; i < numDocumentsToInsert; i++) {
-	
-			// create a document
-			documentKey = DOCUMENTNAMEPREFIX + i;
-			jsonDocumentString = "{ \"name\" : \"testDocument\", \"serialNumber\" : " + i + " }";
-			jsonObject = JsonObject.fromJson(jsonDocumentString);
-			JsonDocument jsonDocument = JsonDocument.create(documentKey, jsonObject);
-
-			// insert the document
-			bucket.insert(jsonDocument);			
-			
-		} // for each document
-		
-	} // doTheWork
-	
-} // populate a bucket
-
-
-
-class CBCreateDesignDocumentTimer extends TimingClass {
-	
-	Bucket bucket;
-	String designDocumentName;
-	String viewName;
-	String mapFunction;
-	
-	public CBCreateDesignDocumentTimer(Bucket b, String ddn, String vn, String mf) {
-		bucket             = b;
-		designDocumentName = ddn;
-		viewName           = vn;
-		mapFunction        = mf;
-	}
-	
-	public void doTheWork() throws Exception {
-		
-		View v = DefaultView.create(viewName, mapFunction);
-		
-		List<View> listOfViews = new ArrayList<View>();
-		listOfViews.add(v);
-		
-		DesignDocument dd = DesignDocument.create(designDocumentName, listOfViews);
-		
-		BucketManager bm = bucket.bucketManager();
-		bm.insertDesignDocument(dd);
-	}
-	
-}
-
-
 // EOF
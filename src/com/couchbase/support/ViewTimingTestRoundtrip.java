@@ -7,6 +7,8 @@
 //
 // Developed with Couchbase Java SDK version 2.1.3 available from:
 // http://packages.couchbase.com/clients/java/2.1.3/Couchbase-Java-Client-2.1.3.zip
+// Per-operation latencies are recorded with HdrHistogram, available from:
+// http://hdrhistogram.org/
 //
 // Given a cluster, connect
 // Create a bucket
@@ -18,7 +20,8 @@
 // Query the bucket for some of the items
 // Compare getting items individually vs. getting same items from a specific view
 
-// TODO: A way to measure how long it takes document *deletion* to reflect in a View
+// How long document *deletion* takes to reflect in a View is measured for one document with a
+// KeyAbsentProbe, and for many at once with CBDeletePropagationTimer (performBulkDeleteTest).
 
 // Note:  This program does create a bucket, a design document, and a view, so you do need some
 // sufficient RAM in the server quota to accommodate this new bucket's bucket quota for RAM.
@@ -64,42 +67,40 @@
 
 package com.couchbase.support;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import org.HdrHistogram.Histogram;
+
 import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.CouchbaseCluster;
-import com.couchbase.client.java.cluster.BucketSettings;
-import com.couchbase.client.java.cluster.ClusterManager;
-import com.couchbase.client.java.cluster.DefaultBucketSettings;
-import com.couchbase.client.java.document.JsonDocument;
-import com.couchbase.client.java.document.json.JsonObject;
-import com.couchbase.client.java.view.DefaultView;
-import com.couchbase.client.java.view.DesignDocument;
 import com.couchbase.client.java.view.Stale;
 import com.couchbase.client.java.view.View;
 import com.couchbase.client.java.view.ViewQuery;
-import com.couchbase.client.java.view.ViewResult;
 import com.couchbase.client.java.view.ViewRow;
-import com.couchbase.client.java.bucket.BucketManager;
-import com.google.gson.Gson;
-import com.google.gson.JsonParser;
+
 
 public class ViewTimingTestRoundtrip {
 
 	static final int SCREENCOLUMNS = 100;	// adjust to fit your terminal
 
+	// Set from RESULTSDIRECTORY; every named timer run is recorded in it as well, see runATimingClass()
+	static ResultsSink resultsSink = null;
+
 	public static void main(String[] args) {
 
 		long programAbsoluteStart = System.currentTimeMillis();
 
-		Gson gson = new Gson();
-
 		String HOSTNAME           = "10.111.90.101";       // Put your cluster IP address here
 		String USERNAME           = "Administrator";
 		String PASSWORD           = "couchbase";        // Put your password here
 		String BUCKETNAMEPREFIX   = "testBucket";		// The actual bucket name will be, say, testBucket585
 		int    MAXBUCKETNUMBER    = 1000;        
+		int    BUCKETQUOTA        = 100;			// megabytes; must hold NUMDOCUMENTS, and the largest INDEXSWEEPDOCUMENTS for the sweep
 
 		String DESIGNDOCUMENTNAME = "dd1";
 		String VIEWNAME           = "vn1";
@@ -111,35 +112,194 @@ public class ViewTimingTestRoundtrip {
 
 		int    NUMDOCUMENTS       = 100;				// The number of documents to create in the bucket
 
-		// Connect to the cluster
-		CBConnectTimer ct = new CBConnectTimer(HOSTNAME);
-		runATimingClass(ct);
-		CouchbaseCluster cluster = ct.getCluster();
-		long timeToConnect = ct.getElapsedTime();
+		boolean useBulkLoader     = false;			// true: populate with CBBulkLoadTimer instead of CBPopulateBucketTimer
+		int    BULKLOADINFLIGHT   = 128;			// Maximum number of outstanding async inserts
+		int    BULKLOADBATCHSIZE  = 1000;			// Documents per reported batch
+		int    DOCUMENTSIZE       = 0;				// bytes, pad documents to about this size (0: name, serialNumber and creationDate only)
+		int    DOCUMENTFIELDS     = 1;				// filler fields per object of a padded document
+		int    DOCUMENTNESTING    = 0;				// levels of nested objects in a padded document
+
+		boolean useReactivePipeline = false;		// true: create the design document, populate and wait for the view as one RxJava pipeline (CBReactivePipelineTimer)
+		int    PIPELINEINFLIGHT   = 128;			// Maximum number of outstanding inserts in the pipeline
+
+		boolean streamViewRows    = false;			// true: time the full Stale.FALSE query in streaming mode, without keeping the rows
+		boolean printViewRows     = false;			// true: print every row of the full view queries (after timing)
+		boolean printRowTimestamps = false;		// true: print the timestamps of every row while analyzing the polling results
+
+		boolean performMultiGetComparison = false;	// true: compare async multi-get with view key queries, see runMultiGetComparison()
+		int[]  COMPARISONKEYCOUNTS = { 10, 1000, 100000 };	// Capped at NUMDOCUMENTS
+		int    MULTIGETCONCURRENCY = 64;			// Maximum number of outstanding async gets
+		int    VIEWKEYSPERQUERY    = 1000;			// Keys sent in each ViewQuery.keys() request
+
+		boolean performPaginatedScan = false;		// true: drain the view in pages, sequentially and split into parallel key ranges
+		int    SCANPAGESIZE       = 1000;			// Rows per page
+		int    SCANRANGES         = 4;				// Number of key ranges scanned in parallel
+
+		long   POLLINITIALDELAY   = 50;				// ms before the second poll of a polling test
+		long   POLLMAXDELAY       = 5000;			// ms, upper bound for the backoff between polls
+		double POLLBACKOFFFACTOR  = 2.0;			// The delay between polls grows by this factor
+		long   POLLTIMEOUT        = 600000;			// ms, give up polling after this long
+
+		boolean performBulkDeleteTest = false;		// true: after the single delete, delete many documents and time their removal from the view
+		int    BULKDELETECOUNT    = 50;				// Documents to delete, taken from the end of the bucket
+		int    BULKDELETECONCURRENCY = 16;			// Maximum number of outstanding async removes, 1 for sequential blocking removes
+
+		boolean performLatencyMonitor = false;		// true: run the continuous writer + poller index latency monitor at the end
+		int    MONITORDOCUMENTS   = 10;				// Documents the writer cycles through
+		double MONITORWRITERATE   = 20.0;			// Writes per second
+		long   MONITORPOLLINTERVAL   = 250;			// ms between the end of one poll and the start of the next
+		long   MONITORREPORTINTERVAL = 5000;		// ms between reports
+		int    MONITORWINDOW      = 12;				// Report intervals in the sliding window (12 x 5 s = 1 minute)
+		long   MONITORDURATION    = 600000;			// ms, total run time of the monitor
+
+		boolean performOpenLoopTest = false;		// true: drive gets, inserts and view queries at a fixed rate at the end, see runOpenLoopTests()
+		double OPENLOOPKVRATE     = 1000.0;			// gets and inserts per second
+		double OPENLOOPQUERYRATE  = 50.0;			// view queries per second
+		long   OPENLOOPDURATION   = 30000;			// ms per operation type
+		int    OPENLOOPMAXINFLIGHT = 10000;		// outstanding requests before the schedule slips
+
+		boolean performMixedWorkload = false;		// true: run inserts, gets, removes and view queries together at rising write weights, see runMixedWorkloadTests()
+		int[][] MIXEDWORKLOADWEIGHTS = {			// insert, get, remove, full view query; one run per row
+				{  0, 20, 0, 5 },
+				{ 10, 20, 1, 5 },
+				{ 35, 20, 3, 5 },
+				{ 70, 20, 5, 5 } };
+		int    MIXEDWORKERS       = 16;				// Worker threads, each with one request outstanding
+		long   MIXEDDURATION      = 30000;			// ms per run
+
+		boolean performThreadingComparison = false;	// true: compare virtual threads, a platform thread pool and the async API, see runThreadingComparison()
+		int    THREADINGDOCUMENTS   = 10000;		// Documents got, inserted and removed in each mode
+		int    THREADINGCONCURRENCY = 10000;		// Maximum number of outstanding operations in every mode
+		int    PLATFORMPOOLSIZE     = 200;			// Threads of the platform pool
+
+		boolean performViewCacheComparison = false;	// true: run view queries and upserts without and with a ViewResultCache, see runViewCacheComparison()
+		int[]  VIEWCACHEWEIGHTS   = { 45, 45, 10 };	// full view query, single key view query, upsert
+		int    VIEWCACHEENTRIES   = 10000;			// Results the cache keeps
+		long   VIEWCACHETTLOK     = 10000;			// ms a stale=ok result is used for
+		long   VIEWCACHETTLUPDATEAFTER = 1000;		// ms a stale=update_after result is used for
+		int    VIEWCACHEWORKERS   = 16;				// Worker threads, each with one request outstanding
+		long   VIEWCACHEDURATION  = 20000;			// ms per run
+
+		boolean performStaleTradeoffMatrix = false;	// true: query with stale=ok, update_after and false under the same write load, see runStaleTradeoffMatrix()
+		double STALETRADEOFFWRITERATE = 100.0;		// New documents written per second
+		int    STALETRADEOFFRECENT    = 100;		// The most recent writes each query result is checked for
+		int    STALETRADEOFFWORKERS   = 4;			// Query threads, each with one full view query outstanding
+		long   STALETRADEOFFDURATION  = 30000;		// ms per stale setting
+
+		boolean performAggregationComparison = false;	// true: reduce views queried with grouping against the same aggregates computed here, see runAggregationComparison()
+		String AGGREGATIONMAPFUNCTION = "function (doc, meta) { emit([doc.serialNumber % 10, doc.serialNumber % 100], doc.serialNumber); }";
+		String[][] AGGREGATIONVIEWS = {			// view name, reduce function, the aggregate to compute on the client
+				{ "count",     "_count", "_count" },
+				{ "sum",       "_sum",   "_sum" },
+				{ "stats",     "_stats", "_stats" },
+				{ "customSum", "function (keys, values, rereduce) { return sum(values); }", "_sum" } };
+		int[]  AGGREGATIONGROUPLEVELS = { 0, 1, CBAggregationTimer.GROUPEXACT };	// no grouping, the first key element, the whole key
+		int    AGGREGATIONREPEATS = 10;			// Queries per measurement
+
+		boolean performIndexBuildSweep = false;	// true: time building views from nothing over ever more documents, see runIndexBuildSweep()
+		int[]  INDEXSWEEPDOCUMENTS = { 10000, 100000, 1000000, 10000000 };	// BUCKETQUOTA must hold the largest
+		String[][] INDEXSWEEPMAPFUNCTIONS = {		// name, map function; each is built on its own at every document count
+				{ "full document", "function (doc, meta) { emit(meta.id, doc); }" },
+				{ "1% filter",     "function (doc, meta) { if ((doc.serialNumber % 100) == 0) { emit(meta.id, doc); } }" },
+				{ "key only",      "function (doc, meta) { emit(meta.id, null); }" } };
+		long   INDEXBUILDTIMEOUT  = 3600000;		// ms, give up on a single build after this long
+
+		boolean performIndexContentionTest = false;	// true: build and query K design documents of V views each, see runIndexContentionTest()
+		int[][] CONTENTIONCONFIGS = { { 1, 1 }, { 1, 4 }, { 4, 1 }, { 4, 4 }, { 1, 16 }, { 16, 1 } };	// design documents, views per design document
+		double CONTENTIONWRITERATE    = 20.0;		// Writes per second, cycling through the first CONTENTIONDOCUMENTS documents
+		int    CONTENTIONDOCUMENTS    = 10;			// Documents written and looked for by every design document's poller
+		long   CONTENTIONPOLLINTERVAL = 250;		// ms between the Stale.FALSE queries of each design document
+		long   CONTENTIONDURATION     = 30000;		// ms of writing and polling per configuration, after the build
+
+		String RESULTSDIRECTORY   = null;			// also write CSV, JSON and HdrHistogram log results here (see ResultsSink), null for none
+
+		boolean useInMemoryBucket = false;			// true: run against an InMemoryBucket, no cluster needed (JavaScript engine required, see ScriptedViewMapFunction)
+		long   INMEMORYINDEXDELAY     = 0;			// ms each in-memory index update takes
+		long   INMEMORYUPDATEINTERVAL = 5000;		// ms between background in-memory index updates, 0 for none
+
+		CouchbaseCluster cluster = null;
+		Bucket bucket = null;
+		long timeToConnect      = 0;
+		long timeToCreateBucket = 0;
+		long timeToOpenBucket   = 0;
+
+		if (RESULTSDIRECTORY != null) {
+			try {
+				Path dir = Paths.get(RESULTSDIRECTORY);
+				resultsSink = new ResultsSink(dir, dir.getFileName().toString());
+			} catch (IOException e) {
+				printCenteredBanner("Could not create the results in " + RESULTSDIRECTORY);
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
 
-		// Come up with a bucket name and create a bucket
+		// Come up with a bucket name
 		int randomIdentifier = (int) (Math.random() * MAXBUCKETNUMBER);
 		String newBucketName = BUCKETNAMEPREFIX + randomIdentifier;
 		printCenteredBanner("The Bucket name for this test is " + newBucketName);
-		CBCreateBucketTimer cbt = new CBCreateBucketTimer(cluster, newBucketName, USERNAME, PASSWORD);
-		runATimingClass(cbt);
-		long timeToCreateBucket = cbt.getElapsedTime();
 
-		// Open the new bucket
-		CBOpenBucketTimer bt = new CBOpenBucketTimer(cluster, newBucketName);
-		runATimingClass(bt);
-		Bucket bucket = bt.getBucket();
-		long timeToOpenBucket = bt.getElapsedTime();
+		if (useInMemoryBucket) {
+			logMessage("Using an in-memory bucket, there is no cluster to connect to.");
+			bucket = new InMemoryBucket(newBucketName, INMEMORYINDEXDELAY, INMEMORYUPDATEINTERVAL).getBucket();
+		}
+		else {
+			// Connect to the cluster
+			CBConnectTimer ct = new CBConnectTimer(HOSTNAME);
+			runATimingClass("connect", ct);
+			cluster = ct.getCluster();
+			timeToConnect = ct.getElapsedTime();
+
+			// Create the bucket
+			CBCreateBucketTimer cbt = new CBCreateBucketTimer(cluster, newBucketName, USERNAME, PASSWORD, BUCKETQUOTA);
+			runATimingClass("create bucket", cbt);
+			timeToCreateBucket = cbt.getElapsedTime();
+
+			// Open the new bucket
+			CBOpenBucketTimer bt = new CBOpenBucketTimer(cluster, newBucketName);
+			runATimingClass("open bucket", bt);
+			bucket = bt.getBucket();
+			timeToOpenBucket = bt.getElapsedTime();
+		}
+
+		long timeToCreateDesignDocument = 0;
+		long timeToPopulateBucket = 0;
+
+		DocumentGenerator generator = new DocumentGenerator(DOCUMENTSIZE, DOCUMENTFIELDS, DOCUMENTNESTING);
 
-		// Create a Prod design document and View on the Bucket
-		CBCreateDesignDocumentTimer cddt = new CBCreateDesignDocumentTimer(bucket, DESIGNDOCUMENTNAME, VIEWNAME, MAPFUNCTION);
-		runATimingClass(cddt);
-		long timeToCreateDesignDocument = cddt.getElapsedTime();
+		if (useReactivePipeline) {
+			// Design document, populate and the wait for a complete view in one go; the steps below then find the view complete
+			CBReactivePipelineTimer rpt = new CBReactivePipelineTimer(bucket, DESIGNDOCUMENTNAME, VIEWNAME, MAPFUNCTION, NUMDOCUMENTS,
+					PIPELINEINFLIGHT, generator, Stale.UPDATE_AFTER, POLLINITIALDELAY, POLLMAXDELAY, POLLTIMEOUT);
+			runATimingClass("reactive pipeline", rpt);
+			timeToCreateDesignDocument = (long) rpt.getDesignDocumentTime();
+			timeToPopulateBucket       = (long) rpt.getPopulateTime();
+			logReactivePipelineResults(rpt);
+		}
+		else {
+			// Create a Prod design document and View on the Bucket
+			CBCreateDesignDocumentTimer cddt = new CBCreateDesignDocumentTimer(bucket, DESIGNDOCUMENTNAME, VIEWNAME, MAPFUNCTION);
+			runATimingClass("create design document", cddt);
+			timeToCreateDesignDocument = cddt.getElapsedTime();
+		}
 
 		// Insert data into the bucket
-		CBPopulateBucketTimer fbt = new CBPopulateBucketTimer(bucket, NUMDOCUMENTS);
-		runATimingClass(fbt);
-		long timeToPopulateBucket = fbt.getElapsedTime();
+		if (useReactivePipeline) {
+			// Done by the pipeline
+		}
+		else if (useBulkLoader) {
+			CBBulkLoadTimer blt = new CBBulkLoadTimer(bucket, NUMDOCUMENTS, BULKLOADINFLIGHT, BULKLOADBATCHSIZE, generator);
+			runATimingClass("bulk load", blt);
+			timeToPopulateBucket = blt.getElapsedTime();
+			logMessage("Bulk load: " + blt.getSuccessCount() + " documents at " + (long) blt.getDocumentsPerSecond() + " docs/sec.");
+			logMessage("Bulk load batch latency over " + blt.getBatchCount() + " batches: min " + blt.getMinBatchLatency()
+					+ " ms. avg " + blt.getAverageBatchLatency() + " ms. max " + blt.getMaxBatchLatency() + " ms.");
+		}
+		else {
+			CBPopulateBucketTimer fbt = new CBPopulateBucketTimer(bucket, NUMDOCUMENTS, generator);
+			runATimingClass("populate", fbt);
+			timeToPopulateBucket = fbt.getElapsedTime();
+		}
 
 		// Get some specific items
 		String[] listOfDocumentIds = {
@@ -156,55 +316,53 @@ public class ViewTimingTestRoundtrip {
 		};
 
 		CBSingleGetItemsTimer sgit = new CBSingleGetItemsTimer(bucket, listOfDocumentIds);
-		runATimingClass(sgit);
+		runATimingClass("single gets", sgit);
 		logMessage("The success count was " + sgit.getSuccessCount());
 		long timeToSingleGetItems = sgit.getElapsedTime();
 
 		// Query the view with Stale = False
-		CBFullViewQueryTimer fvqt2 = new CBFullViewQueryTimer(bucket, DESIGNDOCUMENTNAME, VIEWNAME, Stale.FALSE);
-		runATimingClass(fvqt2);
+		CBFullViewQueryTimer fvqt2 = null;
+		if (streamViewRows) {
+			fvqt2 = new CBFullViewQueryTimer(bucket, DESIGNDOCUMENTNAME, VIEWNAME, Stale.FALSE, ViewRowConsumer.DISCARD);
+		}
+		else {
+			fvqt2 = new CBFullViewQueryTimer(bucket, DESIGNDOCUMENTNAME, VIEWNAME, Stale.FALSE);
+		}
+		runATimingClass("full view query", fvqt2);
+		if (printViewRows) { fvqt2.printRows(); }
 		logMessage("The total results count was " + fvqt2.getTotalResults());
 		long timeToFullViewQuery = fvqt2.getElapsedTime();
 
+		if (performMultiGetComparison) {
+			runMultiGetComparison(bucket, DESIGNDOCUMENTNAME, VIEWNAME, NUMDOCUMENTS, COMPARISONKEYCOUNTS, MULTIGETCONCURRENCY, VIEWKEYSPERQUERY);
+		}
+
+		if (performPaginatedScan) {
+			runPaginatedScan(bucket, DESIGNDOCUMENTNAME, VIEWNAME, SCANPAGESIZE, SCANRANGES);
+		}
+
 		boolean performPollingTest = true;
 		long timeToGetCompleteResultSet = 0;  
 
 		if (performPollingTest) {
 			logMessage("Performing polling test");	
-			// Query the view with Stale = Update After which is the default
-			int iterationCount         = 0;
-			boolean gotExpectedResults = false;
-			CBFullViewQueryTimer fvqt1 = null;
-			int resultsSeen            = 0;
 			int expectedResults        = NUMDOCUMENTS;
 
-			logMessage("I am expecting " + expectedResults + " results.  Pausing one minute.");
+			logMessage("I am expecting " + expectedResults + " results.");
 
-			// one minute pause
-			try {
-				Thread.sleep(60000);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-
-			// Keep iterating until you get the expected results
-			while (gotExpectedResults == false) {
-				fvqt1 = new CBFullViewQueryTimer(bucket, DESIGNDOCUMENTNAME, VIEWNAME, Stale.FALSE);
-				runATimingClass(fvqt1);
-				resultsSeen = fvqt1.getTotalResults();  // Look at the count of results that were gotten
-				if (resultsSeen == expectedResults) {
-					gotExpectedResults = true;
-					timeToGetCompleteResultSet = fvqt1.getElapsedTime();
-				} 
-				logMessage("Iteration " + iterationCount + ": The total results count was " + fvqt1.getTotalResults());
-				iterationCount++;
-
-				// Analyze these results
-				analyzeTimestampsInResults(gson, fvqt1.getViewResult());
+			// Keep polling, with backoff, until you get the expected results
+			ExpectedResultCountProbe resultsProbe = new ExpectedResultCountProbe(bucket, DESIGNDOCUMENTNAME, VIEWNAME, expectedResults, printViewRows, printRowTimestamps);
+			ConvergenceWaiter resultsWaiter = new ConvergenceWaiter(POLLINITIALDELAY, POLLMAXDELAY, POLLBACKOFFFACTOR, POLLTIMEOUT);
 
+			if (awaitConvergence(resultsWaiter, resultsProbe)) {
+				timeToGetCompleteResultSet = resultsProbe.lastQuery.getElapsedTime();
+				logMessage("Got the expected results.  Done with polling test.");
+				logMessage("The complete result set was first observed " + resultsWaiter.getTimeToConverge() + " ms (+/- "
+						+ resultsWaiter.getUncertainty() + " ms) after polling started, after " + resultsWaiter.getPollCount() + " polls.");
+			}
+			else {
+				logMessage("Did not get the expected results within " + POLLTIMEOUT + " ms (" + resultsWaiter.getPollCount() + " polls).");
 			}
-
-			logMessage("Got the expected results.  Done with polling test.");
 
 		}
 
@@ -223,34 +381,87 @@ public class ViewTimingTestRoundtrip {
 		// Delete an item
 		String itemToDelete = "testDocument0";
 		CBDeleteItemTimer delItem = new CBDeleteItemTimer(bucket, itemToDelete);
-		runATimingClass(delItem);
+		runATimingClass("delete item", delItem);
 		long timeToDelete = delItem.getElapsedTime();
 		logMessage("Time to delete:                                          " + timeToDelete + " ms.");
 
 		// Poll for results.  Is the delete reflected?
-		boolean itemDeletedYet = false;
+		KeyAbsentProbe deleteProbe = new KeyAbsentProbe(bucket, DESIGNDOCUMENTNAME, VIEWNAME, itemToDelete);
+		ConvergenceWaiter deleteWaiter = new ConvergenceWaiter(POLLINITIALDELAY, POLLMAXDELAY, POLLBACKOFFFACTOR, POLLTIMEOUT);
 
-		while (itemDeletedYet == false) {
-			boolean foundTheItem = false;
-			System.out.println("Checking to see if the item appears in the full view query results...");
-			fvqt2 = new CBFullViewQueryTimer(bucket, DESIGNDOCUMENTNAME, VIEWNAME, Stale.FALSE);
-			runATimingClass(fvqt2);
-			foundTheItem = fvqt2.containsKey(itemToDelete);
+		if (awaitConvergence(deleteWaiter, deleteProbe)) {
+			// The waiter started right after the delete returned
+			logMessage("The delete was first reflected in the view " + deleteWaiter.getTimeToConverge() + " ms (+/- "
+					+ deleteWaiter.getUncertainty() + " ms) after the delete completed, after " + deleteWaiter.getPollCount() + " polls.");
+		}
+		else {
+			logMessage("The delete was not reflected in the view within " + POLLTIMEOUT + " ms.");
+		}
 
-			if (foundTheItem) {
-				// Found the item.  Loop again.
-				System.out.println("The item appeared in the list.  NOT deleted yet.");
-			}
-			else {
-				System.out.println("The item did not appear in the list.  It IS deleted.");
-				// Didn't find the item.  We can stop now.
-				itemDeletedYet = true;
-			}
+		if (performBulkDeleteTest) {
+			int numToDelete = Math.min(BULKDELETECOUNT, NUMDOCUMENTS - 1);	// testDocument0 is already gone
+			String[] keysToDelete = new String[numToDelete];
+			for (int i = 0; i < numToDelete; i++) { keysToDelete[i] = "testDocument" + (NUMDOCUMENTS - 1 - i); }
+
+			ConvergenceWaiter bulkDeleteWaiter = new ConvergenceWaiter(POLLINITIALDELAY, POLLMAXDELAY, POLLBACKOFFFACTOR, POLLTIMEOUT);
+			CBDeletePropagationTimer dpt = new CBDeletePropagationTimer(bucket, DESIGNDOCUMENTNAME, VIEWNAME, keysToDelete,
+					BULKDELETECONCURRENCY, VIEWKEYSPERQUERY, bulkDeleteWaiter);
+			runATimingClass("bulk delete propagation", dpt);
+			logMessage("Bulk delete: " + dpt.getRemovedFromIndexCount() + " of " + numToDelete + " deletes reflected in the view after "
+					+ dpt.getPollCount() + " polls, " + dpt.getOutstandingCount() + " still outstanding.");
+			logMessage("Delete -> index removal " + dpt.getPropagationSummary());
+		}
+
+		if (performLatencyMonitor) {
+			CBIndexLatencyMonitor ilm = new CBIndexLatencyMonitor(bucket, DESIGNDOCUMENTNAME, VIEWNAME, Stale.FALSE,
+					MONITORDOCUMENTS, MONITORWRITERATE, MONITORPOLLINTERVAL, MONITORREPORTINTERVAL, MONITORWINDOW, MONITORDURATION);
+			runATimingClass("index latency monitor", ilm);
+			logMessage("Latency monitor: " + ilm.getWriteCount() + " writes, " + ilm.getPollCount() + " polls, "
+					+ ilm.getClockSkewCount() + " samples with clock skew.");
+		}
+
+		if (performOpenLoopTest) {
+			runOpenLoopTests(bucket, DESIGNDOCUMENTNAME, VIEWNAME, NUMDOCUMENTS, OPENLOOPKVRATE, OPENLOOPQUERYRATE,
+					OPENLOOPDURATION, OPENLOOPMAXINFLIGHT);
+		}
+
+		if (performMixedWorkload) {
+			runMixedWorkloadTests(bucket, DESIGNDOCUMENTNAME, VIEWNAME, NUMDOCUMENTS, MIXEDWORKLOADWEIGHTS, MIXEDWORKERS, MIXEDDURATION);
+		}
+
+		if (performThreadingComparison) {
+			runThreadingComparison(bucket, NUMDOCUMENTS, THREADINGDOCUMENTS, THREADINGCONCURRENCY, PLATFORMPOOLSIZE);
+		}
+
+		if (performViewCacheComparison) {
+			runViewCacheComparison(bucket, DESIGNDOCUMENTNAME, VIEWNAME, NUMDOCUMENTS, VIEWCACHEWEIGHTS, VIEWCACHEENTRIES, VIEWCACHETTLOK,
+					VIEWCACHETTLUPDATEAFTER, VIEWCACHEWORKERS, VIEWCACHEDURATION);
+		}
+
+		if (performStaleTradeoffMatrix) {
+			runStaleTradeoffMatrix(bucket, DESIGNDOCUMENTNAME, VIEWNAME, NUMDOCUMENTS, STALETRADEOFFWRITERATE, STALETRADEOFFRECENT,
+					STALETRADEOFFWORKERS, STALETRADEOFFDURATION);
+		}
+
+		if (performAggregationComparison) {
+			runAggregationComparison(bucket, AGGREGATIONMAPFUNCTION, AGGREGATIONVIEWS, AGGREGATIONGROUPLEVELS, AGGREGATIONREPEATS,
+					useInMemoryBucket);
+		}
+
+		if (performIndexBuildSweep) {
+			runIndexBuildSweep(bucket, INDEXSWEEPDOCUMENTS, INDEXSWEEPMAPFUNCTIONS, BULKLOADINFLIGHT, BULKLOADBATCHSIZE, generator,
+					INDEXBUILDTIMEOUT);
+		}
+
+		if (performIndexContentionTest) {
+			runIndexContentionTest(bucket, CONTENTIONCONFIGS, CBIndexContentionTimer.DEFAULTMAPFUNCTIONS, CONTENTIONWRITERATE,
+					CONTENTIONDOCUMENTS, CONTENTIONPOLLINTERVAL, CONTENTIONDURATION, INDEXBUILDTIMEOUT);
 		}
 
 		// Clean up		
 		bucket.close();
-		cluster.disconnect();
+		if (cluster != null) { cluster.disconnect(); }
+		closeResults();
 
 		long programAbsoluteFinish = System.currentTimeMillis();
 
@@ -260,388 +471,684 @@ public class ViewTimingTestRoundtrip {
 	} // end of main()
 
 
-	static void analyzeTimestampsInResults(Gson gson, List<ViewRow> result) {
+	// One poll of the polling test: a full Stale.FALSE query, converged once it returns the expected number of rows
+	static class ExpectedResultCountProbe implements ConvergenceProbe {
 
-		int resultsLookedAt = 0;
+		Bucket  bucket;
+		String  designDocName;
+		String  viewName;
+		int     expectedResults;
+		boolean printRows;
+		boolean printTimestamps;
 
-		printCenteredBanner("About to analyze results");
+		int                  iterationCount = 0;
+		CBFullViewQueryTimer lastQuery      = null;
 
-		JsonParser jp = new JsonParser(); 
+		ExpectedResultCountProbe(Bucket b, String dn, String vn, int expected, boolean print, boolean printEachTimestamp) {
+			bucket          = b;
+			designDocName   = dn;
+			viewName        = vn;
+			expectedResults = expected;
+			printRows       = print;
+			printTimestamps = printEachTimestamp;
+		}
 
-		// Deliberately unlikely values
-		long minimumDiff = 1000000;
-		long maximumDiff = 0;
+		public boolean hasConverged() {
+			lastQuery = new CBFullViewQueryTimer(bucket, designDocName, viewName, Stale.FALSE);
+			runATimingClass(null, lastQuery);
+			if (printRows) { lastQuery.printRows(); }
 
-		for (ViewRow vr : result) {
-			resultsLookedAt++;
+			int resultsSeen = lastQuery.getTotalResults();  // Look at the count of results that were gotten
+			logMessage("Iteration " + iterationCount + ": The total results count was " + resultsSeen);
+			iterationCount++;
 
-			String viewValueString = (String) vr.value().toString();
+			// Analyze these results
+			analyzeTimestampsInResults(lastQuery.getViewResult(), printTimestamps);
 
-			// System.out.println("analyzeTimestampsInResults: " + viewValueString);
+			return (resultsSeen == expectedResults);
+		}
 
-			com.google.gson.JsonObject valueJO = jp.parse(viewValueString).getAsJsonObject();
+	} // ExpectedResultCountProbe
 
-			long viewDateNow  = valueJO.get("viewDateNow").getAsLong();
-			long creationDate = valueJO.get("creationDate").getAsLong();
-			long diff = viewDateNow - creationDate;   // This difference should be positive
-			System.out.println("Result #: " + resultsLookedAt 
-					+ " creationDate: " + creationDate 
-					+ " viewDateNow: "  + viewDateNow 
-					+ " difference: "   + diff + " ms.");
+	// One poll of the delete test: a full Stale.FALSE query, converged once the key no longer appears.
+	// The rows are streamed into a ViewKeyIndex, so the lookup is O(1) and nothing else is kept.
+	static class KeyAbsentProbe implements ConvergenceProbe {
 
-			if (diff < minimumDiff) { minimumDiff = diff; }
-			if (diff > maximumDiff) { maximumDiff = diff; }
+		Bucket  bucket;
+		String  designDocName;
+		String  viewName;
+		String  key;
 
-			// Here is what this program is all about:
-			// t2 is right now.  Compare creationDate from the doc and viewDateNow from the view
-			// to right now, and report the time difference.
+		ViewKeyIndex previousKeys = null;
 
-			long t2 = System.currentTimeMillis();
+		KeyAbsentProbe(Bucket b, String dn, String vn, String k) {
+			bucket        = b;
+			designDocName = dn;
+			viewName      = vn;
+			key           = k;
+		}
 
-			logMessage("The item was first created " + ( t2 - creationDate) + " ms ago.");
-			logMessage("The view emitted its value " + ( t2 - viewDateNow)  + " ms ago.");
+		public boolean hasConverged() {
+			System.out.println("Checking to see if the item appears in the full view query results...");
+			int expectedSize = (previousKeys == null) ? 16 : previousKeys.size();
+			ViewKeyIndex currentKeys = new ViewKeyIndex(expectedSize);
+			CBFullViewQueryTimer fvqt = new CBFullViewQueryTimer(bucket, designDocName, viewName, Stale.FALSE, currentKeys);
+			runATimingClass(null, fvqt);
+
+			if (previousKeys != null) {
+				logMessage("Since the last poll: " + currentKeys.keysNotIn(previousKeys).size() + " keys added, "
+						+ previousKeys.keysNotIn(currentKeys).size() + " keys removed.");
+			}
+			previousKeys = currentKeys;
 
+			if (currentKeys.contains(key)) {
+				System.out.println("The item appeared in the list.  NOT deleted yet.");
+				return false;
+			}
+			System.out.println("The item did not appear in the list.  It IS deleted.");
+			return true;
 		}
 
-		logMessage("Note:  viewDateNow is cluster-side and creationDate is client-side.  Assuming clocks in sync.");
+	} // KeyAbsentProbe
 
-		logMessage("The minimum (View emit - Creation time) diff is: " + minimumDiff + "  ms.");
-		logMessage("The maximum (View emit - Creation time) diff is: " + maximumDiff + "  ms.");
-		printCenteredBanner("Done with analyze results ( looked at " + resultsLookedAt + ")");
 
+	// For each key count, fetch the same documents testDocument0 .. testDocument(n-1) back to back with
+	// an async multi-get, with ViewQuery.keys() queries, and (when n covers the whole bucket) with a
+	// full view query, and report throughput and latency for each.
+	// The view must emit meta.id as its key and must already be indexed, so run this after a Stale.FALSE query.
+	static void runMultiGetComparison(Bucket bucket, String designDocName, String viewName, int numDocuments,
+			int[] keyCounts, int concurrency, int keysPerQuery) {
 
-	}
+		printCenteredBanner("Multi-get vs. view query comparison");
 
+		List<String> report = new ArrayList<String>();
 
-	static void runATimingClass(TimingClass tc) {
-		tc.performTest();
+		for (int k = 0; k < keyCounts.length; k++) {
 
-		if (tc.didExceptionOccur()) {
-			printCenteredBanner(tc.getClass().getName() + ": An exception did occur");
-			tc.getException().printStackTrace();
-			System.exit(1);
-		}
-		else {
-			printCenteredBanner(tc.getClass().getName() + ": No exception occurred");
-		}
+			int numKeys = Math.min(keyCounts[k], numDocuments);
 
-		printCenteredBanner(tc.getClass().getName() + ": Elapsed time: " + tc.getElapsedTime() + " ms.");		
-	}
+			String[] ids = new String[numKeys];
+			for (int i = 0; i < numKeys; i++) { ids[i] = "testDocument" + i; }
 
+			CBMultiGetItemsTimer mgt = new CBMultiGetItemsTimer(bucket, ids, concurrency);
+			runATimingClass("multi-get comparison/" + numKeys + "/multi-get", mgt);
 
-	public static void printDecoration(int c, String s) {
-		for (int i = 0; i < c; i++) { System.out.print(s); }
-	}
+			CBViewKeysQueryTimer vkt = new CBViewKeysQueryTimer(bucket, designDocName, viewName, ids, keysPerQuery, Stale.TRUE);
+			runATimingClass("multi-get comparison/" + numKeys + "/view keys query", vkt);
 
-	public static void printCenteredBanner(String s) {
-		int numDecorations = ((SCREENCOLUMNS - (s.length() + 2)) / 2);
-		printDecoration(numDecorations,"=");
-		System.out.print(" " + s + " ");
-		printDecoration(numDecorations,"=");		
-		System.out.println();
-	}
+			report.add("Keys: " + numKeys + " multi-get (concurrency " + concurrency + "): " + mgt.getElapsedTime() + " ms. "
+					+ (long) mgt.getOperationsPerSecond() + " keys/sec. found " + mgt.getSuccessCount()
+					+ " per-get " + mgt.getOperationLatencySummary());
+			report.add("Keys: " + numKeys + " view keys query (" + keysPerQuery + " per query): " + vkt.getElapsedTime() + " ms. "
+					+ (long) vkt.getKeysPerSecond() + " keys/sec. found " + vkt.getTotalResults()
+					+ " per-query " + vkt.getOperationLatencySummary());
 
-	static void logMessage(String s) {
-		System.out.println("=== " + s + " ===");
+			if (numKeys == numDocuments) {
+				CBFullViewQueryTimer fvqt = new CBFullViewQueryTimer(bucket, designDocName, viewName, Stale.TRUE, ViewRowConsumer.DISCARD);
+				runATimingClass("multi-get comparison/" + numKeys + "/full view query", fvqt);
+				report.add("Keys: " + numKeys + " full view query: " + fvqt.getElapsedTime() + " ms. found " + fvqt.getTotalResults());
+			}
+
+			if (numKeys < keyCounts[k]) {
+				report.add("Keys: only " + numDocuments + " documents in the bucket, skipping larger key counts");
+				break;
+			}
+		}
+
+		for (String line : report) { logMessage(line); }
+
+		printCenteredBanner("Done with multi-get vs. view query comparison");
 	}
 
 
-} // ViewTimingTest
+	// Drain the (already indexed) view page by page, first as one sequential range and then split
+	// into numRanges ranges walked in parallel, and report time per page and overall rows/sec.
+	static void runPaginatedScan(Bucket bucket, String designDocName, String viewName, int pageSize, int numRanges) {
 
+		printCenteredBanner("Paginated view scan");
 
-class TimingClass {
+		CBPaginatedViewQueryTimer sequential = new CBPaginatedViewQueryTimer(bucket, designDocName, viewName, Stale.TRUE, pageSize);
+		runATimingClass("paginated scan/sequential", sequential);
 
-	long      startTime, endTime;
-	boolean   exceptionOccurred;
-	Exception caughtException;
+		Object[] boundaries = CBPaginatedViewQueryTimer.sampleRangeBoundaries(bucket, designDocName, viewName, Stale.TRUE, numRanges);
+		CBPaginatedViewQueryTimer parallel = new CBPaginatedViewQueryTimer(bucket, designDocName, viewName, Stale.TRUE, pageSize, boundaries);
+		runATimingClass("paginated scan/parallel", parallel);
 
-	public TimingClass() {
-		startTime         = 0;
-		endTime           = 0;
-		caughtException   = null;
-		exceptionOccurred = false;
-	}
+		logMessage("Sequential scan: " + sequential.getTotalResults() + " rows in " + sequential.getTotalPages() + " pages, "
+				+ sequential.getElapsedTime() + " ms. " + (long) sequential.getRowsPerSecond() + " rows/sec.");
+		logMessage("Sequential scan per page " + sequential.getOperationLatencySummary());
+		logMessage("Parallel scan (" + parallel.getRangeCount() + " ranges): " + parallel.getTotalResults() + " rows in " + parallel.getTotalPages() + " pages, "
+				+ parallel.getElapsedTime() + " ms. " + (long) parallel.getRowsPerSecond() + " rows/sec.");
+		logMessage("Parallel scan per page " + parallel.getOperationLatencySummary());
 
-	public void startTiming() {		startTime = System.currentTimeMillis();    }
-	public void stopTiming()  {		endTime   = System.currentTimeMillis();    }
+		long[] rowsPerRange = parallel.getRowsPerRange();
+		for (int r = 0; r < rowsPerRange.length; r++) {
+			Object startKey = (boundaries == null) ? null : boundaries[r];
+			logMessage("Range " + r + " starting at " + ((startKey == null) ? "the first key" : startKey) + ": " + rowsPerRange[r] + " rows.");
+		}
 
-	public long getElapsedTime() { 
-		return (endTime - startTime);
+		printCenteredBanner("Done with paginated view scan");
 	}
 
-	public boolean didExceptionOccur() { return exceptionOccurred; }
 
-	public Exception getException() { return caughtException; }
+	// Gets and inserts at kvRate, then single-key view queries at queryRate, each open-loop for duration ms.
+	// The inserted documents are new, numbered from numDocs on.
+	static void runOpenLoopTests(Bucket bucket, String designDocName, String viewName, int numDocs, double kvRate,
+			double queryRate, long duration, int maxInFlight) {
 
-	// override in subclass
-	public void doTheWork() throws Exception {
-		ViewTimingTestRoundtrip.printCenteredBanner("This is where you do something");
+		printCenteredBanner("Open-loop load");
+
+		LoadOperation[] operations = {
+				LoadOperations.get(numDocs),
+				LoadOperations.insert(numDocs, new DocumentGenerator()),
+				LoadOperations.viewKeysQuery(designDocName, viewName, Stale.TRUE, numDocs, 1)
+		};
+		double[] rates = { kvRate, kvRate, queryRate };
+
+		for (int i = 0; i < operations.length; i++) {
+			CBOpenLoopTimer olt = new CBOpenLoopTimer(bucket, operations[i], rates[i], duration, maxInFlight);
+			runATimingClass("open loop/" + operations[i].name(), olt);
+			logMessage("Open loop " + operations[i].name() + " at " + rates[i] + "/sec: " + olt.getIssuedCount() + " issued, "
+					+ olt.getFailureCount() + " failed, max schedule lag " + String.format("%.3f", olt.getMaxScheduleLag()) + " ms.");
+			logMessage("  response time (from intended start) " + olt.getResponseTimeSummary());
+			logMessage("  service time (from actual send)     " + olt.getServiceTimeSummary());
+			logMessage("  corrected service time              " + olt.getCorrectedServiceTimeSummary());
+		}
+
+		printCenteredBanner("Done with open-loop load");
 	}
 
-	public void performTest() {
 
-		ViewTimingTestRoundtrip.printCenteredBanner(this.getClass().getName());
+	// One mixed run per row of weights, each followed by the view query latency against the write rate
+	// it ran under.  Each run inserts new documents after those of the previous one and removes them
+	// oldest first, from where the last run's removes left off; the gets stay on the loaded documents.
+	// Removes that get ahead of the inserts fail, so the write rate counts completed writes only.
+	static void runMixedWorkloadTests(Bucket bucket, String designDocName, String viewName, int numDocs, int[][] weights,
+			int workers, long duration) {
 
-		// call the method that can be overridden
-		startTiming();
-		try {
-			doTheWork();
-		} catch (Exception e) {
-			caughtException = e;
-			exceptionOccurred = true;
+		printCenteredBanner("Mixed workload");
+
+		int nextSerialNumber        = numDocs;
+		int nextRemovalSerialNumber = numDocs;
+		List<String> curve = new ArrayList<String>();
+
+		for (int run = 0; run < weights.length; run++) {
+
+			LoadOperation[] operations = {
+					LoadOperations.insert(nextSerialNumber, new DocumentGenerator()),
+					LoadOperations.get(numDocs),
+					LoadOperations.remove(nextRemovalSerialNumber),
+					LoadOperations.fullViewQuery(designDocName, viewName, Stale.FALSE)
+			};
+
+			CBMixedWorkloadTimer mwt = new CBMixedWorkloadTimer(bucket, operations, weights[run], workers, duration);
+			runATimingClass("mixed workload/" + run, mwt);
+			nextSerialNumber       += mwt.getIssuedCount(0);
+			nextRemovalSerialNumber = (int) Math.min(nextRemovalSerialNumber + mwt.getIssuedCount(2), nextSerialNumber);
+
+			logMessage("Mixed workload run " + run + ", weights " + Arrays.toString(weights[run]) + ":");
+			for (int i = 0; i < operations.length; i++) {
+				logMessage("  " + operations[i].name() + ": " + (long) mwt.getThroughput(i) + "/sec, " + mwt.getFailureCount(i) + " failed, "
+						+ mwt.getLatencySummary(i));
+			}
+
+			// getThroughput() counts completed requests only
+			long writesPerSecond = (long) (mwt.getThroughput(0) + mwt.getThroughput(2));
+			long failedWrites    = mwt.getFailureCount(0) + mwt.getFailureCount(2);
+			curve.add("  " + writesPerSecond + " writes/sec (" + failedWrites + " failed): view query " + mwt.getLatencySummary(3));
 		}
-		stopTiming();
+
+		logMessage("View query latency by write rate:");
+		for (String line : curve) { logMessage(line); }
+
+		printCenteredBanner("Done with mixed workload");
 	}
 
-} // generic TimingClass, each specific operation below is a subclass of it and implements the doTheWork() method
 
-class CBSingleGetItemsTimer extends TimingClass {
-	String[] ids;
-	Bucket bucket;
-	int successCount;
+	// Gets of the loaded documents, then inserts and removes of new ones, with the blocking API on
+	// virtual threads and on a platform pool, and through the async API (gets and inserts only).
+	// Every mode may have up to concurrency operations outstanding; the platform pool also caps it at
+	// poolSize.  The new documents are numbered from numDocs on and removed again.
+	static void runThreadingComparison(Bucket bucket, int numDocs, int numToProcess, int concurrency, int poolSize) {
 
-	public CBSingleGetItemsTimer(Bucket b, String[] idList) {
-		bucket = b;
-		ids = idList;
-		successCount = 0;
-	}
+		printCenteredBanner("Virtual threads vs. platform threads vs. async API");
 
-	public int getSuccessCount() { return successCount; }
+		int numToGet = Math.min(numToProcess, numDocs);
+		String[] modes = { WorkerExecutors.VIRTUAL, WorkerExecutors.PLATFORM };
 
-	public void doTheWork() throws Exception {
-		JsonDocument d;
-		for (int i = 0; i < ids.length; i++) {
-			d = bucket.get(ids[i]);
-			if (d != null) { successCount++; }
+		if (!WorkerExecutors.isVirtualThreadsAvailable()) {
+			logMessage("No virtual threads in this JVM (Java 21 or later needed), \"virtual\" runs a platform thread per operation.");
 		}
-	}
-} // Given a list of specific documents, get them sequentially
 
+		for (String mode : modes) {
+			CBThreadedItemsTimer get = new CBThreadedItemsTimer(bucket, "get", 0, numToGet, null, mode, poolSize, concurrency);
+			runATimingClass("threads/get/" + mode, get);
+			logMessage("get    on " + mode + " threads: " + (long) get.getOperationsPerSecond() + " ops/sec, " + get.getOperationLatencySummary());
+		}
+		CBMultiGetItemsTimer mgt = new CBMultiGetItemsTimer(bucket, ScenarioContext.documentIds(numToGet), concurrency);
+		runATimingClass("threads/multi-get", mgt);
+		logMessage("get    async:            " + (long) mgt.getOperationsPerSecond() + " ops/sec, " + mgt.getOperationLatencySummary());
 
-class CBConnectTimer extends TimingClass {
+		DocumentGenerator generator = new DocumentGenerator();
 
-	CouchbaseCluster sourceCluster;
-	String hostName;
+		for (String mode : modes) {
+			CBThreadedItemsTimer insert = new CBThreadedItemsTimer(bucket, "insert", numDocs, numToProcess, generator, mode, poolSize, concurrency);
+			runATimingClass("threads/insert/" + mode, insert);
+			logMessage("insert on " + mode + " threads: " + (long) insert.getOperationsPerSecond() + " ops/sec, " + insert.getOperationLatencySummary());
 
-	public CBConnectTimer(String s) {
-		hostName = s;
-	}
+			CBThreadedItemsTimer remove = new CBThreadedItemsTimer(bucket, "remove", numDocs, numToProcess, null, mode, poolSize, concurrency);
+			runATimingClass("threads/remove/" + mode, remove);
+			logMessage("remove on " + mode + " threads: " + (long) remove.getOperationsPerSecond() + " ops/sec, " + remove.getOperationLatencySummary());
+		}
+		CBBulkLoadTimer blt = new CBBulkLoadTimer(bucket, numDocs, numToProcess, concurrency, numToProcess, generator);
+		runATimingClass("threads/insert async", blt);
+		logMessage("insert async:            " + (long) blt.getDocumentsPerSecond() + " ops/sec, " + blt.getOperationLatencySummary());
 
-	public CouchbaseCluster getCluster() { return sourceCluster; };
+		// Not part of the comparison, only puts the bucket back the way it was
+		runATimingClass("threads/cleanup", new CBThreadedItemsTimer(bucket, "remove", numDocs, numToProcess, null, WorkerExecutors.VIRTUAL, poolSize, concurrency));
 
-	public void doTheWork() throws Exception {
-		sourceCluster = CouchbaseCluster.create(hostName);
+		printCenteredBanner("Done with threading comparison");
 	}
 
-} // CBConnectTimer
 
+	// The same mix of full view queries, single key view queries and upserts of the loaded documents,
+	// straight to the bucket, through a ViewResultCache, and through one that is emptied by every
+	// upsert, for stale=ok and stale=update_after queries.  Prints query throughput, latency and the
+	// cache's hit rate for each.
+	static void runViewCacheComparison(Bucket bucket, String designDocName, String viewName, int numDocs, int[] weights,
+			int entries, long ttlOk, long ttlUpdateAfter, int workers, long duration) {
 
+		printCenteredBanner("View result cache");
 
-class CBOpenBucketTimer extends TimingClass {
+		Stale[]  staleModes = { Stale.TRUE, Stale.UPDATE_AFTER };
+		String[] cacheModes = { "no cache", "cache", "cache, invalidate on write" };
 
-	CouchbaseCluster myCluster;
-	Bucket bucket;
-	String bucketName;
+		List<String> table = new ArrayList<String>();
 
-	// Given a cluster and a bucket name, open the bucket
-	public CBOpenBucketTimer(CouchbaseCluster c, String bName) {
-		myCluster  = c;
-		bucketName = bName;
-	}
+		for (Stale stale : staleModes) {
+			for (int c = 0; c < cacheModes.length; c++) {
 
-	public Bucket getBucket() { return bucket; };
+				ViewResultCache cache = null;
+				Bucket b = bucket;
+				if (c > 0) {
+					cache = new ViewResultCache(entries, ttlOk, ttlUpdateAfter, 0, (c == 2));
+					b = new CachingBucket(bucket, cache).getBucket();
+				}
 
-	public void doTheWork() throws Exception {
-		bucket = myCluster.openBucket(bucketName);	
-	}
+				LoadOperation[] operations = {
+						LoadOperations.fullViewQuery(designDocName, viewName, stale),
+						LoadOperations.viewKeysQuery(designDocName, viewName, stale, numDocs, 1),
+						LoadOperations.upsert(numDocs, new DocumentGenerator())
+				};
 
-} // Open a bucket
+				CBMixedWorkloadTimer mwt = new CBMixedWorkloadTimer(b, operations, weights, workers, duration);
+				runATimingClass("view cache/" + stale.identifier() + "/" + cacheModes[c], mwt);
 
+				String label = "stale=" + stale.identifier() + ", " + cacheModes[c];
+				logMessage(label + ":");
+				for (int i = 0; i < operations.length; i++) {
+					logMessage("  " + operations[i].name() + ": " + (long) mwt.getThroughput(i) + "/sec, " + mwt.getFailureCount(i) + " failed, "
+							+ mwt.getLatencySummary(i));
+				}
+				if (cache != null) { logMessage("  " + cache.getSummary()); }
 
-class CBDeleteItemTimer extends TimingClass {
+				table.add("  " + label + ": full view " + (long) mwt.getThroughput(0) + "/sec p50 "
+						+ String.format("%.3f", percentile(mwt.getHistogram(0), 50.0)) + " ms, key query " + (long) mwt.getThroughput(1)
+						+ "/sec p50 " + String.format("%.3f", percentile(mwt.getHistogram(1), 50.0)) + " ms"
+						+ ((cache == null) ? "" : String.format(", hit rate %.1f%%", cache.getHitRate() * 100.0)));
+			}
+		}
 
-	Bucket bucket;
-	String documentKey;
+		logMessage("View queries without and with the cache:");
+		for (String line : table) { logMessage(line); }
 
-	public CBDeleteItemTimer(Bucket b, String docKey) {
-		bucket = b;
-		documentKey = docKey;
+		printCenteredBanner("Done with view result cache");
 	}
 
-	public void doTheWork() throws Exception {
-		bucket.remove(documentKey);
+	// In ms, 0 when nothing was recorded
+	static double percentile(Histogram h, double percentile) {
+		return ((h == null) || (h.getTotalCount() == 0)) ? 0 : h.getValueAtPercentile(percentile) / 1000000.0;
 	}
 
-}
 
+	// One CBStaleTradeoffTimer run per stale setting, at the same write rate, then a table of query
+	// latency against freshness: how many of the last `recent` writes each result was missing, and
+	// how long ago the oldest missing one was written.  The writes are new documents, numbered on
+	// from the loaded ones and from the previous run's.
+	static void runStaleTradeoffMatrix(Bucket bucket, String designDocName, String viewName, int numDocs, double writeRate, int recent,
+			int workers, long duration) {
 
-class CBCreateBucketTimer extends TimingClass {
+		printCenteredBanner("Stale setting latency / freshness trade-off");
 
-	// This is for bucket creation only.
+		Stale[] staleModes = { Stale.TRUE, Stale.UPDATE_AFTER, Stale.FALSE };
+		DocumentGenerator generator = new DocumentGenerator();
+		int nextSerialNumber = numDocs;
 
-	CouchbaseCluster myCluster;
-	String bucketName;
-	String u;
-	String p;
+		List<String> table = new ArrayList<String>();
+		table.add(String.format("%-14s %10s %10s %10s %10s %12s %12s %16s", "stale", "queries/s", "p50 ms", "p99 ms", "max ms",
+				"avg missing", "p99 missing", "p99 missing age"));
 
-	int bucketQuota = 100; // megabytes
+		for (Stale stale : staleModes) {
+			CBStaleTradeoffTimer stt = new CBStaleTradeoffTimer(bucket, designDocName, viewName, stale, nextSerialNumber, writeRate, recent,
+					workers, duration, generator);
+			runATimingClass("stale tradeoff/" + stale.identifier(), stt);
+			nextSerialNumber += (int) stt.getWriteCount();
 
-	// Given a cluster and a bucket name, open the bucket
-	public CBCreateBucketTimer(CouchbaseCluster c, String bName, String un, String pw) {
-		myCluster  = c;
-		bucketName = bName;
-		u = un;
-		p = pw;
-	}
+			logMessage("stale=" + stale.identifier() + ": " + stt.getQueryCount() + " queries, " + stt.getWriteCount() + " writes.");
+			logMessage("  query latency " + stt.getOperationLatencySummary());
+			logMessage("  " + stt.getMissingSummary());
+			logMessage("  oldest missing write age " + stt.getMissingAgeSummary());
 
-	public void doTheWork() throws Exception {
-		DefaultBucketSettings.Builder bb = DefaultBucketSettings.builder();
-		bb.name(bucketName);
-		bb.quota(bucketQuota);
-		BucketSettings bs = bb.build();
+			if (stt.getOperationCount() == 0) {
+				table.add(String.format("%-14s %10s", stale.identifier(), "failed"));
+				continue;
+			}
+			Histogram latency = stt.getOperationHistogram();
+			table.add(String.format("%-14s %10d %10.3f %10.3f %10.3f %12.1f %12d %16.3f", stale.identifier(), (long) stt.getQueriesPerSecond(),
+					percentile(latency, 50.0), percentile(latency, 99.0), latency.getMaxValue() / 1000000.0, stt.getAverageMissing(),
+					stt.getMissingHistogram().getValueAtPercentile(99.0), percentile(stt.getMissingAgeHistogram(), 99.0)));
+		}
 
-		ClusterManager cm = myCluster.clusterManager(u,p);
-		cm.insertBucket(bs);
+		logMessage("Query latency against freshness, " + writeRate + " writes/sec, checked against the last " + recent + " writes:");
+		for (String line : table) { logMessage(line); }
 
+		printCenteredBanner("Done with stale setting trade-off");
 	}
 
-} // Create a bucket
 
+	// Creates a design document with one view per reduce function over the same map function, waits
+	// for its index, then for every view and grouping times the reduced query against reading the
+	// rows with reduce=false and aggregating here.  Prints latency, rows and payload of both, and
+	// whether they agree.  builtInReducesOnly leaves out the views with a JavaScript reduce, which
+	// InMemoryBucket cannot run.  The design document is removed again at the end.
+	static void runAggregationComparison(Bucket bucket, String mapFunction, String[][] allViews, int[] groupLevels, int repeats,
+			boolean builtInReducesOnly) {
+
+		printCenteredBanner("Reduce views vs. client-side aggregation");
+
+		List<String[]> views = new ArrayList<String[]>();
+		for (String[] v : allViews) {
+			if (builtInReducesOnly && !v[1].startsWith("_")) {
+				logMessage("Leaving out view " + v[0] + ", its reduce function is JavaScript.");
+				continue;
+			}
+			views.add(v);
+		}
+
+		String designDocName = "aggregation";
+		List<View> viewList = new ArrayList<View>();
+		for (String[] v : views) { viewList.add(CBCreateDesignDocumentTimer.createView(v[0], mapFunction, v[1])); }
+
+		CBCreateDesignDocumentTimer cddt = new CBCreateDesignDocumentTimer(bucket, designDocName, viewList);
+		runATimingClass("aggregation/create design document", cddt);
+
+		// Build the index first, so neither way pays for it
+		for (String[] v : views) {
+			bucket.query(ViewQuery.from(designDocName, v[0]).stale(Stale.FALSE).reduce(false).limit(1));
+		}
+
+		List<String> table = new ArrayList<String>();
+		table.add(String.format("%-10s %-14s %7s %10s %10s %8s %12s %8s %12s %6s", "view", "grouping", "groups", "server p50", "client p50",
+				"rows", "payload", "rows", "payload", "same"));
+
+		for (String[] v : views) {
+			for (int level : groupLevels) {
+				CBAggregationTimer server = new CBAggregationTimer(bucket, designDocName, v[0], Stale.FALSE, v[2], level,
+						CBAggregationTimer.SERVER, repeats);
+				runATimingClass("aggregation/" + v[0] + "/" + CBAggregationTimer.describeGrouping(level) + "/server", server);
+				CBAggregationTimer client = new CBAggregationTimer(bucket, designDocName, v[0], Stale.FALSE, v[2], level,
+						CBAggregationTimer.CLIENT, repeats);
+				runATimingClass("aggregation/" + v[0] + "/" + CBAggregationTimer.describeGrouping(level) + "/client", client);
+				table.add(String.format("%-10s %-14s %7d %10.3f %10.3f %8d %12d %8d %12d %6s", v[0], CBAggregationTimer.describeGrouping(level),
+						server.getGroupCount(), percentile(server.getOperationHistogram(), 50.0), percentile(client.getOperationHistogram(), 50.0),
+						server.getRowsReceived(), server.getPayloadCharacters(), client.getRowsReceived(), client.getPayloadCharacters(),
+						server.sameResult(client) ? "yes" : "NO"));
+			}
+		}
 
-class CBFullViewQueryTimer extends TimingClass {
+		bucket.bucketManager().removeDesignDocument(designDocName);
 
-	Bucket bucket;
-	String designDocName;
-	String viewName;
-	int totalResults;
-	Stale staleValue;
-	List<ViewRow> viewRowList;
+		logMessage("Reduced on the server vs. on the client (latency in ms, payload in characters of JSON, server columns first):");
+		for (String line : table) { logMessage(line); }
 
-	public CBFullViewQueryTimer(Bucket b, String dn, String vn, Stale stl) {
-		bucket        = b;
-		designDocName = dn;
-		viewName      = vn;
-		totalResults  = 0;
-		staleValue = stl;
+		printCenteredBanner("Done with reduce views vs. client-side aggregation");
 	}
 
-	public int getTotalResults() { return totalResults; }
 
-	public List<ViewRow> getViewResult() { return viewRowList; }
+	// For each document count in ascending order: top the bucket up to that many documents, then
+	// build every map function's view from nothing, one at a time, and report the build time and
+	// rows/sec.  Documents are upserted from serial number 0 on, so the ones already loaded are
+	// written again rather than failing; docs/sec counts the documents of the sweep, the bucket may
+	// hold a few more.  The roundtrip's own view stays, and keeps indexing the sweep's writes.  A
+	// failed load or build (a timeout, say) ends the sweep after that size, with the sizes done so
+	// far in the table; the bucket quota (BUCKETQUOTA) must hold the largest document count.
+	static void runIndexBuildSweep(Bucket bucket, int[] documentCounts, String[][] mapFunctions, int inFlight, int batchSize,
+			DocumentGenerator generator, long timeout) {
+
+		printCenteredBanner("Index build sweep");
 
-	public boolean containsKey(String lookupKey) {
-		boolean foundKey = false;
+		List<String> table = new ArrayList<String>();
+		table.add(String.format("%10s  %-14s %12s %10s %7s %12s %12s", "documents", "map function", "build ms", "rows", "queries",
+				"rows/sec", "docs/sec"));
 
-		String eachKey;
+		int loaded = 0;
+		for (int numDocs : documentCounts) {
+
+			if (numDocs > loaded) {
+				CBBulkLoadTimer blt = new CBBulkLoadTimer(bucket, loaded, numDocs - loaded, inFlight, batchSize, generator);
+				blt.setUpsert(true);
+				if (!tryATimingClass("index build sweep/load " + numDocs, blt)) {
+					logMessage("Loading " + numDocs + " documents failed, the sweep stops here.");
+					break;
+				}
+				loaded = numDocs;
+			}
 
-		if (viewRowList != null) {
-			for (ViewRow row: viewRowList) {
-				eachKey = (String) row.key();
-				if (eachKey.equals(lookupKey)) {
-					foundKey = true;
+			boolean buildFailed = false;
+			for (int i = 0; i < mapFunctions.length; i++) {
+				CBIndexBuildTimer ibt = new CBIndexBuildTimer(bucket, "indexBuild" + i, "vn1", mapFunctions[i][1], timeout, false);
+				if (!tryATimingClass("index build sweep/" + numDocs + "/" + mapFunctions[i][0], ibt)) {
+					table.add(String.format("%10d  %-14s %12s", numDocs, mapFunctions[i][0], "failed"));
+					buildFailed = true;
+					continue;
 				}
+				double docsPerSecond = (ibt.getBuildTime() <= 0) ? 0 : (numDocs * 1000.0) / ibt.getBuildTime();
+				table.add(String.format("%10d  %-14s %12.1f %10d %7d %12d %12d", numDocs, mapFunctions[i][0], ibt.getBuildTime(),
+						ibt.getRowCount(), ibt.getAttempts(), (long) ibt.getRowsPerSecond(), (long) docsPerSecond));
+			}
+			if (buildFailed) {
+				logMessage("A build failed at " + numDocs + " documents, the sweep stops here.");
+				break;
 			}
 		}
 
-		return foundKey;
+		logMessage("Index build time by document count and map function:");
+		for (String line : table) { logMessage(line); }
+
+		printCenteredBanner("Done with index build sweep");
 	}
 
-	public void doTheWork() throws Exception {
 
-		// Perform the ViewQuery
-		ViewResult viewResult = bucket.query(ViewQuery.from(designDocName, viewName).stale(staleValue));
+	// For each K design documents x V views: build them all at once over the documents already in
+	// the bucket, then write and poll (see CBIndexContentionTimer), and report the build time, the
+	// Stale.FALSE query latency and the write -> emit latency side by side, overall and by view
+	// position.  Comparing K x 1 with 1 x K shows what splitting the same views over more design
+	// documents costs or gains.
+	static void runIndexContentionTest(Bucket bucket, int[][] configs, String[] mapFunctions, double writeRate, int numDocs,
+			long pollInterval, long duration, long buildTimeout) {
+
+		printCenteredBanner("Index contention test");
+
+		List<String> table = new ArrayList<String>();
+		table.add(String.format("%4s %4s %12s %12s %12s %10s %10s %10s %12s %12s", "K", "V", "build ms", "slowest dd", "rows/sec",
+				"queries", "query p50", "query p99", "emit p50 ms", "emit p99 ms"));
+		List<String> viewTable = new ArrayList<String>();
+		viewTable.add(String.format("%4s %4s %-6s %10s %10s %10s %12s %12s", "K", "V", "view", "queries", "query p50", "query p99",
+				"emit p50 ms", "emit p99 ms"));
+
+		for (int[] config : configs) {
+			CBIndexContentionTimer ict = new CBIndexContentionTimer(bucket, "contention", config[0], config[1], mapFunctions, writeRate,
+					numDocs, pollInterval, duration, buildTimeout);
+			runATimingClass("index contention/" + config[0] + "x" + config[1], ict);
+
+			Histogram queries = ict.getOperationHistogram();
+			Histogram emits   = ict.getWriteToEmitHistogram();
+			table.add(String.format("%4d %4d %12.1f %12.1f %12d %10d %10.3f %10.3f %12.3f %12.3f", config[0], config[1], ict.getBuildTime(),
+					ict.getMaxDesignDocBuildTime(), (long) ict.getRowsPerSecond(), queries.getTotalCount(), percentile(queries, 50.0),
+					percentile(queries, 99.0), percentile(emits, 50.0), percentile(emits, 99.0)));
+			for (int v = 0; v < config[1]; v++) {
+				Histogram viewQueries = ict.getViewQueryHistogram(v);
+				Histogram viewEmits   = ict.getViewWriteToEmitHistogram(v);
+				viewTable.add(String.format("%4d %4d %-6s %10d %10.3f %10.3f %12.3f %12.3f", config[0], config[1], CBIndexContentionTimer.viewName(v),
+						viewQueries.getTotalCount(), percentile(viewQueries, 50.0), percentile(viewQueries, 99.0), percentile(viewEmits, 50.0),
+						percentile(viewEmits, 99.0)));
+			}
+			if (ict.getClockSkewCount() > 0) {
+				logMessage(config[0] + " x " + config[1] + ": " + ict.getClockSkewCount() + " writes were emitted before they were created, counted as 0 ms.");
+			}
+		}
 
-		//boolean  success = result.success();
-		//JsonObject debug = result.debug();
-		//int    totalRows = result.totalRows();
+		logMessage("Index build, query and write -> emit latency by design documents (K) and views per design document (V):");
+		for (String line : table) { logMessage(line); }
+		logMessage("Query and write -> emit latency by view position, over the K design documents:");
+		for (String line : viewTable) { logMessage(line); }
+		logMessage("Note:  viewDateNow is cluster-side and creationDate is client-side.  Assuming clocks in sync.");
+
+		printCenteredBanner("Done with index contention test");
+	}
 
-		viewRowList = new ArrayList<ViewRow>();
 
-		// Iterate through the returned ViewRows
-		for (ViewRow row : viewResult) {
-			System.out.println("CBFullViewQueryTimer:" + row);
-			viewRowList.add(row);
-			totalResults++;
+	static void logReactivePipelineResults(CBReactivePipelineTimer rpt) {
+		logMessage("Pipeline: design document " + String.format("%.3f", rpt.getDesignDocumentTime()) + " ms, populate "
+				+ String.format("%.3f", rpt.getPopulateTime()) + " ms (" + (long) rpt.getInsertsPerSecond() + " inserts/sec), complete view after "
+				+ String.format("%.3f", rpt.getIndexTime()) + " ms and " + rpt.getPollCount() + " polls.");
+		TimestampAnalyzer analyzer = rpt.getAnalyzer();
+		if (analyzer != null) {
+			logMessage("Pipeline: (View emit - Creation time) over " + analyzer.getResultsLookedAt() + " rows: min " + analyzer.getMinimumDiff()
+					+ " ms, avg " + String.format("%.1f", analyzer.getAverageDiff()) + " ms, max " + analyzer.getMaximumDiff() + " ms.");
 		}
 	}
 
-} // CBFullViewQueryTimer
 
+	static void analyzeTimestampsInResults(List<ViewRow> result, boolean printEachRow) {
 
-class CBPopulateBucketTimer extends TimingClass {
+		printCenteredBanner("About to analyze results");
 
-	Bucket bucket;
-	int numDocumentsToInsert;
+		TimestampAnalyzer analyzer = new TimestampAnalyzer(printEachRow);
 
-	public CBPopulateBucketTimer(Bucket b, int numDocs) {
-		bucket = b;
-		numDocumentsToInsert = numDocs;
-	}
+		for (ViewRow vr : result) {
+			analyzer.consumeRow(vr.id(), vr.key(), vr.value());
+		}
 
+		logMessage("Note:  viewDateNow is cluster-side and creationDate is client-side.  Assuming clocks in sync.");
 
-	public void doTheWork() throws Exception {
+		logMessage("The minimum (View emit - Creation time) diff is: " + analyzer.getMinimumDiff() + "  ms.");
+		logMessage("The maximum (View emit - Creation time) diff is: " + analyzer.getMaximumDiff() + "  ms.");
+		if (analyzer.getRowsWithoutTimestamps() > 0) {
+			logMessage(analyzer.getRowsWithoutTimestamps() + " rows had no creationDate / viewDateNow.");
+		}
+		printCenteredBanner("Done with analyze results ( looked at " + analyzer.getResultsLookedAt() + ")");
 
-		String DOCUMENTNAMEPREFIX = "testDocument";
-		String jsonDocumentString = "";
-		String documentKey        = "";
-		JsonObject jsonObject     = null;
 
-		// TODO: Consider putting this inside the loop or not.
-		// When outside the loop, all docs will have the same creationDate
-		// On the other hand the total time to populate the bucket
-		// can be about 500-600 ms.
+	}
 
-		//long timeNow = System.currentTimeMillis();
 
-		for (int i = 0; i < numDocumentsToInsert; i++) {
+	// Like runATimingClass(), but a failure is reported and returned instead of ending the program,
+	// for tests that can carry on without the failed step
+	static boolean tryATimingClass(String phase, TimingClass tc) {
+		tc.performTest();
+		recordPhase(phase, tc);
 
-			// test
-			long timeNow = System.currentTimeMillis();
+		if (tc.didExceptionOccur()) {
+			printCenteredBanner(tc.getClass().getName() + ": An exception did occur");
+			tc.getException().printStackTrace();
+			return false;
+		}
 
-			// create a document
-			documentKey = DOCUMENTNAMEPREFIX + i;
-			jsonDocumentString = "{ \"name\" : \"testDocument\", \"serialNumber\" : " + i + ", \"creationDate\" : " + timeNow + " }";
-			jsonObject = JsonObject.fromJson(jsonDocumentString);
-			JsonDocument jsonDocument = JsonDocument.create(documentKey, jsonObject);
+		printCenteredBanner(tc.getClass().getName() + ": Elapsed time: " + tc.getElapsedTime() + " ms.");
 
-			// insert the document
-			bucket.insert(jsonDocument);			
+		if (tc.isOperationTimingEnabled()) {
+			logMessage(tc.getClass().getName() + " latency " + tc.getOperationLatencySummary());
+		}
+		return true;
+	}
 
-		} // for each document
+	// phase is the name the run is recorded under in the results, null to leave it out (the polls of
+	// a convergence wait, whose number differs from run to run)
+	static void runATimingClass(String phase, TimingClass tc) {
+		tc.performTest();
+		recordPhase(phase, tc);
 
-	} // doTheWork
+		if (tc.didExceptionOccur()) {
+			printCenteredBanner(tc.getClass().getName() + ": An exception did occur");
+			tc.getException().printStackTrace();
+			closeResults();
+			System.exit(1);
+		}
+		else {
+			printCenteredBanner(tc.getClass().getName() + ": No exception occurred");
+		}
 
-} // populate a bucket
+		printCenteredBanner(tc.getClass().getName() + ": Elapsed time: " + tc.getElapsedTime() + " ms.");		
 
+		if (tc.isOperationTimingEnabled()) {
+			logMessage(tc.getClass().getName() + " latency " + tc.getOperationLatencySummary());
+		}
+	}
 
 
-class CBCreateDesignDocumentTimer extends TimingClass {
+	static boolean awaitConvergence(ConvergenceWaiter waiter, ConvergenceProbe probe) {
+		boolean converged = false;
 
-	Bucket bucket;
-	String designDocumentName;
-	String viewName;
-	String mapFunction;
+		try {
+			converged = waiter.await(probe);
+		} catch (Exception e) {
+			printCenteredBanner(probe.getClass().getName() + ": An exception did occur");
+			e.printStackTrace();
+			closeResults();
+			System.exit(1);
+		}
 
-	public CBCreateDesignDocumentTimer(Bucket b, String ddn, String vn, String mf) {
-		bucket             = b;
-		designDocumentName = ddn;
-		viewName           = vn;
-		mapFunction        = mf;
+		return converged;
 	}
 
-	public void doTheWork() throws Exception {
 
-		View v = DefaultView.create(viewName, mapFunction);
+	public static void printDecoration(int c, String s) {
+		for (int i = 0; i < c; i++) { System.out.print(s); }
+	}
 
-		List<View> listOfViews = new ArrayList<View>();
-		listOfViews.add(v);
+	public static void printCenteredBanner(String s) {
+		int numDecorations = ((SCREENCOLUMNS - (s.length() + 2)) / 2);
+		printDecoration(numDecorations,"=");
+		System.out.print(" " + s + " ");
+		printDecoration(numDecorations,"=");		
+		System.out.println();
+	}
 
-		DesignDocument dd = DesignDocument.create(designDocumentName, listOfViews);
+	// Every call site names its phase, with the parameters of its loop if it has one, so ResultsDiff
+	// matches the same measurement in two runs whatever ran before it
+	static void recordPhase(String phase, TimingClass tc) {
+		if ((resultsSink == null) || (phase == null)) { return; }
+		resultsSink.recordPhase(phase, tc);
+	}
+
+	static void closeResults() {
+		if (resultsSink == null) { return; }
+		try {
+			resultsSink.close();
+			logMessage("Results written to " + resultsSink.getDirectory());
+		} catch (IOException e) {
+			printCenteredBanner("Could not write the results to " + resultsSink.getDirectory());
+			e.printStackTrace();
+		}
+		resultsSink = null;
+	}
 
-		BucketManager bm = bucket.bucketManager();
-		bm.insertDesignDocument(dd);
+	static void logMessage(String s) {
+		System.out.println("=== " + s + " ===");
 	}
 
-} // create a design document
 
-// EOF
\ No newline at end of file
+} // ViewTimingTest
+
+// EOF
@@ -0,0 +1,67 @@
+// WorkerExecutors
+//
+// The executors the timers run blocking SDK calls on.  With virtual threads (Java 21) a thread per
+// blocking call is cheap, so tens of thousands of gets or inserts can be outstanding through the
+// plain Bucket API without rewriting a timer against bucket.async().
+//
+// The project still compiles for Java 8, so Executors.newVirtualThreadPerTaskExecutor() is looked
+// up by reflection.  Where it does not exist, "virtual" falls back to a new platform thread per task,
+// which behaves the same but costs a real thread each; isVirtualThreadsAvailable() tells which one ran.
+//
+//   "virtual"    one (virtual) thread per task, any number at once
+//   "platform"   a fixed pool of poolSize platform threads
+
+package com.couchbase.support;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+class WorkerExecutors {
+
+	static final String VIRTUAL  = "virtual";
+	static final String PLATFORM = "platform";
+
+	static final Method NEWVIRTUALTHREADEXECUTOR = findVirtualThreadFactoryMethod();
+
+	static Method findVirtualThreadFactoryMethod() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			((ExecutorService) m.invoke(null)).shutdown();	// preview-only on Java 19 and 20, where the call itself fails
+			return m;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	public static boolean isVirtualThreadsAvailable() { return (NEWVIRTUALTHREADEXECUTOR != null); }
+
+	public static ExecutorService newVirtualThreadExecutor() {
+		if (NEWVIRTUALTHREADEXECUTOR != null) {
+			try {
+				return (ExecutorService) NEWVIRTUALTHREADEXECUTOR.invoke(null);
+			} catch (Exception e) {
+				throw new IllegalStateException("Could not create a virtual thread executor", e);
+			}
+		}
+		return Executors.newCachedThreadPool();
+	}
+
+	public static ExecutorService newPlatformThreadPool(int poolSize) {
+		if (poolSize < 1) { throw new IllegalArgumentException("poolSize must be at least 1"); }
+		return Executors.newFixedThreadPool(poolSize);
+	}
+
+	public static ExecutorService create(String threadMode, int poolSize) {
+		if (threadMode.equals(VIRTUAL))  { return newVirtualThreadExecutor(); }
+		if (threadMode.equals(PLATFORM)) { return newPlatformThreadPool(poolSize); }
+		throw new IllegalArgumentException("Unknown thread mode: " + threadMode);
+	}
+
+	// For reports: what "virtual" really runs on in this JVM
+	public static String describe(String threadMode) {
+		if (threadMode.equals(VIRTUAL) && !isVirtualThreadsAvailable()) { return "virtual (platform threads, no virtual threads in this JVM)"; }
+		return threadMode;
+	}
+
+} // WorkerExecutors